@@ -0,0 +1,83 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>比较同一个工作区的index文件分别以版本2和版本4（路径名前缀压缩）保存时的解析耗时</p>
+ * <p>准备阶段先把{@code indexFile}复制到临时文件，再在{@code workTree}中通过
+ * {@code git update-index --index-version}将其转换为指定的版本，因此需要能够执行git命令。
+ * {@code configuration}为“引擎/存储方式”，只列出受支持的组合（{@link IndexStateResolver.Engine#RANDOM_ACCESS}只支持
+ * {@link IndexStateResolver.Storage#OBJECTS}），例如：</p>
+ * <pre>
+ * gradle jmh -PjmhArgs="IndexVersionBenchmark -p indexFile=/path/to/.git/index -p workTree=/path/to"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexVersionBenchmark {
+
+    @Param({".git/index"})
+    public String indexFile;
+
+    @Param({"."})
+    public String workTree;
+
+    @Param({"2", "4"})
+    public int version;
+
+    @Param({"RANDOM_ACCESS/OBJECTS", "MAPPED/OBJECTS", "MAPPED/COLUMNAR", "MAPPED/LAZY", "MAPPED/OFF_HEAP"})
+    public String configuration;
+
+    private IndexStateResolver resolver;
+
+    private File converted;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+
+        String[] parts = configuration.split("/");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("configuration must be ENGINE/STORAGE: " + configuration);
+        IndexStateResolver.Engine engine = IndexStateResolver.Engine.valueOf(parts[0]);
+        IndexStateResolver.Storage storage = IndexStateResolver.Storage.valueOf(parts[1]);
+        if (engine == IndexStateResolver.Engine.RANDOM_ACCESS && storage != IndexStateResolver.Storage.OBJECTS)
+            throw new IllegalArgumentException("RANDOM_ACCESS engine only supports OBJECTS storage");
+
+        converted = File.createTempFile("index-v" + version + "-", ".idx");
+        Files.copy(new File(indexFile).toPath(), converted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        ProcessBuilder git = new ProcessBuilder("git", "update-index", "--index-version", String.valueOf(version))
+                .directory(new File(workTree))
+                .inheritIO();
+        git.environment().put("GIT_INDEX_FILE", converted.getAbsolutePath());
+        int exitCode = git.start().waitFor();
+        if (exitCode != 0)
+            throw new IllegalStateException("git update-index exited with " + exitCode);
+
+        resolver = new IndexStateResolver(engine);
+        if (engine == IndexStateResolver.Engine.MAPPED)
+            resolver.setStorage(storage);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converted.delete();
+    }
+
+    @Benchmark
+    public IndexState resolve() throws IOException {
+        return resolver.resolve(converted.getAbsolutePath());
+    }
+
+}
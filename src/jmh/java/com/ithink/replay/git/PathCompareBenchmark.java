@@ -0,0 +1,124 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>测量{@link Bytes#compare}比较路径名的耗时，与逐个字节比较的实现对照</p>
+ * <p>路径名按{@link #distribution}生成后排好序，每次比较相邻的两个路径名，即二分查找以及检查顺序时最常见的情形：</p>
+ * <ul>
+ *     <li>MONOREPO：多层目录、较长的公共前缀，例如 services/team07/svc12/src/main/java/com/acme/module3/File123.java</li>
+ *     <li>FLAT：少数几层目录、较短的文件名</li>
+ *     <li>UNICODE：包含多字节UTF-8字符（最高位为1的字节）的路径名</li>
+ * </ul>
+ * <pre>
+ * gradle jmh -PjmhArgs="PathCompareBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathCompareBenchmark {
+
+    private static final int COUNT = 10_000;
+
+    @Param({"MONOREPO", "FLAT", "UNICODE"})
+    public String distribution;
+
+    private byte[][] paths;
+
+    /**
+     * 所有路径名依次保存在一个直接缓冲区中，模拟映射到内存中的index文件
+     */
+    private ByteBuffer buffer;
+    private int[] offsets;
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(42);
+        paths = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++)
+            paths[i] = generate(random).getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(paths, Bytes::compare);
+
+        int total = 0;
+        for (byte[] path : paths)
+            total += path.length;
+
+        buffer = ByteBuffer.allocateDirect(total);
+        offsets = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            offsets[i] = buffer.position();
+            buffer.put(paths[i]);
+        }
+    }
+
+    private String generate(Random random) {
+        switch (distribution) {
+            case "MONOREPO":
+                return "services/team" + random.nextInt(8) + "/svc" + random.nextInt(16)
+                        + "/src/main/java/com/acme/platform/module" + random.nextInt(4)
+                        + "/internal/File" + random.nextInt(1000) + ".java";
+            case "FLAT":
+                return "dir" + random.nextInt(32) + "/f" + random.nextInt(10000);
+            default:
+                return "文档/项目" + random.nextInt(16) + "/章节" + random.nextInt(64)
+                        + "/説明-" + random.nextInt(1000) + ".md";
+        }
+    }
+
+    @Benchmark
+    public int compareArrays() {
+        int sum = 0;
+        for (int i = 1; i < COUNT; i++)
+            sum += Bytes.compare(paths[i - 1], paths[i]);
+        return sum;
+    }
+
+    @Benchmark
+    public int compareBufferWithArray() {
+        int sum = 0;
+        for (int i = 1; i < COUNT; i++)
+            sum += Bytes.compare(buffer, offsets[i - 1], paths[i - 1].length, paths[i], 0, paths[i].length);
+        return sum;
+    }
+
+    @Benchmark
+    public int compareBuffers() {
+        int sum = 0;
+        for (int i = 1; i < COUNT; i++)
+            sum += Bytes.compare(buffer, offsets[i - 1], paths[i - 1].length, buffer, offsets[i], paths[i].length);
+        return sum;
+    }
+
+    /**
+     * 对照：逐个字节按无符号比较
+     */
+    @Benchmark
+    public int compareByteByByte() {
+        int sum = 0;
+        for (int i = 1; i < COUNT; i++)
+            sum += byteByByte(paths[i - 1], paths[i]);
+        return sum;
+    }
+
+    private static int byteByByte(byte[] a, byte[] b) {
+        int min = Math.min(a.length, b.length);
+        for (int i = 0; i < min; i++) {
+            int r = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (r != 0) return r;
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+}
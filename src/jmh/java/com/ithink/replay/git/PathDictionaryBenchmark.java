@@ -0,0 +1,127 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.PathDictionary;
+import com.ithink.replay.git.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>测量按前缀压缩的{@link PathDictionary}与每个路径名一个{@code byte[]}相比，顺序遍历以及按路径名查找的耗时</p>
+ * <p>路径名的分布与{@link PathCompareBenchmark}相同；遍历时两者都把路径名放到同一个缓冲区中，
+ * 即{@link PathDictionary.Cursor}的用法，查找时依次查找打乱顺序的各个路径名</p>
+ * <pre>
+ * gradle jmh -PjmhArgs="PathDictionaryBenchmark -p restartInterval=16"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathDictionaryBenchmark {
+
+    private static final int COUNT = 100_000;
+
+    @Param({"MONOREPO", "FLAT", "UNICODE"})
+    public String distribution;
+
+    @Param({"8", "16", "32"})
+    public int restartInterval;
+
+    private byte[][] paths;
+
+    private PathDictionary dictionary;
+
+    private byte[] buffer;
+
+    /**
+     * 查找的顺序
+     */
+    private int[] queries;
+
+    @Setup
+    public void setUp() {
+
+        Random random = new Random(42);
+        paths = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++)
+            paths[i] = generate(random).getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(paths, Bytes::compare);
+
+        PathDictionary.Builder builder = new PathDictionary.Builder(restartInterval);
+        for (byte[] path : paths)
+            builder.add(path);
+        dictionary = builder.build();
+        buffer = new byte[dictionary.getMaxLength()];
+
+        queries = new int[COUNT];
+        for (int i = 0; i < COUNT; i++)
+            queries[i] = random.nextInt(COUNT);
+    }
+
+    private String generate(Random random) {
+        switch (distribution) {
+            case "MONOREPO":
+                return "services/team" + random.nextInt(8) + "/svc" + random.nextInt(16)
+                        + "/src/main/java/com/acme/platform/module" + random.nextInt(4)
+                        + "/internal/File" + random.nextInt(1000) + ".java";
+            case "FLAT":
+                return "dir" + random.nextInt(32) + "/f" + random.nextInt(10000);
+            default:
+                return "文档/项目" + random.nextInt(16) + "/章节" + random.nextInt(64)
+                        + "/説明-" + random.nextInt(1000) + ".md";
+        }
+    }
+
+    @Benchmark
+    public int iterateArrays() {
+        int sum = 0;
+        for (byte[] path : paths) {
+            System.arraycopy(path, 0, buffer, 0, path.length);
+            sum += buffer[path.length - 1];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int iterateDictionary() {
+        int sum = 0;
+        PathDictionary.Cursor cursor = dictionary.cursor(0, buffer);
+        for (int length; (length = cursor.next()) >= 0; )
+            sum += buffer[length - 1];
+        return sum;
+    }
+
+    @Benchmark
+    public int lookupArrays() {
+        int sum = 0;
+        for (int query : queries)
+            sum += Arrays.binarySearch(paths, paths[query], Bytes::compare);
+        return sum;
+    }
+
+    @Benchmark
+    public int lookupDictionary() {
+        int sum = 0;
+        for (int query : queries)
+            sum += dictionary.indexOf(paths[query]);
+        return sum;
+    }
+
+    /**
+     * 按序号随机访问，每次从所在块的重启点开始解码
+     */
+    @Benchmark
+    public int copyDictionary() {
+        int sum = 0;
+        for (int query : queries)
+            sum += dictionary.copy(query, buffer, 0);
+        return sum;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>比较{@link IndexStateResolver.Engine}中各个解析引擎解析同一个index文件的耗时</p>
+ * <p>默认解析本项目自身的.git/index，可通过{@code -p indexFile=...}指定其他文件，例如：</p>
+ * <pre>
+ * gradle jmh -PjmhArgs="ResolveEngineBenchmark -p indexFile=/path/to/.git/index"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResolveEngineBenchmark {
+
+    @Param({".git/index"})
+    public String indexFile;
+
+    @Param({"RANDOM_ACCESS", "MAPPED"})
+    public IndexStateResolver.Engine engine;
+
+    private IndexStateResolver resolver;
+
+    @Setup
+    public void setUp() {
+        resolver = new IndexStateResolver(engine);
+    }
+
+    @Benchmark
+    public IndexState resolve() throws IOException {
+        return resolver.resolve(indexFile);
+    }
+
+}
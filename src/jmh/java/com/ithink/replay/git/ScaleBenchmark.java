@@ -0,0 +1,164 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+import com.ithink.replay.git.util.Bytes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>在不同规模的{@link IndexGenerator 合成index文件}上分别测量解析的各个环节：</p>
+ * <ul>
+ *     <li>{@link #resolve()}：{@link IndexStateResolver#resolve(String)}整个过程</li>
+ *     <li>{@link #checksum()}：只校验校验和以及读取头部</li>
+ *     <li>{@link #decodeEntries()}：只解码索引条目，不校验、不解析扩展</li>
+ *     <li>{@link #parseCachedTree()}、{@link #parseResolveUndo()}：解析TREE、REUC扩展的数据，
+ *     REUC中的记录只扫描不解码，{@link #decodeResolveUndo()}再解码所有记录</li>
+ *     <li>{@link #buildConflicts()}：构建按路径名查找冲突的{@link ConflictIndex}</li>
+ *     <li>{@link #compareNames()}、{@link #toHexString()}、{@link #toLines()}：解析结果上的常用操作</li>
+ * </ul>
+ * <p>gradle jmh 默认启用GC profiler，结果中的gc.alloc.rate.norm即每次操作分配的字节数，例如：</p>
+ * <pre>
+ * gradle jmh -PjmhArgs="ScaleBenchmark -p entryCount=100000"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class ScaleBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int entryCount;
+
+    private File file;
+
+    private IndexStateResolver resolver;
+
+    private ByteBuffer buffer;
+
+    private IndexState state;
+
+    private byte[] cachedTree;
+
+    private byte[] resolveUndo;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        file = File.createTempFile("scale-" + entryCount + "-", ".idx");
+
+        IndexGenerator generator = new IndexGenerator();
+        generator.setEntryCount(entryCount);
+        generator.setResolveUndoRatio(1.0 / 64);
+        generator.generate(file.getAbsolutePath());
+
+        resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        buffer = IndexBufferParser.map(file.getAbsolutePath());
+        state = resolver.resolve(file.getAbsolutePath());
+
+        for (Extension extension : state.getExtensions()) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(extension.getSize());
+            extension.writeData(data);
+            if (extension.getSignature() == CachedTreeExtension.SIGNATURE)
+                cachedTree = data.toByteArray();
+            else if (extension.getSignature() == ResolveUndoExtension.SIGNATURE)
+                resolveUndo = data.toByteArray();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public IndexState resolve() throws IOException {
+        return resolver.resolve(file.getAbsolutePath());
+    }
+
+    /**
+     * 预先校验时，visitor在头部处停止，只剩下计算SHA-1以及读取头部
+     */
+    @Benchmark
+    public void checksum() throws IOException {
+        resolver.visit(file.getAbsolutePath(), new IndexVisitor() {
+
+            @Override
+            public boolean onHeader(CacheHeader header) {
+                return false;
+            }
+
+            @Override
+            public boolean onEntry(IndexEntryView entry) {
+                return false;
+            }
+        });
+    }
+
+    @Benchmark
+    public IndexEntries decodeEntries() throws IOException {
+        return new IndexBufferParser(buffer, IndexStateResolver.Verification.UP_FRONT, null,
+                IndexStateResolver.Storage.OBJECTS, null, null, null).parseEntries();
+    }
+
+    @Benchmark
+    public CachedTreeExtension parseCachedTree() {
+        return new CachedTreeExtension(cachedTree);
+    }
+
+    @Benchmark
+    public ResolveUndoExtension parseResolveUndo() {
+        return new ResolveUndoExtension(resolveUndo);
+    }
+
+    @Benchmark
+    public int decodeResolveUndo() {
+        int sum = 0;
+        for (ResolveUndoExtension.Entry entry : new ResolveUndoExtension(resolveUndo).getEntries())
+            sum += entry.getPathName().length;
+        return sum;
+    }
+
+    @Benchmark
+    public ConflictIndex buildConflicts() {
+        return new ConflictIndex(state.getSortedIndexEntries(), null);
+    }
+
+    /**
+     * 依次比较相邻的路径名，即检查条目是否有序时的操作
+     */
+    @Benchmark
+    public int compareNames() {
+        IndexEntries entries = state.getSortedIndexEntries();
+        int sum = 0;
+        byte[] previous = entries.get(0).getName();
+        for (int i = 1; i < entries.size(); i++) {
+            byte[] name = entries.get(i).getName();
+            sum += Bytes.compare(previous, name);
+            previous = name;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void toHexString(Blackhole blackhole) {
+        IndexEntries entries = state.getSortedIndexEntries();
+        for (int i = 0; i < entries.size(); i++)
+            blackhole.consume(Bytes.toHexString(entries.get(i).getOid().getHash()));
+    }
+
+    @Benchmark
+    public List<String> toLines() {
+        return state.toLines();
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>比较{@link IndexStateResolver.Verification}中各个校验时机下，{@link IndexStateResolver.Engine#MAPPED}引擎解析同一个index文件的耗时</p>
+ * <ul>
+ *     <li>{@link #resolve()}：返回解析结果之前的耗时。{@link IndexStateResolver.Verification#ASYNC}不等待后台的校验，
+ *     但每次调用之后都在测量范围之外等待其完成，避免后台的校验任务不断堆积</li>
+ *     <li>{@link #resolveAndVerify()}：解析并等待校验完成的总耗时，各个校验时机之间可以直接比较</li>
+ * </ul>
+ * <p>{@link IndexStateResolver.Verification#SKIP_HASH}只在git以{@code index.skipHash}写出的文件上才省去校验，
+ * 因此该方式下解析的是{@code indexFile}的副本，其最后20字节被置为0，与git写出的文件相同</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VerificationBenchmark {
+
+    @Param({".git/index"})
+    public String indexFile;
+
+    @Param({"UP_FRONT", "INLINE", "CONCURRENT", "SKIP_HASH", "ASYNC"})
+    public IndexStateResolver.Verification verification;
+
+    private IndexStateResolver resolver;
+
+    private String filename;
+
+    /**
+     * skip-hash的副本，其他校验方式下为null
+     */
+    private File skipHashCopy;
+
+    /**
+     * {@link #resolve()}最近一次的结果
+     */
+    private IndexState last;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        resolver.setVerification(verification);
+
+        filename = indexFile;
+        if (verification == IndexStateResolver.Verification.SKIP_HASH) {
+            byte[] bytes = Files.readAllBytes(new File(indexFile).toPath());
+            Arrays.fill(bytes, bytes.length - 20, bytes.length, (byte) 0);
+            skipHashCopy = File.createTempFile("index-skip-hash-", ".idx");
+            Files.write(skipHashCopy.toPath(), bytes);
+            filename = skipHashCopy.getAbsolutePath();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitIntegrity() {
+        if (last != null) {
+            last.getIntegrity().join();
+            last = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (skipHashCopy != null)
+            skipHashCopy.delete();
+    }
+
+    @Benchmark
+    public IndexState resolve() throws IOException {
+        last = resolver.resolve(filename);
+        return last;
+    }
+
+    @Benchmark
+    public boolean resolveAndVerify() throws IOException {
+        return resolver.resolve(filename).getIntegrity().join();
+    }
+
+}
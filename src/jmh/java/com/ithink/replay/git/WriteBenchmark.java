@@ -0,0 +1,58 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>测量{@link IndexStateWriter}将解析好的{@link IndexState}写回临时文件的耗时，包括计算校验和以及重命名lock文件</p>
+ * <p>不同的{@link IndexStateResolver.Storage}决定了写出时读取各个字段的开销，例如：</p>
+ * <pre>
+ * gradle jmh -PjmhArgs="WriteBenchmark -p indexFile=/path/to/.git/index"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+
+    @Param({".git/index"})
+    public String indexFile;
+
+    @Param({"OBJECTS", "COLUMNAR", "LAZY", "OFF_HEAP"})
+    public IndexStateResolver.Storage storage;
+
+    private IndexState state;
+
+    private IndexStateWriter writer;
+
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        IndexStateResolver resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        resolver.setStorage(storage);
+        state = resolver.resolve(indexFile);
+
+        writer = new IndexStateWriter();
+        target = File.createTempFile("index-", ".idx");
+    }
+
+    @TearDown
+    public void tearDown() {
+        target.delete();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return writer.write(state, target.getAbsolutePath());
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>在{@link IndexStateResolver}之上缓存解析结果<p/>
+ * <p>每次调用{@link #resolve(String)}时只读取文件的属性（大小、修改时间、inode等）以及末尾20字节的校验和，
+ * 文件未改变（见{@link FileIdentity#isUnchangedSince(FileIdentity)}）时直接返回之前的解析结果，不再重新校验和解析整个文件。
+ * 校验和是对整个文件内容计算的，因此即使修改时间的精度不足，内容变化后也不会命中旧的结果；
+ * 只是被touch或以相同的内容重新写出时依然命中<p/>
+ * <p>缓存按估算的内存占用（见{@link #weigh(IndexState, long)}）而不是条目数量淘汰：
+ * 总占用超过上限时，按最近最少使用的顺序淘汰，单个超过上限的结果不会被缓存<p/>
+ * <p>可在多个线程中共享。每次调用都返回一个新的{@link IndexState}，只共享其中不可修改的部分：
+ * 索引条目以及除TREE以外的扩展由所有调用者共享；扩展列表、校验和以及校验结果的future每次都是新的，
+ * TREE扩展可以被{@link CachedTreeExtension#invalidate(byte[])}原地修改，每次都按缓存时的数据重新构建。
+ * 因此一个调用者修改其得到的结果不会影响缓存以及其他调用者<p/>
+ * <p>{@link IndexStateResolver.Verification#ASYNC 异步校验}失败的结果从缓存中移除，之后的调用重新解析文件<p/>
+ */
+public class CachingIndexStateResolver {
+
+    private final IndexStateResolver resolver;
+
+    private final long maxWeight;
+
+    /**
+     * 按最近访问的顺序排列，访问时需要持有其锁
+     */
+    private final LinkedHashMap<Path, Cached> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param resolver 缓存未命中时实际解析文件的resolver
+     * @param maxWeight 所有缓存结果的估算内存占用之和的上限，单位为字节
+     * @exception IllegalArgumentException 若resolver为null，或maxWeight不为正数
+     */
+    public CachingIndexStateResolver(IndexStateResolver resolver, long maxWeight) {
+
+        if (resolver == null)
+            throw new IllegalArgumentException("resolver cannot be null");
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("max weight must be positive: " + maxWeight);
+
+        this.resolver   = resolver;
+        this.maxWeight  = maxWeight;
+    }
+
+    /**
+     * 文件未改变时返回缓存的结果，否则重新解析并缓存
+     * @param filename 要解析的index文件的文件名，包含完整路径
+     * @return 表示index文件内容的对象，其中的索引条目可能与之前的调用共享
+     * @exception IOException 若I/O发生错误
+     * @see IndexStateResolver#resolve(String)
+     */
+    public IndexState resolve(String filename) throws IOException {
+
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+        FileIdentity identity = FileIdentity.of(path);
+
+        synchronized (cache) {
+            Cached cached = cache.get(path);
+            if (cached != null && identity.isUnchangedSince(cached.identity)
+                    && !cached.state.getIntegrity().isCompletedExceptionally()) {
+                hitCount.incrementAndGet();
+                return cached.view();
+            }
+        }
+
+        missCount.incrementAndGet();
+        IndexState state = resolver.resolve(path.toString());
+
+        // 读取属性之后文件又被替换时，解析出的内容与记录的身份不符；校验失败的结果也不缓存
+        if (!Arrays.equals(state.getChecksum(), identity.getChecksum()) || state.getIntegrity().isCompletedExceptionally())
+            return state;
+
+        Cached cached = new Cached(identity, state, weigh(state, identity.getSize()));
+        synchronized (cache) {
+
+            Cached previous = cache.remove(path);
+            if (previous != null)
+                totalWeight -= previous.weight;
+
+            if (cached.weight <= maxWeight) {
+                cache.put(path, cached);
+                totalWeight += cached.weight;
+            }
+
+            Iterator<Cached> eldest = cache.values().iterator();
+            while (totalWeight > maxWeight && eldest.hasNext()) {
+                totalWeight -= eldest.next().weight;
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        // 异步校验在之后才失败时，移除该结果，不计入淘汰次数
+        state.getIntegrity().whenComplete((verified, failure) -> {
+            if (failure != null)
+                remove(path, cached);
+        });
+
+        return cached.view();
+    }
+
+    private void remove(Path path, Cached cached) {
+        synchronized (cache) {
+            if (cache.get(path) == cached) {
+                cache.remove(path);
+                totalWeight -= cached.weight;
+            }
+        }
+    }
+
+    /**
+     * <p>估算一个解析结果在内存中占用的字节数，用于决定淘汰哪些缓存<p/>
+     * <p>默认按条目的存储方式估算：{@link ArrayIndexEntries}中每个条目都是若干个对象，约为文件大小的3倍；
+     * {@link ColumnarIndexEntries}的路径名按前缀压缩，约为文件大小的0.8倍；{@link LazyIndexEntries}每个条目6字节，
+     * 再加上其一直持有的整个文件的缓冲区；{@link OffHeapIndexEntries}在堆上几乎不占空间，
+     * 但直接内存同样有上限，因此按其缓冲区的实际大小计算。子类可以重写以使用更准确的估算<p/>
+     * @param state 解析结果
+     * @param fileSize index文件的大小
+     */
+    protected long weigh(IndexState state, long fileSize) {
+
+        IndexEntries entries = state.getSortedIndexEntries();
+        if (entries instanceof SplitIndexEntries)
+            entries = ((SplitIndexEntries) entries).getShared();
+
+        if (entries instanceof ColumnarIndexEntries)
+            return fileSize * 4 / 5;
+        if (entries instanceof LazyIndexEntries)
+            return fileSize + 6L * entries.size();
+        if (entries instanceof OffHeapIndexEntries)
+            return ((OffHeapIndexEntries) entries).getOffHeapSize();
+        return fileSize * 3;
+    }
+
+    /**
+     * 清空所有缓存的结果，不计入淘汰次数
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return 当前缓存的结果的估算内存占用之和
+     */
+    public long getWeight() {
+        synchronized (cache) {
+            return totalWeight;
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return 当前缓存的结果的数量
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static class Cached {
+
+        private final FileIdentity identity;
+        private final IndexState state;
+        private final long weight;
+
+        /**
+         * 缓存时TREE扩展的数据，不存在时为null
+         */
+        private final byte[] cachedTree;
+
+        private Cached(FileIdentity identity, IndexState state, long weight) throws IOException {
+            this.identity   = identity;
+            this.state      = state;
+            this.weight     = weight;
+            this.cachedTree = cachedTreeOf(state);
+        }
+
+        private static byte[] cachedTreeOf(IndexState state) throws IOException {
+            for (Extension extension : state.getExtensions()) {
+                if (extension instanceof CachedTreeExtension) {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream(extension.getSize());
+                    extension.writeData(data);
+                    return data.toByteArray();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return 交给调用者的新对象，只共享缓存结果中不可修改的部分
+         */
+        private IndexState view() {
+
+            IndexState view = new IndexState(state.getHeader(), state.getSortedIndexEntries());
+
+            for (Extension extension : state.getExtensions())
+                view.getExtensions().add(extension instanceof CachedTreeExtension ? new CachedTreeExtension(cachedTree) : extension);
+
+            System.arraycopy(state.getChecksum(), 0, view.getChecksum(), 0, GitObject.Id.GIT_SHA1_RAWSZ);
+
+            // 调用者完成或取消自己的future不影响缓存中的结果
+            CompletableFuture<Boolean> integrity = state.getIntegrity();
+            view.setIntegrity(integrity.isDone() && !integrity.isCompletedExceptionally()
+                    ? CompletableFuture.completedFuture(integrity.join())
+                    : integrity.thenApply(verified -> verified));
+
+            return view;
+        }
+
+    }
+
+}
@@ -6,24 +6,56 @@ import java.util.List;
 /**
  * <p>表示对象可以转化为一行一行的字符串，用于整齐地打印出来<p/>
  * <p>可用于输出到控制台或文件中，风格建议类似yml<p/>
- *
+ * <p>{@link #display()}、{@link #dump(String)}、{@link #dump(OutputStream)}都通过{@link #writeTo(Appendable)}逐行写出，
+ * 包含大量内容的实现（例如{@link com.ithink.replay.git.model.IndexState}）应重写该方法直接写出各行，
+ * 而不是先通过{@link #toLines()}在内存中构建所有的行，这样输出时占用的内存与内容的多少无关<p/>
  */
 public interface Displayable {
 
+    /**
+     * 输出到控制台或文件时使用的缓冲区大小
+     */
+    int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     /**
      * @return 只用于遍历的字符串列表，不需要支持添加删除等操作，但不能为null
      */
     List<String> toLines();
 
+    /**
+     * 将各行依次写入out，每行以{@link System#lineSeparator()}结尾，内容与{@link #toLines()}一致
+     * @param out 接收各行的目标，不会被flush或关闭
+     * @exception IOException 若I/O发生错误
+     */
+    default void writeTo(Appendable out) throws IOException {
+        String lineSeparator = System.lineSeparator();
+        for (String l : toLines())
+            out.append(l).append(lineSeparator);
+    }
+
+    /**
+     * 按平台默认的字符集，经过缓冲后将各行写入out，结束时flush但不关闭out
+     * @exception IOException 若I/O发生错误
+     */
+    default void dump(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out), OUTPUT_BUFFER_SIZE);
+        writeTo(writer);
+        writer.flush();
+    }
+
     /**
      * 打印到控制台
      */
     default void display() {
-        toLines().forEach(System.out::println);
+        try {
+            dump(System.out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * 打印到控制台
+     * 打印到文件
      */
     default void dump(String filename) throws IOException {
         File file = new File(filename);
@@ -33,12 +65,9 @@ public interface Displayable {
 
         try (
                 FileWriter fw = new FileWriter(file);
-                BufferedWriter bw = new BufferedWriter(fw)
+                BufferedWriter bw = new BufferedWriter(fw, OUTPUT_BUFFER_SIZE)
         ) {
-            for (String l : toLines()) {
-                bw.write(l);
-                bw.newLine();
-            }
+            writeTo(bw);
             bw.flush();
         }
 
@@ -0,0 +1,97 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.GitObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>index文件的属性（大小、修改时间以及inode等）和末尾20字节的校验和，用于在不解析文件的情况下判断其是否改变<p/>
+ * <p>校验和是对整个文件内容计算的，校验和相同即内容相同，与修改时间的精度以及文件是否被替换（git总是写出
+ * {@code index.lock}再重命名，inode每次都会变化）无关。但git在{@code index.skipHash}为true时写出全0的校验和，
+ * 此时只能比较文件的属性，见{@link #isUnchangedSince(FileIdentity)}<p/>
+ * <p>{@link CachingIndexStateResolver}与{@link IndexWatcher}都以此判断文件是否未改变<p/>
+ */
+final class FileIdentity {
+
+    private final long size;
+    private final FileTime lastModified;
+    private final Object fileKey;
+    private final byte[] checksum;
+
+    private FileIdentity(long size, FileTime lastModified, Object fileKey, byte[] checksum) {
+        this.size           = size;
+        this.lastModified   = lastModified;
+        this.fileKey        = fileKey;
+        this.checksum       = checksum;
+    }
+
+    /**
+     * 读取文件的属性，以及末尾20字节的校验和；文件不足20字节时校验和为全0
+     */
+    static FileIdentity of(Path path) throws IOException {
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+
+            byte[] checksum = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+            ByteBuffer dst = ByteBuffer.wrap(checksum);
+            while (size >= checksum.length && dst.hasRemaining()) {
+                if (channel.read(dst, size - checksum.length + dst.position()) < 0)
+                    break;
+            }
+
+            return new FileIdentity(size, attributes.lastModifiedTime(), attributes.fileKey(), checksum);
+        }
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return 读取到的末尾20字节，调用者不应修改
+     */
+    byte[] getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return 校验和是否为全0，即git没有计算校验和
+     */
+    boolean isSkipHash() {
+        for (byte b : checksum) {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 校验和相同且不为全0时即认为未改变；校验和为全0时，还需要大小、修改时间以及inode（平台支持时）都相同
+     * @param previous 之前读取的结果，可以为null，此时返回false
+     */
+    boolean isUnchangedSince(FileIdentity previous) {
+
+        if (previous == null || !Arrays.equals(checksum, previous.checksum))
+            return false;
+        if (!isSkipHash())
+            return true;
+
+        return size == previous.size
+                && lastModified.equals(previous.lastModified)
+                && Objects.equals(fileKey, previous.fileKey);
+    }
+
+}
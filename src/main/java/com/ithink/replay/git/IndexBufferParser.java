@@ -0,0 +1,776 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <p>基于单个{@link ByteBuffer}的index文件解析引擎<p/>
+ * <p>整个文件先通过{@link FileChannel#map}映射为一个缓冲区，之后头部、索引条目以及扩展列表都按绝对偏移量从该缓冲区中解码，
+ * 不再像{@link java.io.RandomAccessFile}那样每读取一个字段就发起一次系统调用<p/>
+ * <p>解析结果与{@link IndexStateResolver.Engine#RANDOM_ACCESS}引擎完全一致<p/>
+ * <p>SHA-1校验的时机由{@link IndexStateResolver.Verification}决定<p/>
+ * <p>指定了线程池，且文件中存在EOIE扩展时，会先通过EOIE直接找到扩展列表，在解析索引条目的同时解析扩展列表；
+ * 若扩展列表中还存在IEOT扩展，则按其记录的分块并行地解析索引条目。两者都不存在时按顺序解析<p/>
+ */
+final class IndexBufferParser {
+
+    /**
+     * 每个索引条目中，路径名之前的定长部分的字节数：
+     * 4*4(ctime, mtime) + 4*2(dev, ino) + 4(mode) + 4*3(uid, gid, size) + 20(object name) + 2(flags)，
+     * 版本3及以上的extended flag为1时，还要再加上2字节的extended flags
+     */
+    static final int ENTRY_FIXED_SIZE = 4*4 + 4*2 + 4 + 4*3 + GitObject.Id.GIT_SHA1_RAWSZ + 2;
+
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * 边解析边校验时，每累计这么多已解析的字节才喂给摘要一次，避免每个条目都调用一次{@link MessageDigest#update}
+     */
+    private static final int DIGEST_CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+
+    private final IndexStateResolver.Verification verification;
+
+    /**
+     * {@link IndexStateResolver.Verification#CONCURRENT}以及{@link IndexStateResolver.Verification#ASYNC}方式下计算摘要的线程池
+     */
+    private final Executor digestExecutor;
+
+    private final IndexStateResolver.Storage storage;
+
+    /**
+     * 并行解析使用的线程池，为null时总是按顺序解析
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * 同一个文件上一次的解析结果，存储方式为{@link IndexStateResolver.Storage#OBJECTS}时复用其中未改变的条目，可以为null
+     */
+    private final ArrayIndexEntries previous;
+
+    /**
+     * 记录各个阶段在调用线程中的耗时，没有监听器时为null
+     */
+    private final ResolveMetrics metrics;
+
+    /**
+     * 用于批量读取字节数组的游标，避免修改{@link #buffer}的position
+     */
+    private final ByteBuffer cursor;
+
+    /**
+     * 最后20字节（SHA-1校验和）的第一个字节的位置
+     */
+    private final int checksumOffset;
+
+    /**
+     * 边解析边校验时使用的摘要，以及已经喂给它的字节数；其他校验方式下为null
+     */
+    private MessageDigest inlineDigest;
+    private int digested;
+
+    /**
+     * {@link IndexStateResolver.Verification#SKIP_HASH}以及{@link IndexStateResolver.Verification#ASYNC}方式下最后20字节全为0，因此没有校验
+     */
+    private boolean skipped;
+
+    /**
+     * 访问时visitor要求停止，此时不再解析之后的条目
+     */
+    private boolean stopped;
+
+    IndexBufferParser(ByteBuffer buffer,
+                      IndexStateResolver.Verification verification,
+                      Executor digestExecutor,
+                      IndexStateResolver.Storage storage,
+                      ForkJoinPool pool,
+                      ArrayIndexEntries previous,
+                      ResolveMetrics metrics) {
+        this.buffer         = buffer;
+        this.verification   = verification;
+        this.digestExecutor = digestExecutor;
+        this.storage        = storage;
+        this.pool           = pool;
+        this.previous       = previous;
+        this.metrics        = metrics;
+        this.cursor         = buffer.duplicate();
+        this.checksumOffset = buffer.limit() - GitObject.Id.GIT_SHA1_RAWSZ;
+    }
+
+    /**
+     * 将指定文件以只读方式整个映射到内存中
+     * @param filename 要映射的文件名，包含完整路径
+     * @return 映射得到的缓冲区，关闭文件后依然有效
+     * @exception IOException 若I/O发生错误
+     */
+    static MappedByteBuffer map(String filename) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalStateException("index文件过大，无法映射到单个缓冲区中：" + size + " bytes");
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+    }
+
+    /**
+     * 从缓冲区中解析出{@link IndexState}
+     * @exception EOFException 若未读取足够的字节却已经到缓冲区尾部
+     */
+    IndexState parse() throws EOFException {
+
+        long start = ResolveMetrics.start(metrics);
+        checkSignature();
+        require(0, HEADER_SIZE + GitObject.Id.GIT_SHA1_RAWSZ);
+
+        CompletableFuture<byte[]> concurrentSum = beginVerification();
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.CHECKSUM, start);
+
+        IndexState theIndex;
+        try {
+            theIndex = parseContent();
+        } catch (EOFException | RuntimeException e) {
+            /*
+                内容损坏时解析本身也可能失败，此时优先报告校验和不一致
+             */
+            try {
+                checkDeferredSum(concurrentSum);
+            } catch (IllegalStateException checksumMismatch) {
+                checksumMismatch.addSuppressed(e);
+                throw checksumMismatch;
+            }
+            throw e;
+        }
+
+        if (verification == IndexStateResolver.Verification.ASYNC && !skipped) {
+            // 不等待，校验在后台完成后再结束integrity
+            theIndex.setIntegrity(concurrentSum.thenApply(sum -> {
+                checkSum(sum);
+                return true;
+            }));
+            return theIndex;
+        }
+
+        start = ResolveMetrics.start(metrics);
+        checkDeferredSum(concurrentSum);
+        theIndex.setIntegrity(CompletableFuture.completedFuture(!skipped));
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.CHECKSUM, start);
+
+        return theIndex;
+    }
+
+    /**
+     * 只解析头部以及索引条目，不校验校验和、不解析扩展，用于单独测量条目解码的耗时
+     * @exception EOFException 若未读取足够的字节却已经到缓冲区尾部
+     */
+    IndexEntries parseEntries() throws EOFException {
+
+        checkSignature();
+        require(0, HEADER_SIZE + GitObject.Id.GIT_SHA1_RAWSZ);
+
+        CacheHeader cacheHeader = resolveHeader();
+        IndexEntries.Builder builder = newBuilder(cacheHeader.getEntryCount());
+        resolveIndexEntries(HEADER_SIZE, cacheHeader.getEntryCount(), builder, cursor, false);
+
+        return builder.build();
+    }
+
+    /**
+     * 按{@link #verification}开始校验：预先校验时立即完成，其余方式只做准备
+     * @return 在另一个线程中计算的摘要，其他校验方式下为null
+     */
+    private CompletableFuture<byte[]> beginVerification() {
+        switch (verification) {
+            case SKIP_HASH:
+                skipped = isSkipHash();
+                if (!skipped)
+                    checkSum(digest(0, checksumOffset));
+                return null;
+            case UP_FRONT:
+                checkSum(digest(0, checksumOffset));
+                return null;
+            case INLINE:
+                inlineDigest = newDigest();
+                return null;
+            case CONCURRENT:
+                // 另一个线程使用独立的duplicate，与本线程互不影响position
+                return CompletableFuture.supplyAsync(() -> digest(0, checksumOffset), digestExecutor);
+            case ASYNC:
+                // 没有校验和可以比较时与SKIP_HASH相同，integrity直接以false结束
+                skipped = isSkipHash();
+                return skipped ? null : CompletableFuture.supplyAsync(() -> digest(0, checksumOffset), digestExecutor);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return 最后20字节是否全为0，即git以{@code index.skipHash}写出、没有计算校验和的文件
+     */
+    private boolean isSkipHash() {
+        for (int i = checksumOffset; i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * <p>按文件中的顺序将各个部分交给visitor，不构建{@link IndexState}，总是在调用线程中按顺序解析<p/>
+     * <p>visitor提前停止时不再读取之后的内容，此时边解析边校验以及并发校验的结果都不再检查<p/>
+     * @exception EOFException 若未读取足够的字节却已经到缓冲区尾部
+     */
+    void visit(IndexVisitor visitor) throws EOFException {
+
+        checkSignature();
+        require(0, HEADER_SIZE + GitObject.Id.GIT_SHA1_RAWSZ);
+
+        CompletableFuture<byte[]> concurrentSum = beginVerification();
+
+        boolean completed;
+        try {
+            completed = visitContent(visitor);
+        } catch (EOFException | RuntimeException e) {
+            try {
+                checkDeferredSum(concurrentSum);
+            } catch (IllegalStateException checksumMismatch) {
+                checksumMismatch.addSuppressed(e);
+                throw checksumMismatch;
+            }
+            throw e;
+        }
+
+        if (!completed)
+            return;
+
+        checkDeferredSum(concurrentSum);
+
+        byte[] checksum = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+        read(checksumOffset, checksum, checksum.length);
+        visitor.onChecksum(checksum);
+    }
+
+    /**
+     * @return 是否访问了所有部分，visitor提前停止时返回false
+     */
+    private boolean visitContent(IndexVisitor visitor) throws EOFException {
+
+        CacheHeader cacheHeader = resolveHeader();
+        if (!visitor.onHeader(cacheHeader))
+            return false;
+
+        IndexEntryView view = new IndexEntryView();
+        int pos = resolveIndexEntries(HEADER_SIZE, cacheHeader.getEntryCount(), (buf, offset, name, nameLength) -> {
+            view.reset(buf, offset, name, nameLength);
+            if (!visitor.onEntry(view))
+                stopped = true;
+        }, cursor, true);
+
+        if (stopped)
+            return false;
+
+        while (pos < checksumOffset) {
+
+            require(pos, 8);
+            int signature       = buffer.getInt(pos);
+            int size            = buffer.getInt(pos + 4);
+            require(pos + 8, size);
+
+            // 不需要的扩展只读取头部，不复制、不解码其数据
+            if (visitor.visitsExtension(signature)) {
+                byte[] data = new byte[size];
+                read(pos + 8, data, size);
+                if (!visitor.onExtension(IndexStateResolver.convertExtension(signature, data)))
+                    return false;
+            }
+
+            pos += 8 + size;
+            consumed(pos);
+        }
+
+        return true;
+    }
+
+    private IndexState parseContent() throws EOFException {
+
+        long start = ResolveMetrics.start(metrics);
+        CacheHeader cacheHeader = resolveHeader();
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.HEADER, start);
+
+        IndexState theIndex = null;
+        if (pool != null) {
+            int extensionsOffset = findEndOfIndexEntries();
+            if (extensionsOffset > 0)
+                theIndex = parseConcurrently(cacheHeader, extensionsOffset);
+        }
+
+        start = ResolveMetrics.start(metrics);
+        if (theIndex == null) {
+            IndexEntries.Builder builder = newBuilder(cacheHeader.getEntryCount());
+            int pos = resolveIndexEntries(HEADER_SIZE, cacheHeader.getEntryCount(), builder, cursor, true);
+
+            theIndex = new IndexState(cacheHeader, builder.build());
+            ResolveMetrics.stop(metrics, ResolveMetrics.Phase.ENTRIES, start);
+
+            start = ResolveMetrics.start(metrics);
+            theIndex.getExtensions().addAll(resolveExtensions(pos, cursor, true));
+        }
+
+        read(checksumOffset, theIndex.getChecksum(), GitObject.Id.GIT_SHA1_RAWSZ);
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.EXTENSIONS, start);
+
+        return theIndex;
+    }
+
+    private IndexEntries.Builder newBuilder(int expectedCount) {
+        switch (storage) {
+            case COLUMNAR:
+                return new ColumnarIndexEntries.Builder(expectedCount);
+            case LAZY:
+                return new LazyIndexEntries.Builder(buffer, expectedCount);
+            case OFF_HEAP:
+                return new OffHeapIndexEntries.Builder(expectedCount);
+            default:
+                return new ArrayIndexEntries.Builder(expectedCount, previous);
+        }
+    }
+
+    /**
+     * <p>通过文件末尾的EOIE扩展找到索引条目列表结束（即扩展列表开始）的位置<p/>
+     * <p>EOIE扩展必须是最后一个扩展，因此其头部总是位于校验和之前的第32个字节处。
+     * 只有其记录的SHA-1与实际各个扩展的signature以及size一致时，才认为该扩展有效<p/>
+     * @return 扩展列表开始的位置，若不存在有效的EOIE扩展则返回-1
+     */
+    private int findEndOfIndexEntries() {
+
+        int header = checksumOffset - 8 - EndOfIndexEntryExtension.SIZE;
+        if (header < HEADER_SIZE
+                || buffer.getInt(header) != EndOfIndexEntryExtension.SIGNATURE
+                || buffer.getInt(header + 4) != EndOfIndexEntryExtension.SIZE)
+            return -1;
+
+        int offset = buffer.getInt(header + 8);
+        if (offset < HEADER_SIZE || offset > header)
+            return -1;
+
+        /*
+            对EOIE之前的所有扩展的signature以及size计算SHA-1，与EOIE中记录的比较
+         */
+        MessageDigest digest = newDigest();
+        byte[] signatureAndSize = new byte[8];
+        int pos = offset;
+        while (pos < header) {
+            if (pos > header - 8 || buffer.getInt(pos + 4) < 0)
+                return -1;
+            ByteBuffer.wrap(signatureAndSize).putInt(buffer.getInt(pos)).putInt(buffer.getInt(pos + 4));
+            digest.update(signatureAndSize);
+            pos += 8 + buffer.getInt(pos + 4);
+        }
+
+        byte[] hash = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+        for (int i = 0; i < hash.length; i++)
+            hash[i] = buffer.get(header + 12 + i);
+
+        return pos == header && Arrays.equals(hash, digest.digest()) ? offset : -1;
+    }
+
+    /**
+     * 扫描扩展列表中各个扩展的头部，找到IEOT扩展，只解码该扩展
+     * @return IEOT扩展中记录的各个分块，若不存在则返回null
+     */
+    private List<IndexEntryOffsetTableExtension.Entry> findEntryOffsetTable(int pos) throws EOFException {
+
+        while (pos < checksumOffset) {
+
+            require(pos, 8);
+            int signature       = buffer.getInt(pos);
+            int size            = buffer.getInt(pos + 4);
+            require(pos + 8, size);
+
+            if (signature == IndexEntryOffsetTableExtension.SIGNATURE) {
+                byte[] data = new byte[size];
+                read(pos + 8, data, size);
+                return new IndexEntryOffsetTableExtension(data).getEntries();
+            }
+
+            pos += 8 + size;
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>在线程池中解析扩展列表，同时按IEOT扩展记录的分块并行地解析索引条目<p/>
+     * <p>各个分块解析到各自的builder中，全部完成后按顺序合并。
+     * 此时调用线程本身空闲，若需要边解析边校验，就由调用线程计算整个文件的摘要<p/>
+     * @param extensionsOffset 扩展列表开始的位置
+     * @return 解析结果；若不存在IEOT扩展，或其记录的分块与实际的条目不一致，则只在调用线程中解析索引条目
+     */
+    private IndexState parseConcurrently(CacheHeader cacheHeader, int extensionsOffset) throws EOFException {
+
+        long start = ResolveMetrics.start(metrics);
+
+        ForkJoinTask<List<Extension>> extensionsTask = pool.submit(
+                () -> resolveExtensions(extensionsOffset, buffer.duplicate(), false)
+        );
+
+        List<IndexEntryOffsetTableExtension.Entry> blocks = findEntryOffsetTable(extensionsOffset);
+
+        IndexEntries.Builder builder = null;
+        if (blocks != null && isContiguous(blocks, cacheHeader.getEntryCount())) {
+
+            List<ForkJoinTask<IndexEntries.Builder>> blockTasks = new ArrayList<>(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                IndexEntryOffsetTableExtension.Entry block = blocks.get(i);
+                int end = i + 1 < blocks.size() ? blocks.get(i + 1).getOffset() : extensionsOffset;
+                blockTasks.add(pool.submit(() -> resolveBlock(block.getOffset(), block.getCount(), end)));
+            }
+
+            if (inlineDigest != null)
+                feed(checksumOffset);
+
+            builder = newBuilder(cacheHeader.getEntryCount());
+            for (ForkJoinTask<IndexEntries.Builder> blockTask : blockTasks) {
+                IndexEntries.Builder block = join(blockTask);
+                if (block == null) {
+                    builder = null;
+                    break;
+                }
+                builder.appendAll(block);
+            }
+        }
+
+        if (builder == null) {
+            builder = newBuilder(cacheHeader.getEntryCount());
+            resolveIndexEntries(HEADER_SIZE, cacheHeader.getEntryCount(), builder, cursor, true);
+        }
+
+        IndexState theIndex = new IndexState(cacheHeader, builder.build());
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.ENTRIES, start);
+
+        start = ResolveMetrics.start(metrics);
+        theIndex.getExtensions().addAll(join(extensionsTask));
+        ResolveMetrics.stop(metrics, ResolveMetrics.Phase.EXTENSIONS, start);
+
+        return theIndex;
+    }
+
+    /**
+     * 检查各个分块是否从第一个条目开始、按偏移量递增，且条目数量之和与头部中记录的一致
+     */
+    private static boolean isContiguous(List<IndexEntryOffsetTableExtension.Entry> blocks, int entryCount) {
+
+        if (blocks.isEmpty() || blocks.get(0).getOffset() != HEADER_SIZE)
+            return false;
+
+        long count = 0;
+        int last = -1;
+        for (IndexEntryOffsetTableExtension.Entry block : blocks) {
+            if (block.getOffset() <= last || block.getCount() <= 0)
+                return false;
+            last = block.getOffset();
+            count += block.getCount();
+        }
+
+        return count == entryCount;
+    }
+
+    /**
+     * 在线程池中解析一个分块，使用独立的游标
+     * @return 解析得到的builder；若该分块的条目并未恰好在下一个分块开始的位置结束，则返回null
+     */
+    private IndexEntries.Builder resolveBlock(int offset, int count, int end) throws EOFException {
+
+        IndexEntries.Builder builder = newBuilder(count);
+        int pos = resolveIndexEntries(offset, count, builder, buffer.duplicate(), false);
+
+        return pos == end ? builder : null;
+    }
+
+    /**
+     * 等待线程池中的任务完成，并还原任务中抛出的异常
+     */
+    private static <T> T join(ForkJoinTask<T> task) throws EOFException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof EOFException)
+                throw (EOFException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 解析完成之后再比较校验和，校验失败时与预先校验时抛出同样的异常
+     * @param concurrentSum 另一个线程计算的摘要，非{@link IndexStateResolver.Verification#CONCURRENT}时为null
+     */
+    private void checkDeferredSum(CompletableFuture<byte[]> concurrentSum) throws EOFException {
+
+        if (inlineDigest != null) {
+            feed(checksumOffset);
+            checkSum(inlineDigest.digest());
+        } else if (concurrentSum != null) {
+            checkSum(concurrentSum.join());
+        }
+
+    }
+
+    private void checkSignature() throws EOFException {
+
+        require(0, 4);
+        if (buffer.getInt(0) != CacheHeader.CACHE_SIGNATURE)
+            throw new IllegalStateException("当前文件并非index文件，请确保打开的是index文件！");
+
+    }
+
+    /**
+     * 比较除最后20字节外所有内容的SHA-1值，与最后20字节表示的是否一致。
+     * 按绝对偏移量读取，不使用{@link #cursor}，可在其他线程中调用
+     * @param sum 除最后20字节外所有内容的SHA-1值
+     */
+    private void checkSum(byte[] sum) {
+
+        byte[] tarSum = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+        for (int i = 0; i < tarSum.length; i++)
+            tarSum[i] = buffer.get(checksumOffset + i);
+
+        if (! Arrays.equals(tarSum, sum)) {
+            throw new IllegalStateException("文件的内容已被篡改或文件已损坏!");
+        }
+    }
+
+    /**
+     * 计算[from, to)范围内字节的SHA-1值，使用独立的duplicate，可在其他线程中调用
+     */
+    private byte[] digest(int from, int to) {
+
+        MessageDigest digest = newDigest();
+
+        ByteBuffer data = buffer.duplicate();
+        data.limit(to).position(from);
+        digest.update(data);
+
+        return digest.digest();
+    }
+
+    /**
+     * 边解析边校验时，标记[0, pos)范围内的字节已被解析，累计足够多时喂给摘要
+     */
+    private void consumed(int pos) {
+        if (inlineDigest != null && pos - digested >= DIGEST_CHUNK_SIZE)
+            feed(pos);
+    }
+
+    /**
+     * 将[digested, pos)范围内尚未喂给摘要的字节喂给摘要
+     */
+    private void feed(int pos) {
+        ByteBuffer data = buffer.duplicate();
+        data.limit(pos).position(digested);
+        inlineDigest.update(data);
+        digested = pos;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // never happen
+        }
+    }
+
+    private CacheHeader resolveHeader() {
+
+        int signature               = buffer.getInt(0);
+        int versionNumber           = buffer.getInt(4);
+        int numberOfIndexEntries    = buffer.getInt(8);
+
+        return new CacheHeader(signature, versionNumber, numberOfIndexEntries);
+
+    }
+
+    /**
+     * <p>从指定偏移量开始解析索引条目列表，并逐个追加到builder中<p/>
+     * <p>版本3中extended flag为1的条目，定长部分之后还有16位的extended flags；
+     * 版本4中路径名经过前缀压缩，且条目之后没有填充字节，此时把路径名还原到一个可复用的数组中再交给builder，
+     * 每次调用（即每个分块）都从空的前一个路径名开始，并忽略第一个条目记录的前缀长度，与git读取IEOT分块时的做法一致<p/>
+     * @param pos 第一个索引条目的偏移量
+     * @param entryCount 条目的数量
+     * @param sink 接收条目的sink
+     * @param cursor 本次解析专用的游标，在多个线程中解析时各自使用独立的游标
+     * @param feedDigest 是否将已解析的字节喂给边解析边校验的摘要，只能在调用线程中为true
+     * @return 最后一个索引条目（包括其后的填充字节）之后的偏移量
+     * @exception IllegalStateException 若版本号不受支持，或条目的内容与版本号不符
+     */
+    private int resolveIndexEntries(int pos, int entryCount, IndexEntries.Sink sink,
+                                    ByteBuffer cursor, boolean feedDigest) throws EOFException {
+
+        int version = buffer.getInt(4);
+        if (version < 2 || version > 4)
+            throw new IllegalStateException("不支持的index文件版本：" + version);
+
+        // 版本4中还原路径名使用的数组，其中[0, previousLength)为前一个条目的路径名
+        byte[] name = version == 4 ? new byte[256] : null;
+        int previousLength = 0;
+
+        for (int i = 0; i < entryCount && !stopped; i++) {
+
+            require(pos, ENTRY_FIXED_SIZE);
+
+            short flags = buffer.getShort(pos + 60);
+            int fixedSize = ENTRY_FIXED_SIZE;
+            if (CacheEntry.Flags.isExtended(flags)) {
+                if (version < 3)
+                    throw new IllegalStateException("版本" + version + "的index文件中不应存在extended flag为1的条目");
+                fixedSize += 2;
+                require(pos, fixedSize);
+            }
+
+            int namePos = pos + fixedSize;
+            int nameLength;
+            if (version == 4) {
+
+                // 可变长度整数：需要从前一个路径名末尾去掉的字节数
+                int c = readUnsignedByte(namePos++);
+                int strip = c & 0x7F;
+                while ((c & 0x80) != 0) {
+                    c = readUnsignedByte(namePos++);
+                    strip = ((strip + 1) << 7) | (c & 0x7F);
+                    if (strip < 0)
+                        throw new IllegalStateException("索引条目的路径名前缀长度溢出，位于偏移量" + pos);
+                }
+                // 分块的第一个条目没有前一个路径名，git写出时记录的前缀长度没有意义，直接忽略
+                if (i == 0)
+                    strip = 0;
+                else if (strip > previousLength)
+                    throw new IllegalStateException("索引条目的路径名前缀长度" + strip + "超过了前一个路径名的长度" + previousLength);
+
+                int suffixLength = nulAt(namePos) - namePos;
+                nameLength = previousLength - strip + suffixLength;
+                if (nameLength > name.length)
+                    name = Arrays.copyOf(name, Math.max(name.length * 2, nameLength));
+                cursor.position(namePos);
+                cursor.get(name, previousLength - strip, suffixLength);
+
+                sink.append(cursor, pos, name, nameLength);
+
+                previousLength = nameLength;
+                pos = namePos + suffixLength + 1;
+
+            } else {
+
+                nameLength = flags & 0xFFF;
+                // 路径名长度不小于0xFFF时，flags中只记录0xFFF，需要找到结尾的NUL才能确定实际长度
+                if (nameLength == 0xFFF)
+                    nameLength = nulAt(namePos + nameLength) - namePos;
+                require(namePos, nameLength);
+
+                // 路径名紧跟在定长部分之后，由sink直接从缓冲区中读取
+                sink.append(cursor, pos, null, nameLength);
+
+                int entryByteCount  = fixedSize + nameLength;
+                int nilBytesCount   = 8 - (entryByteCount & 0x7);
+                pos += entryByteCount + nilBytesCount;
+            }
+
+            if (feedDigest)
+                consumed(pos);
+        }
+
+        return pos;
+    }
+
+    private int readUnsignedByte(int offset) throws EOFException {
+        require(offset, 1);
+        return buffer.get(offset) & 0xFF;
+    }
+
+    /**
+     * @return 从offset开始的第一个NUL字节的位置
+     * @exception EOFException 若直到缓冲区尾部都不存在NUL字节
+     */
+    private int nulAt(int offset) throws EOFException {
+        while (readUnsignedByte(offset) != 0)
+            offset++;
+        return offset;
+    }
+
+    /**
+     * 从指定偏移量开始解析扩展列表，直到遇到最后20字节的校验和为止
+     * @param cursor 本次解析专用的游标
+     * @param feedDigest 是否将已解析的字节喂给边解析边校验的摘要，只能在调用线程中为true
+     */
+    private List<Extension> resolveExtensions(int pos, ByteBuffer cursor, boolean feedDigest) throws EOFException {
+
+        List<Extension> extensions = new ArrayList<>();
+
+        while (pos < checksumOffset) {
+
+            require(pos, 8);
+            int signature       = buffer.getInt(pos);
+            int size            = buffer.getInt(pos + 4);
+
+            // 先检查大小再分配，损坏的大小（负数或超出文件）不会导致分配失败
+            require(pos + 8, size);
+            byte[] data         = new byte[size];
+            cursor.position(pos + 8);
+            cursor.get(data);
+
+            extensions.add(IndexStateResolver.convertExtension(signature, data));
+
+            pos += 8 + size;
+
+            if (feedDigest)
+                consumed(pos);
+        }
+
+        return extensions;
+    }
+
+    /**
+     * 将从offset开始的length个字节读取到dst中
+     */
+    private void read(int offset, byte[] dst, int length) throws EOFException {
+        require(offset, length);
+        cursor.position(offset);
+        cursor.get(dst, 0, length);
+    }
+
+    /**
+     * 确保从offset开始还有至少length个字节可读
+     * @exception EOFException 若未读取足够的字节却已经到缓冲区尾部
+     */
+    private void require(int offset, int length) throws EOFException {
+        if (length < 0 || offset < 0 || offset > buffer.limit() - length)
+            throw new EOFException("需要从偏移量" + offset + "处读取" + length + "字节，但缓冲区只有" + buffer.limit() + "字节");
+    }
+
+}
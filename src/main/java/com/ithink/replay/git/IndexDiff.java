@@ -0,0 +1,471 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>比较两个{@link IndexState}快照，按路径名及stage给出新增、删除以及修改的条目<p/>
+ * <p>两个快照的条目都已按{@link CacheEntry#compareTo}的顺序排好，因此只需同时从头到尾归并地遍历一遍，
+ * 复杂度为O(n + m)，不复制、不排序任何条目。同一个对象（例如{@link IndexStateResolver#resolve(String, IndexState)}
+ * 复用的条目）直接视为未改变，不再比较其各个字段<p/>
+ * <p>同时比较两者的Resolve undo扩展（按路径名）与Cached tree扩展（按目录的路径，比较各个目录的tree对象id）<p/>
+ * <p>{@link #diff(IndexState, IndexState, Callback)}在遍历的同时逐个回调，不保存任何结果，适合条目很多的index；
+ * {@link #diff(IndexState, IndexState)}则收集所有的改变<p/>
+ */
+public class IndexDiff {
+
+    /**
+     * 对象id改变
+     */
+    public static final int OID     = 1;
+
+    /**
+     * 模式改变
+     */
+    public static final int MODE    = 1 << 1;
+
+    /**
+     * stat数据（ctime、mtime、dev、ino、uid、gid、size中的任意一项）改变
+     */
+    public static final int STAT    = 1 << 2;
+
+    /**
+     * 标志位（assume-valid、skip-worktree、intent-to-add）改变
+     */
+    public static final int FLAGS   = 1 << 3;
+
+    /**
+     * 接收两个快照之间的改变，按路径名及stage的顺序被调用
+     */
+    public interface Callback {
+
+        void onAdded(CacheEntry newEntry);
+
+        void onRemoved(CacheEntry oldEntry);
+
+        /**
+         * @param changes 改变的内容，为{@link #OID}、{@link #MODE}、{@link #STAT}、{@link #FLAGS}的组合
+         */
+        void onModified(CacheEntry oldEntry, CacheEntry newEntry, int changes);
+
+        /**
+         * 某个路径名的Resolve undo记录的新增、删除或修改，oldEntry或newEntry为null时表示新增或删除；默认忽略
+         */
+        default void onResolveUndoChanged(ResolveUndoExtension.Entry oldEntry, ResolveUndoExtension.Entry newEntry) {
+        }
+
+        /**
+         * Cached tree扩展的新增、删除或修改，oldTree或newTree为null时表示新增或删除；默认忽略。
+         * 之后再按目录逐个调用{@link #onCachedTreeEntryChanged}
+         */
+        default void onCachedTreeChanged(CachedTreeExtension oldTree, CachedTreeExtension newTree) {
+        }
+
+        /**
+         * Cached tree扩展中某个目录的新增、删除，或其tree对象id的改变（包括变为无效或重新生成），
+         * oldEntry或newEntry为null时表示新增或删除；上级目录先于其子目录，同级目录按名称的顺序。默认忽略
+         */
+        default void onCachedTreeEntryChanged(CachedTreeExtension.Entry oldEntry, CachedTreeExtension.Entry newEntry) {
+        }
+
+    }
+
+    private final List<Change<CacheEntry>> changes = new ArrayList<>();
+    private final List<Change<ResolveUndoExtension.Entry>> resolveUndoChanges = new ArrayList<>();
+    private final List<Change<CachedTreeExtension.Entry>> cachedTreeChanges = new ArrayList<>();
+    private boolean cachedTreeChanged;
+
+    private IndexDiff() {
+    }
+
+    /**
+     * 收集两个快照之间的所有改变
+     * @param oldState 旧的快照
+     * @param newState 新的快照
+     * @return 所有的改变
+     * @exception IllegalArgumentException 若oldState或newState为null
+     */
+    public static IndexDiff diff(IndexState oldState, IndexState newState) {
+
+        IndexDiff result = new IndexDiff();
+        diff(oldState, newState, new Callback() {
+
+            @Override
+            public void onAdded(CacheEntry newEntry) {
+                result.changes.add(new Change<>(null, newEntry, 0));
+            }
+
+            @Override
+            public void onRemoved(CacheEntry oldEntry) {
+                result.changes.add(new Change<>(oldEntry, null, 0));
+            }
+
+            @Override
+            public void onModified(CacheEntry oldEntry, CacheEntry newEntry, int changes) {
+                result.changes.add(new Change<>(oldEntry, newEntry, changes));
+            }
+
+            @Override
+            public void onResolveUndoChanged(ResolveUndoExtension.Entry oldEntry, ResolveUndoExtension.Entry newEntry) {
+                result.resolveUndoChanges.add(new Change<>(oldEntry, newEntry,
+                        oldEntry != null && newEntry != null ? compare(oldEntry, newEntry) : 0));
+            }
+
+            @Override
+            public void onCachedTreeChanged(CachedTreeExtension oldTree, CachedTreeExtension newTree) {
+                result.cachedTreeChanged = true;
+            }
+
+            @Override
+            public void onCachedTreeEntryChanged(CachedTreeExtension.Entry oldEntry, CachedTreeExtension.Entry newEntry) {
+                result.cachedTreeChanges.add(new Change<>(oldEntry, newEntry, oldEntry != null && newEntry != null ? OID : 0));
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * 在归并地遍历两个快照的同时回调各个改变，不保存任何结果
+     * @param oldState 旧的快照
+     * @param newState 新的快照
+     * @param callback 接收改变的回调
+     * @exception IllegalArgumentException 若任意一个参数为null
+     */
+    public static void diff(IndexState oldState, IndexState newState, Callback callback) {
+
+        if (oldState == null || newState == null)
+            throw new IllegalArgumentException("both oldState and newState cannot be null");
+        if (callback == null)
+            throw new IllegalArgumentException("callback cannot be null");
+
+        diffEntries(oldState.getSortedIndexEntries(), newState.getSortedIndexEntries(), callback);
+        diffResolveUndo(find(oldState, ResolveUndoExtension.class), find(newState, ResolveUndoExtension.class), callback);
+        diffCachedTree(find(oldState, CachedTreeExtension.class), find(newState, CachedTreeExtension.class), callback);
+    }
+
+    private static void diffEntries(IndexEntries oldEntries, IndexEntries newEntries, Callback callback) {
+
+        if (oldEntries == newEntries)
+            return;
+
+        int i = 0, j = 0;
+        int m = oldEntries.size(), n = newEntries.size();
+        while (i < m && j < n) {
+
+            CacheEntry a = oldEntries.get(i);
+            CacheEntry b = newEntries.get(j);
+            if (a == b) {
+                i++;
+                j++;
+                continue;
+            }
+
+            int r = a.compareTo(b);
+            if (r < 0) {
+                callback.onRemoved(a);
+                i++;
+            } else if (r > 0) {
+                callback.onAdded(b);
+                j++;
+            } else {
+                int changes = compare(a, b);
+                if (changes != 0)
+                    callback.onModified(a, b, changes);
+                i++;
+                j++;
+            }
+        }
+
+        for (; i < m; i++)
+            callback.onRemoved(oldEntries.get(i));
+        for (; j < n; j++)
+            callback.onAdded(newEntries.get(j));
+    }
+
+    /**
+     * 比较路径名及stage都相同的两个条目的其余字段
+     * @return 改变的内容，未改变时为0
+     */
+    public static int compare(CacheEntry a, CacheEntry b) {
+
+        int changes = 0;
+
+        if (!a.getOid().equals(b.getOid()))
+            changes |= OID;
+
+        if (a.getMode().toBits() != b.getMode().toBits())
+            changes |= MODE;
+
+        CacheEntry.StatData x = a.getStatData(), y = b.getStatData();
+        if (x.getCtime().getSec()  != y.getCtime().getSec()
+                || x.getCtime().getNsec() != y.getCtime().getNsec()
+                || x.getMtime().getSec()  != y.getMtime().getSec()
+                || x.getMtime().getNsec() != y.getMtime().getNsec()
+                || x.getDev()  != y.getDev()
+                || x.getIno()  != y.getIno()
+                || x.getUid()  != y.getUid()
+                || x.getGid()  != y.getGid()
+                || x.getSize() != y.getSize())
+            changes |= STAT;
+
+        CacheEntry.Flags f = a.getFlags(), g = b.getFlags();
+        if (f.getAssumeValid() != g.getAssumeValid()
+                || f.getSkipWorktree() != g.getSkipWorktree()
+                || f.getIntentToAdd() != g.getIntentToAdd())
+            changes |= FLAGS;
+
+        return changes;
+    }
+
+    /**
+     * 比较路径名相同的两个Resolve undo记录中各个stage的模式及对象id
+     * @return 改变的内容，为{@link #OID}、{@link #MODE}的组合，未改变时为0
+     */
+    private static int compare(ResolveUndoExtension.Entry a, ResolveUndoExtension.Entry b) {
+
+        int changes = 0;
+        for (int stage = 0; stage < 3; stage++) {
+
+            ResolveUndoExtension.Entry.ResolveUndoInfoItem x = a.getInfo()[stage], y = b.getInfo()[stage];
+
+            if (x.getMode().toBits() != y.getMode().toBits())
+                changes |= MODE;
+
+            if (!Objects.equals(x.getOid(), y.getOid()))
+                changes |= OID;
+        }
+
+        return changes;
+    }
+
+    /**
+     * git按路径名的顺序写出Resolve undo记录，这里依然先排序，记录的数量通常很少
+     */
+    private static void diffResolveUndo(ResolveUndoExtension oldExtension, ResolveUndoExtension newExtension,
+                                        Callback callback) {
+
+        List<ResolveUndoExtension.Entry> a = sortedEntries(oldExtension), b = sortedEntries(newExtension);
+
+        int i = 0, j = 0;
+        while (i < a.size() || j < b.size()) {
+
+            int r = i == a.size() ? 1
+                  : j == b.size() ? -1
+                  : Bytes.compare(a.get(i).getPathName(), b.get(j).getPathName());
+
+            if (r < 0) {
+                callback.onResolveUndoChanged(a.get(i++), null);
+            } else if (r > 0) {
+                callback.onResolveUndoChanged(null, b.get(j++));
+            } else {
+                if (compare(a.get(i), b.get(j)) != 0)
+                    callback.onResolveUndoChanged(a.get(i), b.get(j));
+                i++;
+                j++;
+            }
+        }
+
+    }
+
+    private static List<ResolveUndoExtension.Entry> sortedEntries(ResolveUndoExtension extension) {
+
+        if (extension == null)
+            return Collections.emptyList();
+
+        List<ResolveUndoExtension.Entry> entries = new ArrayList<>(extension.getEntries());
+        entries.sort((x, y) -> Bytes.compare(x.getPathName(), y.getPathName()));
+        return entries;
+    }
+
+    private static void diffCachedTree(CachedTreeExtension oldTree, CachedTreeExtension newTree, Callback callback) {
+
+        if (oldTree == newTree)
+            return;
+
+        if (oldTree != null && newTree != null && Arrays.equals(dataOf(oldTree), dataOf(newTree)))
+            return;
+
+        callback.onCachedTreeChanged(oldTree, newTree);
+        diffCachedTree(oldTree == null ? null : oldTree.getRoot(), newTree == null ? null : newTree.getRoot(), callback);
+    }
+
+    /**
+     * 先比较a、b本身，再按名称归并地比较两者的子目录；只有一方存在时，该目录及其各级子目录都是新增或删除的
+     */
+    private static void diffCachedTree(CachedTreeExtension.Entry a, CachedTreeExtension.Entry b, Callback callback) {
+
+        if (a == null && b == null)
+            return;
+
+        if (a == null || b == null || !Objects.equals(a.getOid(), b.getOid()))
+            callback.onCachedTreeEntryChanged(a, b);
+
+        List<CachedTreeExtension.Entry> x = sortedChildren(a), y = sortedChildren(b);
+
+        int i = 0, j = 0;
+        while (i < x.size() || j < y.size()) {
+
+            int r = i == x.size() ? 1
+                  : j == y.size() ? -1
+                  : Bytes.compare(x.get(i).getName(), y.get(j).getName());
+
+            if (r < 0)
+                diffCachedTree(x.get(i++), null, callback);
+            else if (r > 0)
+                diffCachedTree(null, y.get(j++), callback);
+            else
+                diffCachedTree(x.get(i++), y.get(j++), callback);
+        }
+    }
+
+    /**
+     * git按名称的长度排列子目录，这里按名称排序，子目录的数量通常很少
+     */
+    private static List<CachedTreeExtension.Entry> sortedChildren(CachedTreeExtension.Entry entry) {
+
+        if (entry == null)
+            return Collections.emptyList();
+
+        List<CachedTreeExtension.Entry> children = new ArrayList<>(entry.getChildren());
+        children.sort((x, y) -> Bytes.compare(x.getName(), y.getName()));
+        return children;
+    }
+
+    private static byte[] dataOf(Extension extension) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(extension.getSize());
+        try {
+            extension.writeData(out);
+        } catch (IOException e) {
+            // 写入内存不会发生I/O错误
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static <E extends Extension> E find(IndexState state, Class<E> type) {
+
+        for (Extension extension : state.getExtensions()) {
+            if (type.isInstance(extension))
+                return type.cast(extension);
+        }
+        return null;
+    }
+
+    /**
+     * @return 按路径名及stage排列的条目的改变
+     */
+    public List<Change<CacheEntry>> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return 按路径名排列的Resolve undo记录的改变
+     */
+    public List<Change<ResolveUndoExtension.Entry>> getResolveUndoChanges() {
+        return resolveUndoChanges;
+    }
+
+    /**
+     * @return Cached tree扩展中各个目录的改变，上级目录在前、同级目录按名称排列，修改时改变的内容为{@link #OID}
+     */
+    public List<Change<CachedTreeExtension.Entry>> getCachedTreeChanges() {
+        return cachedTreeChanges;
+    }
+
+    public boolean isCachedTreeChanged() {
+        return cachedTreeChanged;
+    }
+
+    /**
+     * @return 条目、Resolve undo记录以及Cached tree扩展都没有改变
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty() && resolveUndoChanges.isEmpty() && !cachedTreeChanged;
+    }
+
+    /**
+     * 一个条目或记录的改变
+     * @param <T> 条目或记录的类型
+     */
+    public static class Change<T> {
+
+        public enum Type {
+            ADDED, REMOVED, MODIFIED
+        }
+
+        private final T oldValue;
+        private final T newValue;
+        private final int changes;
+
+        private Change(T oldValue, T newValue, int changes) {
+            this.oldValue   = oldValue;
+            this.newValue   = newValue;
+            this.changes    = changes;
+        }
+
+        public Type getType() {
+            return oldValue == null ? Type.ADDED : newValue == null ? Type.REMOVED : Type.MODIFIED;
+        }
+
+        /**
+         * @return 旧的条目或记录，新增时为null
+         */
+        public T getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * @return 新的条目或记录，删除时为null
+         */
+        public T getNewValue() {
+            return newValue;
+        }
+
+        /**
+         * @return 修改时改变的内容，为{@link IndexDiff#OID}、{@link IndexDiff#MODE}、{@link IndexDiff#STAT}、
+         *         {@link IndexDiff#FLAGS}的组合；新增或删除时为0
+         */
+        public int getChanges() {
+            return changes;
+        }
+
+        public boolean isOidChanged() {
+            return (changes & OID) != 0;
+        }
+
+        public boolean isModeChanged() {
+            return (changes & MODE) != 0;
+        }
+
+        public boolean isStatChanged() {
+            return (changes & STAT) != 0;
+        }
+
+        public boolean isFlagsChanged() {
+            return (changes & FLAGS) != 0;
+        }
+
+        @Override
+        public String toString() {
+            T value = newValue != null ? newValue : oldValue;
+            String name = value instanceof CacheEntry
+                        ? new String(((CacheEntry) value).getName()) + " (stage " + ((CacheEntry) value).getFlags().getStage() + ")"
+                        : value instanceof CachedTreeExtension.Entry
+                        ? new String(((CachedTreeExtension.Entry) value).getPath()) + "/"
+                        : new String(((ResolveUndoExtension.Entry) value).getPathName());
+            return getType() + " " + name + (changes != 0 ? " " + Integer.toBinaryString(changes) : "");
+        }
+
+    }
+
+}
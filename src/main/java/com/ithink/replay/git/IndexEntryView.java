@@ -0,0 +1,188 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CacheEntry;
+import com.ithink.replay.git.model.GitObject;
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>{@link IndexVisitor#onEntry(IndexEntryView)}接收的索引条目视图，直接从index文件的缓冲区中读取各个字段<p/>
+ * <p>整个访问过程中只有一个实例，每访问一个条目就被指向下一个条目，因此只在本次回调期间有效，不能保存。
+ * 各个getter只返回基本类型，或将内容复制到调用者提供的数组中，不会分配任何对象；
+ * 需要保存条目时调用{@link #toCacheEntry()}<p/>
+ */
+public final class IndexEntryView {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private byte[] name;
+    private int nameLength;
+    private boolean extended;
+
+    IndexEntryView() {
+    }
+
+    /**
+     * 指向缓冲区中offset处的条目，参数的含义与{@link com.ithink.replay.git.model.IndexEntries.Builder#append}相同
+     */
+    void reset(ByteBuffer buffer, int offset, byte[] name, int nameLength) {
+        this.buffer     = buffer;
+        this.offset     = offset;
+        this.name       = name;
+        this.nameLength = nameLength;
+        this.extended   = CacheEntry.Flags.isExtended(buffer.getShort(offset + 60));
+    }
+
+    /**
+     * @return 条目在index文件中的偏移量
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getCtimeSec() {
+        return buffer.getInt(offset);
+    }
+
+    public int getCtimeNsec() {
+        return buffer.getInt(offset + 4);
+    }
+
+    public int getMtimeSec() {
+        return buffer.getInt(offset + 8);
+    }
+
+    public int getMtimeNsec() {
+        return buffer.getInt(offset + 12);
+    }
+
+    public int getDev() {
+        return buffer.getInt(offset + 16);
+    }
+
+    public int getIno() {
+        return buffer.getInt(offset + 20);
+    }
+
+    /**
+     * @return 32位mode，见{@link CacheEntry.Mode}
+     */
+    public int getModeBits() {
+        return buffer.getInt(offset + 24);
+    }
+
+    public int getUid() {
+        return buffer.getInt(offset + 28);
+    }
+
+    public int getGid() {
+        return buffer.getInt(offset + 32);
+    }
+
+    public int getSize() {
+        return buffer.getInt(offset + 36);
+    }
+
+    /**
+     * @return 16位flags，见{@link CacheEntry.Flags}
+     */
+    public short getFlagsBits() {
+        return buffer.getShort(offset + 60);
+    }
+
+    /**
+     * @return 16位extended flags，extended flag为0时返回0
+     */
+    public short getExtendedFlagsBits() {
+        return extended ? buffer.getShort(offset + 62) : 0;
+    }
+
+    public int getStage() {
+        return CacheEntry.Flags.stageOf(getFlagsBits());
+    }
+
+    /**
+     * @return 路径名的实际长度，路径名不短于0xFFF字节时也是实际长度
+     */
+    public int getNameLength() {
+        return nameLength;
+    }
+
+    /**
+     * @return 路径名中的第i个字节
+     */
+    public byte getNameByte(int i) {
+        if (i < 0 || i >= nameLength)
+            throw new IndexOutOfBoundsException("index: " + i + ", name length: " + nameLength);
+        return name != null ? name[i] : buffer.get(nameOffset() + i);
+    }
+
+    /**
+     * 将路径名复制到dst中从dstOffset开始的位置
+     * @return 路径名的长度
+     */
+    public int copyName(byte[] dst, int dstOffset) {
+        if (name != null) {
+            System.arraycopy(name, 0, dst, dstOffset, nameLength);
+        } else {
+            int from = nameOffset();
+            for (int i = 0; i < nameLength; i++)
+                dst[dstOffset + i] = buffer.get(from + i);
+        }
+        return nameLength;
+    }
+
+    /**
+     * 按{@link Bytes#compare(byte[], byte[])}的规则比较路径名与path的大小
+     */
+    public int compareName(byte[] path) {
+        return name != null ? Bytes.compare(name, 0, nameLength, path, 0, path.length)
+                            : Bytes.compare(buffer, nameOffset(), nameLength, path, 0, path.length);
+    }
+
+    public boolean nameEquals(byte[] path) {
+        return path.length == nameLength && compareName(path) == 0;
+    }
+
+    /**
+     * 将20字节的对象id复制到dst中从dstOffset开始的位置
+     */
+    public void copyOid(byte[] dst, int dstOffset) {
+        for (int i = 0; i < GitObject.Id.GIT_SHA1_RAWSZ; i++)
+            dst[dstOffset + i] = buffer.get(offset + 40 + i);
+    }
+
+    /**
+     * @return 新分配的路径名
+     */
+    public byte[] getName() {
+        byte[] path = new byte[nameLength];
+        copyName(path, 0);
+        return path;
+    }
+
+    /**
+     * @return 与当前条目内容相同、不依赖于本视图的{@link CacheEntry}对象
+     */
+    public CacheEntry toCacheEntry() {
+
+        CacheEntry.StatData statdata    = new CacheEntry.StatData(
+                getCtimeSec(), getCtimeNsec(), getMtimeSec(), getMtimeNsec(),
+                getDev(), getIno(), getUid(), getGid(), getSize()
+        );
+
+        return new CacheEntry(GitObject.Id.of(buffer, offset + 40), getName(), statdata,
+                new CacheEntry.Mode(getModeBits()), new CacheEntry.Flags(getFlagsBits(), getExtendedFlagsBits()));
+    }
+
+    private int nameOffset() {
+        return offset + (extended ? 64 : 62);
+    }
+
+    @Override
+    public String toString() {
+        return new String(getName()) + " (stage " + getStage() + ")";
+    }
+
+}
@@ -0,0 +1,490 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <p>生成内容合法的合成index文件，用于基准测试以及大规模的压力测试<p/>
+ * <p>生成的内容完全由各项设置以及随机数种子决定，相同的设置总是生成逐字节相同的文件。
+ * 条目的布局、填充字节以及末尾的SHA-1校验和都由{@link IndexStateWriter}按{@link IndexStateResolver}要求的格式写出<p/>
+ * <p>目录树按深度优先的顺序边生成边写出：每进入一个目录才生成其下的文件名以及子目录名并排序，
+ * 内存中只保存从根目录到当前目录的路径上各个目录的子项，因此生成上千万个条目的文件也不需要把条目保存在内存中。
+ * TREE、REUC扩展的大小必须写在其数据之前，它们的数据先累积在内存中，大小分别与目录的数量以及REUC记录的数量成正比<p/>
+ * <p>目录的划分方式：每个目录分到一定数量的条目，深度未达到{@link #setDepth 最小深度}时全部交给子目录；
+ * 达到最大深度，或条目数量不超过{@link #setFilesPerDirectory 每个目录的文件数}时全部作为本目录的文件；
+ * 否则随机保留不超过该数量的文件，其余平均分给不超过{@link #setFanOut 分支数}个子目录。
+ * 目录名以及文件名（不含后缀）的长度在{@link #setNameLength 设定的范围}内均匀分布<p/>
+ * <p>冲突的文件占用stage 1到3的3个条目，包含冲突的目录及其所有上级目录的TREE记录为无效（entry_count为-1），与git一致；
+ * TREE中有效记录的对象id以及所有条目的对象id都是随机生成的，并不对应真实的对象<p/>
+ */
+public class IndexGenerator {
+
+    private static final byte[] NAME_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789_-".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String[] FILE_SUFFIXES = {".java", ".c", ".h", ".md", ".txt", ".js", ".json", ".xml"};
+
+    private static final int MODE_REGULAR       = 0100644;
+    private static final int MODE_EXECUTABLE    = 0100755;
+
+    /**
+     * 未知扩展的signature为 ZZ00 到 ZZ99，首字母为大写字母，表示可以忽略的扩展
+     */
+    private static final int UNKNOWN_SIGNATURE = 0x5A_5A_30_30;
+    private static final int MAX_UNKNOWN_EXTENSIONS = 100;
+
+    private long seed;
+    private int version = 2;
+    private int entryCount = 1000;
+    private int minDepth = 1;
+    private int maxDepth = 6;
+    private int fanOut = 16;
+    private int filesPerDirectory = 16;
+    private int minNameLength = 3;
+    private int maxNameLength = 16;
+    private double conflictRatio;
+    private double resolveUndoRatio;
+    private boolean cachedTree = true;
+    private int unknownExtensions;
+    private int unknownExtensionSize = 64;
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version 生成的index文件的版本，2到4，版本4的路径名经过前缀压缩
+     */
+    public void setVersion(int version) {
+        if (version < 2 || version > 4)
+            throw new IllegalArgumentException("unsupported index version: " + version);
+        this.version = version;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @param entryCount 条目的数量，冲突的文件计为3个条目
+     */
+    public void setEntryCount(int entryCount) {
+        if (entryCount < 0)
+            throw new IllegalArgumentException("entry count cannot be negative: " + entryCount);
+        this.entryCount = entryCount;
+    }
+
+    public int getMinDepth() {
+        return minDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param minDepth 文件所在目录的最小深度，根目录下的文件深度为0
+     * @param maxDepth 文件所在目录的最大深度，达到该深度的目录不再有子目录
+     */
+    public void setDepth(int minDepth, int maxDepth) {
+        if (minDepth < 0 || maxDepth < minDepth)
+            throw new IllegalArgumentException("invalid depth range: [" + minDepth + ", " + maxDepth + "]");
+        this.minDepth = minDepth;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @param fanOut 每个目录下子目录的最大数量
+     */
+    public void setFanOut(int fanOut) {
+        if (fanOut < 1)
+            throw new IllegalArgumentException("fan out must be positive: " + fanOut);
+        this.fanOut = fanOut;
+    }
+
+    public int getFilesPerDirectory() {
+        return filesPerDirectory;
+    }
+
+    /**
+     * @param filesPerDirectory 未达到最大深度的目录中文件的最大数量
+     */
+    public void setFilesPerDirectory(int filesPerDirectory) {
+        if (filesPerDirectory < 1)
+            throw new IllegalArgumentException("files per directory must be positive: " + filesPerDirectory);
+        this.filesPerDirectory = filesPerDirectory;
+    }
+
+    public int getMinNameLength() {
+        return minNameLength;
+    }
+
+    public int getMaxNameLength() {
+        return maxNameLength;
+    }
+
+    /**
+     * @param minNameLength 目录名以及文件名（不含后缀）的最小长度
+     * @param maxNameLength 目录名以及文件名（不含后缀）的最大长度
+     */
+    public void setNameLength(int minNameLength, int maxNameLength) {
+        if (minNameLength < 1 || maxNameLength < minNameLength)
+            throw new IllegalArgumentException("invalid name length range: [" + minNameLength + ", " + maxNameLength + "]");
+        this.minNameLength = minNameLength;
+        this.maxNameLength = maxNameLength;
+    }
+
+    public double getConflictRatio() {
+        return conflictRatio;
+    }
+
+    /**
+     * @param conflictRatio 文件处于冲突状态（占用stage 1到3）的概率
+     */
+    public void setConflictRatio(double conflictRatio) {
+        if (!(conflictRatio >= 0 && conflictRatio <= 1))
+            throw new IllegalArgumentException("conflict ratio must be in [0, 1]: " + conflictRatio);
+        this.conflictRatio = conflictRatio;
+    }
+
+    public double getResolveUndoRatio() {
+        return resolveUndoRatio;
+    }
+
+    /**
+     * @param resolveUndoRatio 未冲突的文件在REUC扩展中存在记录的概率，为0时不生成REUC扩展
+     */
+    public void setResolveUndoRatio(double resolveUndoRatio) {
+        if (!(resolveUndoRatio >= 0 && resolveUndoRatio <= 1))
+            throw new IllegalArgumentException("resolve undo ratio must be in [0, 1]: " + resolveUndoRatio);
+        this.resolveUndoRatio = resolveUndoRatio;
+    }
+
+    public boolean isCachedTree() {
+        return cachedTree;
+    }
+
+    /**
+     * @param cachedTree 是否生成TREE扩展
+     */
+    public void setCachedTree(boolean cachedTree) {
+        this.cachedTree = cachedTree;
+    }
+
+    public int getUnknownExtensions() {
+        return unknownExtensions;
+    }
+
+    public int getUnknownExtensionSize() {
+        return unknownExtensionSize;
+    }
+
+    /**
+     * @param count 在其他扩展之后生成的可忽略的未知扩展的数量
+     * @param size 每个未知扩展的数据的字节数，内容是随机的
+     */
+    public void setUnknownExtensions(int count, int size) {
+        if (count < 0 || count > MAX_UNKNOWN_EXTENSIONS)
+            throw new IllegalArgumentException("unknown extension count must be in [0, " + MAX_UNKNOWN_EXTENSIONS + "]: " + count);
+        if (size < 0)
+            throw new IllegalArgumentException("unknown extension size cannot be negative: " + size);
+        this.unknownExtensions      = count;
+        this.unknownExtensionSize   = size;
+    }
+
+    /**
+     * 生成index文件，文件已存在时被覆盖
+     * @param filename 目标文件名，包含完整路径
+     * @return 写在文件末尾的SHA-1校验和
+     * @exception IOException 若I/O发生错误
+     */
+    public byte[] generate(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return generate(channel);
+        }
+    }
+
+    /**
+     * 按index文件的格式将生成的内容写入channel
+     * @return 写在末尾的SHA-1校验和
+     * @exception IOException 若I/O发生错误
+     */
+    public byte[] generate(WritableByteChannel channel) throws IOException {
+        Walk walk = new Walk();
+        return new IndexStateWriter().write(version, entryCount, i -> walk.next(), null, walk::extensions, channel);
+    }
+
+    /**
+     * 一次生成过程的状态，按深度优先的顺序逐个产生条目
+     */
+    private class Walk {
+
+        private final Random random = new Random(seed);
+
+        /**
+         * 从根目录到当前目录的路径上的各个目录，栈顶为当前目录
+         */
+        private final Deque<Directory> stack = new ArrayDeque<>();
+
+        /**
+         * 按自顶向下、深度优先的顺序排列的各个目录的TREE记录
+         */
+        private final List<TreeRecord> trees = new ArrayList<>();
+
+        private final ByteArrayOutputStream resolveUndo = new ByteArrayOutputStream();
+
+        /**
+         * 冲突的文件的路径名，以及下一个要产生的stage，为0时表示没有
+         */
+        private byte[] conflicted;
+        private int nextStage;
+
+        private Walk() {
+            stack.push(enter(new byte[0], new byte[0], 0, entryCount));
+        }
+
+        /**
+         * @return 下一个条目，只能调用{@link #entryCount}次
+         */
+        CacheEntry next() {
+
+            if (nextStage != 0) {
+                CacheEntry entry = newEntry(conflicted, nextStage);
+                nextStage = nextStage == 3 ? 0 : nextStage + 1;
+                return entry;
+            }
+
+            while (true) {
+
+                Directory directory = stack.peek();
+                if (directory.cursor == directory.children.length) {
+                    stack.pop();
+                    continue;
+                }
+
+                Child child = directory.children[directory.cursor++];
+                byte[] path = concat(directory.path, child.name);
+
+                if (child.directory) {
+                    stack.push(enter(concat(path, new byte[] {'/'}), child.name, directory.depth + 1, child.count));
+                    continue;
+                }
+
+                if (child.count == 3) {
+                    for (Directory d : stack)
+                        d.tree.invalid = true;
+                    conflicted  = path;
+                    nextStage   = 2;
+                    return newEntry(path, 1);
+                }
+
+                if (resolveUndoRatio > 0 && random.nextDouble() < resolveUndoRatio)
+                    writeResolveUndo(path);
+
+                return newEntry(path, 0);
+            }
+        }
+
+        /**
+         * 生成目录中的文件以及子目录，按路径名的顺序排列
+         * @param path 目录的路径名，以'/'结尾，根目录为空
+         * @param count 目录下（包括各级子目录）条目的数量
+         */
+        private Directory enter(byte[] path, byte[] name, int depth, int count) {
+
+            int fileEntries;
+            if (depth < minDepth)
+                fileEntries = 0;
+            else if (depth >= maxDepth || count <= filesPerDirectory)
+                fileEntries = count;
+            else
+                fileEntries = Math.min(count, 1 + random.nextInt(filesPerDirectory));
+
+            int rest = count - fileEntries;
+            int subdirectories = rest == 0 ? 0 : Math.min(fanOut, (rest + filesPerDirectory - 1) / filesPerDirectory);
+
+            Set<String> names = new HashSet<>();
+            List<Child> children = new ArrayList<>();
+
+            while (fileEntries > 0) {
+                boolean conflict = fileEntries >= 3 && conflictRatio > 0 && random.nextDouble() < conflictRatio;
+                String fileName = uniqueName(names, FILE_SUFFIXES[random.nextInt(FILE_SUFFIXES.length)]);
+                children.add(new Child(fileName, false, conflict ? 3 : 1));
+                fileEntries -= conflict ? 3 : 1;
+            }
+
+            for (int i = 0; i < subdirectories; i++)
+                children.add(new Child(uniqueName(names, ""), true, rest / subdirectories + (i < rest % subdirectories ? 1 : 0)));
+
+            children.sort((a, b) -> Bytes.compare(a.key, b.key));
+
+            TreeRecord tree = new TreeRecord(name, count, subdirectories);
+            trees.add(tree);
+
+            return new Directory(path, depth, children.toArray(new Child[0]), tree);
+        }
+
+        private String uniqueName(Set<String> names, String suffix) {
+
+            int length = minNameLength + random.nextInt(maxNameLength - minNameLength + 1);
+            byte[] chars = new byte[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = NAME_CHARS[random.nextInt(NAME_CHARS.length)];
+
+            String base = new String(chars, StandardCharsets.US_ASCII);
+            String name = base + suffix;
+            // 名称空间较小时可能重复，此时追加序号，序号递增因此一定会结束
+            for (int i = 0; !names.add(name); i++)
+                name = base + '-' + i + suffix;
+
+            return name;
+        }
+
+        private CacheEntry newEntry(byte[] path, int stage) {
+
+            int mtime = 1_500_000_000 + random.nextInt(100_000_000);
+            CacheEntry.StatData statdata = new CacheEntry.StatData(
+                    mtime, random.nextInt(1_000_000_000), mtime, random.nextInt(1_000_000_000),
+                    2049, random.nextInt(), 1000, 1000, random.nextInt(1 << 20)
+            );
+            int mode = random.nextInt(16) == 0 ? MODE_EXECUTABLE : MODE_REGULAR;
+            short flags = (short) (stage << 12 | Math.min(path.length, 0xFFF));
+
+            return new CacheEntry(new GitObject.Id(hash()), path, statdata, new CacheEntry.Mode(mode), new CacheEntry.Flags(flags));
+        }
+
+        private void writeResolveUndo(byte[] path) {
+
+            byte[] mode = (Integer.toOctalString(MODE_REGULAR) + '\0').getBytes(StandardCharsets.US_ASCII);
+
+            resolveUndo.write(path, 0, path.length);
+            resolveUndo.write(0);
+            for (int stage = 1; stage <= 3; stage++)
+                resolveUndo.write(mode, 0, mode.length);
+            for (int stage = 1; stage <= 3; stage++)
+                resolveUndo.write(hash(), 0, GitObject.Id.GIT_SHA1_RAWSZ);
+        }
+
+        private byte[] hash() {
+            byte[] hash = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+            random.nextBytes(hash);
+            return hash;
+        }
+
+        /**
+         * 所有条目都产生之后才调用，扩展只需要原样写出，因此不解析其数据
+         */
+        List<Extension> extensions() {
+
+            List<Extension> extensions = new ArrayList<>();
+
+            if (cachedTree) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                for (TreeRecord tree : trees) {
+                    byte[] line = ('\0' + (tree.invalid ? "-1" : String.valueOf(tree.entryCount)) + ' ' + tree.subtrees + '\n')
+                            .getBytes(StandardCharsets.US_ASCII);
+                    data.write(tree.name, 0, tree.name.length);
+                    data.write(line, 0, line.length);
+                    if (!tree.invalid)
+                        data.write(hash(), 0, GitObject.Id.GIT_SHA1_RAWSZ);
+                }
+                extensions.add(new OptionalExtension(CachedTreeExtension.SIGNATURE, data.toByteArray()));
+            }
+
+            if (resolveUndo.size() > 0)
+                extensions.add(new OptionalExtension(ResolveUndoExtension.SIGNATURE, resolveUndo.toByteArray()));
+
+            for (int i = 0; i < unknownExtensions; i++) {
+                byte[] data = new byte[unknownExtensionSize];
+                random.nextBytes(data);
+                extensions.add(new OptionalExtension(UNKNOWN_SIGNATURE + (i / 10 << 8) + i % 10, data));
+            }
+
+            return extensions;
+        }
+
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static class Directory {
+
+        private final byte[] path;
+        private final int depth;
+        private final Child[] children;
+        private final TreeRecord tree;
+
+        private int cursor;
+
+        private Directory(byte[] path, int depth, Child[] children, TreeRecord tree) {
+            this.path       = path;
+            this.depth      = depth;
+            this.children   = children;
+            this.tree       = tree;
+        }
+    }
+
+    private static class Child {
+
+        private final byte[] name;
+
+        /**
+         * 排序使用的键，目录名之后加上'/'，与完整路径名的顺序一致
+         */
+        private final byte[] key;
+        private final boolean directory;
+
+        /**
+         * 目录下条目的数量；对于文件，冲突时为3，否则为1
+         */
+        private final int count;
+
+        private Child(String name, boolean directory, int count) {
+            this.name       = name.getBytes(StandardCharsets.US_ASCII);
+            this.key        = directory ? concat(this.name, new byte[] {'/'}) : this.name;
+            this.directory  = directory;
+            this.count      = count;
+        }
+    }
+
+    private static class TreeRecord {
+
+        private final byte[] name;
+        private final int entryCount;
+        private final int subtrees;
+
+        private boolean invalid;
+
+        private TreeRecord(byte[] name, int entryCount, int subtrees) {
+            this.name       = name;
+            this.entryCount = entryCount;
+            this.subtrees   = subtrees;
+        }
+    }
+
+}
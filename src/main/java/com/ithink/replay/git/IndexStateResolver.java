@@ -2,20 +2,280 @@ package com.ithink.replay.git;
 
 import com.ithink.replay.git.model.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.SortedSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
- * <p>当前仅解析版本2的内容，部分版本3或版本4中出现的内容以及改动暂时不支持</p>
+ * <p>支持版本2、3、4：版本3的条目可带有extended flags（skip-worktree、intent-to-add），
+ * 版本4的路径名经过前缀压缩且条目之后没有填充字节</p>
  * <p>另外扩展列表中，当前只对Cached tree和Resolve undo进行详细解析，其余的皆按可选扩展解析，后续再添加更新</p>
+ * <p>支持两种解析引擎，见{@link Engine}，两者解析出的结果一致</p>
+ * <p>存在link扩展（split index）时，会继续解析同一目录下的共享index文件，并在其之上应用link扩展中记录的改动，
+ * 见{@link SplitIndexEntries}</p>
+ * <p>并行度大于1时持有一个线程池，不再使用时需要调用{@link #close()}</p>
  */
-public class IndexStateResolver {
+public class IndexStateResolver implements AutoCloseable {
+
+    /**
+     * 解析引擎
+     */
+    public enum Engine {
+
+        /**
+         * 通过{@link RandomAccessFile}逐个字段地读取，每读取一个字段就是一次系统调用
+         */
+        RANDOM_ACCESS,
+
+        /**
+         * 通过{@link java.nio.channels.FileChannel#map}将整个文件映射为一个缓冲区，再按绝对偏移量解码
+         * @see IndexBufferParser
+         */
+        MAPPED
+
+    }
+
+    /**
+     * SHA-1校验和的校验时机
+     */
+    public enum Verification {
+
+        /**
+         * 解析之前先完整读取一遍文件并校验，校验通过后再解析
+         */
+        UP_FRONT,
+
+        /**
+         * 在解析的同一遍读取中，将已解析的字节依次喂给摘要，解析完成后再比较校验和，仅{@link Engine#MAPPED}引擎支持
+         */
+        INLINE,
+
+        /**
+         * 在另一个线程中对同一个缓冲区计算摘要，同时本线程进行解析，解析完成后再比较校验和，仅{@link Engine#MAPPED}引擎支持
+         */
+        CONCURRENT,
+
+        /**
+         * 与{@link #UP_FRONT}相同，但最后20字节全为0时不校验。git在{@code index.skipHash}为true时写出这样的文件，
+         * 以省去计算整个文件的SHA-1；此时{@link IndexState#getIntegrity()}的结果为false
+         */
+        SKIP_HASH,
+
+        /**
+         * <p>在后台线程中计算摘要，解析完成后不等待，直接返回解析结果，仅{@link Engine#MAPPED}引擎支持<p/>
+         * <p>校验的结果通过{@link IndexState#getIntegrity()}得到，校验和不一致时该future以异常结束，
+         * 而{@link #resolve(String)}本身不会因此失败；解析本身失败时依然等待校验，优先报告校验和不一致。
+         * 映射的缓冲区在校验完成之前一直被引用<p/>
+         * <p>最后20字节全为0时与{@link #SKIP_HASH}相同，不计算摘要，该future直接以false结束<p/>
+         * @see #setVerificationExecutor(Executor)
+         */
+        ASYNC
+
+    }
+
+    /**
+     * 解析出的索引条目在内存中的存储方式
+     */
+    public enum Storage {
+
+        /**
+         * 每个条目都是一个完整的{@link CacheEntry}对象，按顺序保存在数组中
+         * @see ArrayIndexEntries
+         */
+        OBJECTS,
+
+        /**
+         * 所有条目按列保存在若干个基本类型数组中，路径名按前缀压缩，通过轻量视图访问，仅{@link Engine#MAPPED}引擎支持
+         * @see ColumnarIndexEntries
+         */
+        COLUMNAR,
+
+        /**
+         * 只记录每个条目在文件中的偏移量，访问某个条目时才解码，仅{@link Engine#MAPPED}引擎支持
+         * @see LazyIndexEntries
+         */
+        LAZY,
+
+        /**
+         * 所有条目按固定步长拷贝到堆外的直接缓冲区中，堆上的开销与条目的数量无关，解析完成后不再引用文件的缓冲区，
+         * 仅{@link Engine#MAPPED}引擎支持
+         * @see OffHeapIndexEntries
+         */
+        OFF_HEAP
+
+    }
+
+    /**
+     * 缓存的共享index文件的数量。git在拆分出新的共享index文件之前，通常只有一个共享index文件正在被使用
+     */
+    private static final int SHARED_INDEX_CACHE_SIZE = 2;
+
+    private final Engine engine;
+
+    private Verification verification = Verification.UP_FRONT;
+
+    /**
+     * {@link Verification#CONCURRENT}以及{@link Verification#ASYNC}方式下计算摘要的线程池
+     */
+    private Executor verificationExecutor = ForkJoinPool.commonPool();
+
+    private Storage storage = Storage.OBJECTS;
+
+    private int parallelism = 1;
+
+    /**
+     * 并行度大于1时用于并行解析的线程池
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * 最近解析过的共享index文件，按最近访问的顺序排列，最多保留{@link #SHARED_INDEX_CACHE_SIZE}个
+     */
+    private final Map<Path, IndexState> sharedIndexes = new LinkedHashMap<Path, IndexState>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, IndexState> eldest) {
+            return size() > SHARED_INDEX_CACHE_SIZE;
+        }
+    };
+
+    private final List<ResolveListener> listeners = new CopyOnWriteArrayList<>();
+
+    public IndexStateResolver() {
+        this(Engine.RANDOM_ACCESS);
+    }
+
+    public IndexStateResolver(Engine engine) {
+        if (engine == null)
+            throw new IllegalArgumentException("engine cannot be null");
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public Verification getVerification() {
+        return verification;
+    }
+
+    /**
+     * <p>设置校验和的校验时机，默认为{@link Verification#UP_FRONT}<p/>
+     * <p>除{@link Verification#ASYNC}外，校验失败时{@link #resolve(String)}都会抛出同样的异常，
+     * 区别只在于{@link Verification#INLINE}、{@link Verification#CONCURRENT}要等到解析完成之后才抛出；
+     * {@link Verification#ASYNC}方式下校验失败通过{@link IndexState#getIntegrity()}报告<p/>
+     * @exception IllegalArgumentException 若当前引擎不支持该校验方式
+     */
+    public void setVerification(Verification verification) {
+
+        if (verification == null)
+            throw new IllegalArgumentException("verification cannot be null");
+
+        if (engine == Engine.RANDOM_ACCESS && verification != Verification.UP_FRONT && verification != Verification.SKIP_HASH)
+            throw new IllegalArgumentException(engine + "引擎仅支持" + Verification.UP_FRONT + "、" + Verification.SKIP_HASH + "校验方式");
+
+        this.verification = verification;
+    }
+
+    public Executor getVerificationExecutor() {
+        return verificationExecutor;
+    }
+
+    /**
+     * 设置{@link Verification#CONCURRENT}以及{@link Verification#ASYNC}方式下计算摘要的线程池，
+     * 默认为{@link ForkJoinPool#commonPool()}
+     */
+    public void setVerificationExecutor(Executor verificationExecutor) {
+        if (verificationExecutor == null)
+            throw new IllegalArgumentException("verificationExecutor cannot be null");
+        this.verificationExecutor = verificationExecutor;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * 设置索引条目的存储方式，默认为{@link Storage#OBJECTS}
+     * @exception IllegalArgumentException 若当前引擎不支持该存储方式
+     */
+    public void setStorage(Storage storage) {
+
+        if (storage == null)
+            throw new IllegalArgumentException("storage cannot be null");
+
+        if (engine == Engine.RANDOM_ACCESS && storage != Storage.OBJECTS)
+            throw new IllegalArgumentException(engine + "引擎仅支持" + Storage.OBJECTS + "存储方式");
+
+        this.storage = storage;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * <p>设置解析时使用的线程数，默认为1，即按顺序解析<p/>
+     * <p>大于1时，若文件中存在EOIE扩展，会在解析索引条目的同时解析扩展列表；
+     * 若还存在IEOT扩展，则按其记录的分块在一个{@link ForkJoinPool}中并行地解析索引条目。
+     * 这两个扩展由git在{@code index.threads}大于1或{@code index.recordOffsetTable}为true时写入，
+     * 不存在时依然按顺序解析<p/>
+     * <p>线程池由本对象创建并持有，再次设置并行度或调用{@link #close()}时关闭<p/>
+     * @exception IllegalArgumentException 若parallelism小于1，或当前引擎不支持并行解析
+     */
+    public void setParallelism(int parallelism) {
+
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+        if (engine == Engine.RANDOM_ACCESS && parallelism != 1)
+            throw new IllegalArgumentException(engine + "引擎仅支持按顺序解析");
+
+        if (pool != null)
+            pool.shutdown();
+
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * 关闭并行解析使用的线程池，不应与解析同时进行。之后并行度恢复为1，依然可以按顺序解析
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = 1;
+    }
+
+    /**
+     * 注册监听器，之后每次{@link #resolve(String)}结束时都会收到本次解析的{@link ResolveMetrics}
+     */
+    public void addResolveListener(ResolveListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener cannot be null");
+        listeners.add(listener);
+    }
+
+    public boolean removeResolveListener(ResolveListener listener) {
+        return listeners.remove(listener);
+    }
 
     /**
      * 将指定index文件解析为{@link IndexState}类型的对象
@@ -26,23 +286,182 @@ public class IndexStateResolver {
      * @see IndexState
      */
     public IndexState resolve(String filename) throws IOException {
+        return resolve(filename, null);
+    }
 
-        RandomAccessFile file = new RandomAccessFile(filename, "r");
-
-        checkSignature(file);
-        checkSum(file);
+    /**
+     * <p>与{@link #resolve(String)}相同，但会复用同一个文件上一次的解析结果中未改变的条目<p/>
+     * <p>仅在{@link Engine#MAPPED}引擎、{@link Storage#OBJECTS}存储方式且文件不是split index时生效：
+     * 路径名、stage、stat数据、模式、标志位以及对象id都未改变的条目直接使用previous中的对象，
+     * 不再为其创建新的对象，反复加载只有少量条目改变的大文件时可以省去绝大部分的内存分配。
+     * 其他情况下previous被忽略<p/>
+     * @param filename 要解析的index文件的文件名，包含完整路径
+     * @param previous 同一个文件上一次的解析结果，可以为null
+     * @return 表示index文件内容的对象，其中的条目可能与previous共享
+     * @exception EOFException 若未读取足够的字节却已经到文件尾部
+     * @exception IOException  若I/O发生错误
+     */
+    public IndexState resolve(String filename, IndexState previous) throws IOException {
 
-        CacheHeader cacheHeader = resolveHeader(file);
-        IndexState theIndex = new IndexState(cacheHeader);
+        if (listeners.isEmpty())
+            return resolveIndex(filename, previous, null);
 
-        resolveIndexEntries(file, theIndex);
-        resolveExtensions(file, theIndex);
+        ResolveMetrics metrics = new ResolveMetrics(filename, engine);
+        metrics.begin();
 
-        file.readFully(theIndex.getChecksum());
+        IndexState theIndex;
+        try {
+            theIndex = resolveIndex(filename, previous, metrics);
+        } catch (IOException | RuntimeException | Error e) {
+            metrics.end(null);
+            for (ResolveListener listener : listeners)
+                listener.onFailure(metrics, e);
+            throw e;
+        }
 
-        file.close();
+        metrics.end(theIndex);
+        for (ResolveListener listener : listeners)
+            listener.onResolved(metrics);
 
         return theIndex;
+    }
+
+    /**
+     * @param metrics 记录本次解析的度量，没有监听器时为null
+     */
+    private IndexState resolveIndex(String filename, IndexState previous, ResolveMetrics metrics) throws IOException {
+
+        ArrayIndexEntries reusable = null;
+        if (previous != null && previous.getSortedIndexEntries() instanceof ArrayIndexEntries)
+            reusable = (ArrayIndexEntries) previous.getSortedIndexEntries();
+
+        IndexState theIndex = resolveFile(filename, reusable, metrics);
+
+        SplitIndexExtension link = null;
+        for (Extension extension : theIndex.getExtensions()) {
+            if (extension instanceof SplitIndexExtension)
+                link = (SplitIndexExtension) extension;
+        }
+        if (link == null || link.getSharedIndexId() == null)
+            return theIndex;
+
+        IndexState shared = resolveSharedIndex(filename, link.getSharedIndexId(), metrics);
+        SplitIndexEntries entries = SplitIndexEntries.merge(
+                shared.getSortedIndexEntries(), theIndex.getSortedIndexEntries(), link
+        );
+
+        CacheHeader header = theIndex.getHeader();
+        IndexState merged = new IndexState(new CacheHeader(header.getSignature(), header.getVersion(), entries.size()), entries);
+        merged.getExtensions().addAll(theIndex.getExtensions());
+        System.arraycopy(theIndex.getChecksum(), 0, merged.getChecksum(), 0, GitObject.Id.GIT_SHA1_RAWSZ);
+        // 两个文件都校验过才算校验过，任一个校验失败都以其异常结束
+        merged.setIntegrity(theIndex.getIntegrity().thenCombine(shared.getIntegrity(), Boolean::logicalAnd));
+
+        return merged;
+    }
+
+    /**
+     * <p>将指定index文件的各个部分依次交给visitor，不构建{@link IndexState}，每个条目都不分配任何对象<p/>
+     * <p>无论使用哪种引擎，都将文件映射到内存中按顺序解析，并按当前的校验方式校验；
+     * visitor提前停止时，除{@link Verification#UP_FRONT}、{@link Verification#SKIP_HASH}外都不再检查校验和；
+     * 没有{@link IndexState}可以报告结果，因此{@link Verification#ASYNC}与{@link Verification#CONCURRENT}相同，访问结束时等待校验完成。
+     * 不处理link扩展，split index文件中访问到的只是其本身的条目<p/>
+     * @param filename 要访问的index文件的文件名，包含完整路径
+     * @param visitor 接收文件各个部分的visitor
+     * @exception EOFException 若未读取足够的字节却已经到文件尾部
+     * @exception IOException  若I/O发生错误
+     * @see IndexVisitor
+     */
+    public void visit(String filename, IndexVisitor visitor) throws IOException {
+
+        if (visitor == null)
+            throw new IllegalArgumentException("visitor cannot be null");
+
+        new IndexBufferParser(IndexBufferParser.map(filename), verification, verificationExecutor, storage, null, null, null)
+                .visit(visitor);
+    }
+
+    /**
+     * <p>解析与index文件位于同一目录下的{@code sharedindex.<SHA-1>}文件，解析结果会被缓存<p/>
+     * <p>共享index文件的内容由其文件名中的SHA-1唯一确定，写入后不会再被修改，
+     * 因此只要文件名相同就可以直接复用之前的解析结果，之后再次加载同一个index文件时只需要解析其本身<p/>
+     * @exception IllegalStateException 若共享index文件的校验和与文件名不符，或其本身也是split index
+     */
+    private IndexState resolveSharedIndex(String filename, GitObject.Id id, ResolveMetrics metrics) throws IOException {
+
+        Path path = Paths.get(filename).toAbsolutePath().resolveSibling("sharedindex." + id);
+
+        synchronized (sharedIndexes) {
+            IndexState shared = sharedIndexes.get(path);
+            if (shared != null)
+                return shared;
+        }
+
+        IndexState shared = resolveFile(path.toString(), null, metrics);
+        if (!Arrays.equals(shared.getChecksum(), id.getHash()))
+            throw new IllegalStateException("共享index文件" + path + "的校验和与文件名不符");
+        for (Extension extension : shared.getExtensions()) {
+            if (extension instanceof SplitIndexExtension)
+                throw new IllegalStateException("共享index文件" + path + "中不能再存在link扩展");
+        }
+
+        synchronized (sharedIndexes) {
+            sharedIndexes.put(path, shared);
+        }
+
+        // 异步校验失败的共享index文件不再被复用
+        shared.getIntegrity().whenComplete((verified, e) -> {
+            if (e != null) {
+                synchronized (sharedIndexes) {
+                    sharedIndexes.remove(path, shared);
+                }
+            }
+        });
+
+        return shared;
+    }
+
+    /**
+     * 只解析指定的文件本身，不处理link扩展
+     * @param metrics 记录各个阶段的耗时以及读取的字节数，可以为null
+     */
+    private IndexState resolveFile(String filename, ArrayIndexEntries previous, ResolveMetrics metrics) throws IOException {
+
+        if (engine == Engine.MAPPED) {
+            MappedByteBuffer buffer = IndexBufferParser.map(filename);
+            if (metrics != null)
+                metrics.addBytesRead(buffer.limit());
+            return new IndexBufferParser(buffer, verification, verificationExecutor, storage, pool, previous, metrics).parse();
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+
+            if (metrics != null)
+                metrics.addBytesRead(file.length());
+
+            long start = ResolveMetrics.start(metrics);
+            checkSignature(file);
+            boolean verified = verification != Verification.SKIP_HASH || !isSkipHash(file);
+            if (verified)
+                checkSum(file);
+            ResolveMetrics.stop(metrics, ResolveMetrics.Phase.CHECKSUM, start);
+
+            start = ResolveMetrics.start(metrics);
+            CacheHeader cacheHeader = resolveHeader(file);
+            ResolveMetrics.stop(metrics, ResolveMetrics.Phase.HEADER, start);
+
+            start = ResolveMetrics.start(metrics);
+            IndexState theIndex = new IndexState(cacheHeader, resolveIndexEntries(file, cacheHeader));
+            ResolveMetrics.stop(metrics, ResolveMetrics.Phase.ENTRIES, start);
+
+            start = ResolveMetrics.start(metrics);
+            resolveExtensions(file, theIndex);
+            file.readFully(theIndex.getChecksum());
+            theIndex.setIntegrity(CompletableFuture.completedFuture(verified));
+            ResolveMetrics.stop(metrics, ResolveMetrics.Phase.EXTENSIONS, start);
+
+            return theIndex;
+        }
 
     }
 
@@ -61,6 +480,30 @@ public class IndexStateResolver {
         file.seek(0);
     }
 
+    /**
+     * @return 最后20字节是否全为0，即git以{@code index.skipHash}写出、没有计算校验和的文件
+     * @exception EOFException 若文件不足20字节
+     * @exception IOException  若I/O发生错误
+     */
+    private boolean isSkipHash(RandomAccessFile file) throws IOException {
+
+        if (file.length() < 20)
+            throw new EOFException();
+
+        long last = file.getFilePointer();
+        file.seek(file.length() - 20);
+
+        byte[] tarSum = new byte[20];
+        file.readFully(tarSum);
+        file.seek(last);
+
+        for (byte b : tarSum) {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
     /**
      * <p>检查文件的是否已被篡改或损坏。<p/>
      * <p>通过比较前面所有数据的SHA-1值，与最后20字节表示的是否一致来确定</p>
@@ -138,15 +581,23 @@ public class IndexStateResolver {
      * 解析index文件中的索引条目列表部分的内容<br/>
      * 该步骤应该紧接在解析文件头部之后，否则需要手动跳过头部部分的字节
      * @param flie 要解析的index文件
-     * @param output 按照某个头部来解析，解析完保存到那个对象
+     * @param header 按照该头部来解析
+     * @return 按顺序排列的索引条目
      * @exception EOFException 若未读取足够的字节却已经到文件尾部
      * @exception IOException  若I/O发生错误
      */
-    private void resolveIndexEntries(RandomAccessFile flie, IndexState output) throws IOException {
+    private IndexEntries resolveIndexEntries(RandomAccessFile flie, CacheHeader header) throws IOException {
+
+        if (header.getVersion() < 2 || header.getVersion() > 4)
+            throw new IllegalStateException("不支持的index文件版本：" + header.getVersion());
 
-        SortedSet<CacheEntry> entries = output.getSortedIndexEntries();
+        ArrayIndexEntries.Builder entries = new ArrayIndexEntries.Builder(header.getEntryCount());
 
-        for (int i = 0; i < output.getHeader().getEntryCount(); i++) {
+        // 版本4中还原路径名使用的数组，其中[0, previousLength)为前一个条目的路径名
+        byte[] previous = new byte[256];
+        int previousLength = 0;
+
+        for (int i = 0; i < header.getEntryCount(); i++) {
 
             int ctimeSeconds                    = flie.readInt();
             int ctimeNanosecondFractions        = flie.readInt();
@@ -171,23 +622,71 @@ public class IndexStateResolver {
             flie.readFully(hash);
             GitObject.Id oid                = new GitObject.Id(hash);
 
-            CacheEntry.Flags flags          = new CacheEntry.Flags(flie.readShort());
-
-            byte[] name                     = new byte[flags.getNameLength()];
-            flie.readFully(name);
+            short flagsBits                 = flie.readShort();
+            boolean extended                = CacheEntry.Flags.isExtended(flagsBits);
+            if (extended && header.getVersion() < 3)
+                throw new IllegalStateException("版本" + header.getVersion() + "的index文件中不应存在extended flag为1的条目");
+            CacheEntry.Flags flags          = new CacheEntry.Flags(flagsBits, extended ? flie.readShort() : 0);
+
+            int fixedSize = 4*4 + 4*2 + 4 + 4*3 + 20 + 2 + (extended ? 2 : 0);
+            byte[] name;
+            if (header.getVersion() == 4) {
+
+                /*
+                    the name is prefix-compressed against the previous entry:
+                    a varint counting the bytes to strip, then the NUL-terminated suffix
+                 */
+                int c = flie.readUnsignedByte();
+                int strip = c & 0x7F;
+                while ((c & 0x80) != 0) {
+                    c = flie.readUnsignedByte();
+                    strip = ((strip + 1) << 7) | (c & 0x7F);
+                    if (strip < 0)
+                        throw new IllegalStateException("索引条目的路径名前缀长度溢出");
+                }
+                if (i == 0)
+                    strip = 0;
+                else if (strip > previousLength)
+                    throw new IllegalStateException("索引条目的路径名前缀长度" + strip + "超过了前一个路径名的长度" + previousLength);
+
+                int length = previousLength - strip;
+                for (int b = flie.readUnsignedByte(); b != 0; b = flie.readUnsignedByte()) {
+                    if (length == previous.length)
+                        previous = Arrays.copyOf(previous, length * 2);
+                    previous[length++] = (byte) b;
+                }
+                previousLength = length;
+                name = Arrays.copyOf(previous, length);
+
+            } else {
+
+                int nameLength = flags.getNameLength();
+                if (nameLength < 0xFFF) {
+                    name = new byte[nameLength];
+                    flie.readFully(name);
+                } else {
+                    // the real length is only known after reaching the NUL
+                    ByteArrayOutputStream longName = new ByteArrayOutputStream(nameLength * 2);
+                    for (int b = flie.readUnsignedByte(); b != 0; b = flie.readUnsignedByte())
+                        longName.write(b);
+                    name = longName.toByteArray();
+                    flie.seek(flie.getFilePointer() - 1);
+                }
+
+                /*
+                    skip the padding nil Bytes
+                 */
+                int entryByteCount  = fixedSize + name.length;
+                int nilBytesCount   = 8 - (entryByteCount & 0x7);
+                flie.skipBytes(nilBytesCount);
+            }
 
             CacheEntry entry = new CacheEntry(oid, name, statdata, mode, flags);
-            entries.add(entry);
-
-            /*
-                skip the padding nil Bytes
-             */
-            int entryByteCount  = 4*4 + 4*2 + 4 + 4*3 + 20 + 2 + flags.getNameLength();
-            int nilBytesCount   = 8 - (entryByteCount & 0x7);
-            flie.skipBytes(nilBytesCount);
+            entries.append(entry);
 
         }
 
+        return entries.build();
     }
 
     /**
@@ -200,7 +699,7 @@ public class IndexStateResolver {
      */
     private void resolveExtensions(RandomAccessFile file, IndexState output) throws IOException {
 
-        SortedSet<Extension> extensions = output.getExtensions();
+        List<Extension> extensions = output.getExtensions();
 
         /*
             由于前面并未发现任何数据指示本index文件中，当前存有多少个扩展，
@@ -211,6 +710,8 @@ public class IndexStateResolver {
 
             int signature       = file.readInt();
             int size            = file.readInt();
+            if (size < 0 || size > positionToTheFirstByteOfSHA1Checksum - file.getFilePointer())
+                throw new EOFException("扩展的大小为" + size + "字节，超出了文件的剩余部分");
             byte[] data         = new byte[size];
             file.readFully(data);
 
@@ -228,13 +729,21 @@ public class IndexStateResolver {
      * @param data 扩展项的数据
      * @return 对应的Extension对象
      */
-    private Extension convertExtension(int signature, byte[] data) {
+    static Extension convertExtension(int signature, byte[] data) {
 
         switch (signature) {
             case CachedTreeExtension.SIGNATURE :
                 return new CachedTreeExtension(data);
             case ResolveUndoExtension.SIGNATURE:
                 return new ResolveUndoExtension(data);
+            case EndOfIndexEntryExtension.SIGNATURE:
+                if (data.length == EndOfIndexEntryExtension.SIZE)
+                    return new EndOfIndexEntryExtension(data);
+                return new OptionalExtension(signature, data);
+            case IndexEntryOffsetTableExtension.SIGNATURE:
+                return new IndexEntryOffsetTableExtension(data);
+            case SplitIndexExtension.SIGNATURE:
+                return new SplitIndexExtension(data);
             default:
                 return new OptionalExtension(signature, data);
         }
@@ -0,0 +1,452 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * <p>将{@link IndexState}写回index文件，是{@link IndexStateResolver}的逆过程<p/>
+ * <p>头部、索引条目以及扩展列表依次写入同一个缓冲区，缓冲区写满时先喂给SHA-1摘要再写入文件，
+ * 因此只需要一遍就能同时得到文件末尾的校验和，不需要再读回文件<p/>
+ * <p>索引条目按头部中的版本号编码：版本2、3在条目之后补齐填充字节，版本4对路径名进行前缀压缩。
+ * 各个扩展按其在{@link IndexState#getExtensions()}中的顺序写出；
+ * 其中IEOT和EOIE记录的是文件中的偏移量，会按实际写出的位置重新生成：
+ * IEOT保持原有的分块方式，紧跟在索引条目之后写出，EOIE总是最后写出，与git的做法一致<p/>
+ * <p>写入文件时先写入同目录下的{@code <文件名>.lock}，全部写完后再重命名为目标文件，
+ * 写入过程中失败时目标文件保持不变<p/>
+ * <p>split index（存在link扩展，且条目为{@link SplitIndexEntries}）只写出本文件中的条目以及扩展，
+ * 共享index文件保持不变，因此写出的代价只与改动的条目数量相关<p/>
+ * <p>对于未修改过的{@link IndexState}，写出的内容与解析时的文件逐字节相同<p/>
+ */
+public class IndexStateWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final int bufferSize;
+
+    public IndexStateWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize 写入文件前累积的字节数，也是每次喂给摘要的字节数
+     * @exception IllegalArgumentException 若bufferSize小于一个最长的索引条目所需的字节数
+     */
+    public IndexStateWriter(int bufferSize) {
+        if (bufferSize < 8 * 1024)
+            throw new IllegalArgumentException("buffer size must be at least 8KB: " + bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 先写入{@code filename + ".lock"}，写完后再原子地重命名为filename
+     * @param state 要写出的内容
+     * @param filename 目标文件名，包含完整路径
+     * @return 写在文件末尾的SHA-1校验和
+     * @exception IllegalStateException 若lock文件已存在，即可能有其他进程正在写该index文件
+     * @exception IllegalArgumentException 若头部中的版本号不受支持，或索引条目与版本号不符
+     * @exception IOException 若I/O发生错误
+     */
+    public byte[] write(IndexState state, String filename) throws IOException {
+
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path lock = target.resolveSibling(target.getFileName() + LOCK_SUFFIX);
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(lock, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalStateException("无法创建" + lock + "，可能有其他进程正在写index文件", e);
+        }
+
+        boolean committed = false;
+        try {
+            byte[] checksum;
+            try (FileChannel c = channel) {
+                checksum = write(state, c);
+            }
+            Files.move(lock, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            return checksum;
+        } finally {
+            if (!committed)
+                Files.deleteIfExists(lock);
+        }
+
+    }
+
+    /**
+     * 将state按index文件的格式写入channel，包括末尾的校验和
+     * @return 写在末尾的SHA-1校验和
+     * @exception IllegalArgumentException 若头部中的版本号不受支持，或索引条目与版本号不符
+     * @exception IOException 若I/O发生错误
+     */
+    public byte[] write(IndexState state, WritableByteChannel channel) throws IOException {
+
+        int version = state.getHeader().getVersion();
+
+        /*
+            split index只写出本文件（delta）中的条目，共享index文件保持不变
+         */
+        IndexEntries entries = state.getSortedIndexEntries();
+        int entryCount;
+        IntFunction<CacheEntry> entryAt;
+        if (entries instanceof SplitIndexEntries && hasLink(state)) {
+            SplitIndexEntries split = (SplitIndexEntries) entries;
+            entryCount  = split.getDeltaSize();
+            entryAt     = split::getDeltaEntry;
+        } else {
+            entryCount  = entries.size();
+            entryAt     = entries::get;
+        }
+
+        return write(version, entryCount, entryAt, blockCounts(state, entryCount), state::getExtensions, channel);
+    }
+
+    /**
+     * <p>按index文件的格式写入channel，包括末尾的校验和<p/>
+     * <p>entryAt只会按0到entryCount - 1的顺序各调用一次，写出所有条目之后才通过extensions获取扩展列表，
+     * 因此条目可以边生成边写出，扩展也可以在生成条目的过程中才确定，例如{@link IndexGenerator}<p/>
+     * @param blockCounts 各个分块的条目数量，为null时不写出IEOT
+     * @return 写在末尾的SHA-1校验和
+     * @exception IllegalArgumentException 若版本号不受支持，或索引条目与版本号不符
+     * @exception IOException 若I/O发生错误
+     */
+    byte[] write(int version, int entryCount, IntFunction<CacheEntry> entryAt, int[] blockCounts,
+                 Supplier<List<Extension>> extensions, WritableByteChannel channel) throws IOException {
+
+        if (version < 2 || version > 4)
+            throw new IllegalArgumentException("不支持的index文件版本：" + version);
+
+        Sink sink = new Sink(channel, bufferSize);
+
+        sink.putInt(CacheHeader.CACHE_SIGNATURE);
+        sink.putInt(version);
+        sink.putInt(entryCount);
+
+        List<IndexEntryOffsetTableExtension.Entry> blocks = writeIndexEntries(entryCount, entryAt, version, blockCounts, sink);
+
+        writeExtensions(extensions.get(), blocks, sink);
+
+        return sink.finish();
+    }
+
+    private static boolean hasLink(IndexState state) {
+        for (Extension extension : state.getExtensions()) {
+            if (extension instanceof SplitIndexExtension)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 原有IEOT扩展中各个分块的条目数量；若不存在IEOT扩展，或其条目数量之和与实际不一致，则返回null
+     */
+    private static int[] blockCounts(IndexState state, int entryCount) {
+
+        for (Extension extension : state.getExtensions()) {
+            if (!(extension instanceof IndexEntryOffsetTableExtension))
+                continue;
+
+            List<IndexEntryOffsetTableExtension.Entry> table = ((IndexEntryOffsetTableExtension) extension).getEntries();
+            int[] counts = new int[table.size()];
+            long sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = table.get(i).getCount();
+                if (counts[i] <= 0)
+                    return null;
+                sum += counts[i];
+            }
+
+            return counts.length > 0 && sum == entryCount ? counts : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * 依次写出所有索引条目
+     * @param entryCount 条目的数量
+     * @param entryAt 按写出的顺序获取第i个条目
+     * @param blockCounts 各个分块的条目数量，为null时不分块
+     * @return 按实际写出的位置记录的各个分块；blockCounts为null时返回null
+     */
+    private static List<IndexEntryOffsetTableExtension.Entry> writeIndexEntries(
+            int entryCount, IntFunction<CacheEntry> entryAt, int version, int[] blockCounts, Sink sink) throws IOException {
+
+        List<IndexEntryOffsetTableExtension.Entry> blocks = blockCounts == null ? null : new ArrayList<>(blockCounts.length);
+        int block = 0, nextBlockStart = 0;
+
+        // 版本4中前一个条目的路径名，以及编码可变长度整数使用的数组
+        byte[] previous = new byte[256];
+        int previousLength = 0;
+        byte[] varint = new byte[16];
+
+        for (int i = 0; i < entryCount; i++) {
+
+            boolean blockStart = false;
+            if (blockCounts != null && i == nextBlockStart) {
+                blocks.add(new IndexEntryOffsetTableExtension.Entry(sink.offset(), blockCounts[block]));
+                nextBlockStart += blockCounts[block++];
+                blockStart = true;
+            }
+
+            CacheEntry entry = entryAt.apply(i);
+            CacheEntry.StatData statData = entry.getStatData();
+            CacheEntry.Flags flags = entry.getFlags();
+            byte[] name = entry.getName();
+
+            boolean extended = flags.getExtendedFlag() == 1;
+            if (extended && version < 3)
+                throw new IllegalArgumentException("版本" + version + "的index文件中不能存在extended flag为1的条目："
+                        + new String(name));
+
+            sink.ensure(IndexBufferParser.ENTRY_FIXED_SIZE + 2);
+            sink.putInt(statData.getCtime().getSec());
+            sink.putInt(statData.getCtime().getNsec());
+            sink.putInt(statData.getMtime().getSec());
+            sink.putInt(statData.getMtime().getNsec());
+            sink.putInt(statData.getDev());
+            sink.putInt(statData.getIno());
+            sink.putInt(entry.getMode().toBits());
+            sink.putInt(statData.getUid());
+            sink.putInt(statData.getGid());
+            sink.putInt(statData.getSize());
+            sink.put(entry.getOid());
+            sink.putShort((short) (flags.toBits() & ~0xFFF | Math.min(name.length, 0xFFF)));
+            if (extended)
+                sink.putShort(flags.toExtendedBits());
+
+            if (version == 4) {
+
+                /*
+                    与前一个条目的路径名相同的前缀只记录需要去掉的字节数，
+                    分块的第一个条目不依赖前一个条目，git此时会记录去掉前一个路径名的全部字节
+                 */
+                int common = 0;
+                if (!blockStart) {
+                    int max = Math.min(previousLength, name.length);
+                    while (common < max && name[common] == previous[common])
+                        common++;
+                }
+                int varintLength = encodeVarint(previousLength - common, varint);
+                sink.put(varint, varint.length - varintLength, varintLength);
+                sink.put(name, common, name.length - common);
+                sink.pad(1);
+
+                if (name.length > previous.length)
+                    previous = new byte[Math.max(previous.length * 2, name.length)];
+                System.arraycopy(name, 0, previous, 0, name.length);
+                previousLength = name.length;
+
+            } else {
+
+                sink.put(name, 0, name.length);
+
+                int entryByteCount  = IndexBufferParser.ENTRY_FIXED_SIZE + (extended ? 2 : 0) + name.length;
+                sink.pad(8 - (entryByteCount & 0x7));
+            }
+        }
+
+        return blocks;
+    }
+
+    /**
+     * 按git的顺序写出扩展列表：重新生成的IEOT、其余扩展、重新生成的EOIE
+     * @param blocks 各个分块实际写出的位置，为null时不写出IEOT
+     */
+    private static void writeExtensions(List<Extension> extensions,
+                                        List<IndexEntryOffsetTableExtension.Entry> blocks,
+                                        Sink sink) throws IOException {
+
+        int entriesEnd = sink.offset();
+
+        boolean endOfIndexEntries = false;
+        for (Extension extension : extensions)
+            endOfIndexEntries |= extension.getSignature() == EndOfIndexEntryExtension.SIGNATURE;
+
+        // EOIE中记录的是其之前所有扩展的signature以及size的SHA-1
+        MessageDigest headers = endOfIndexEntries ? newDigest() : null;
+
+        if (blocks != null) {
+            ByteBuffer table = ByteBuffer.allocate(4 + 8 * blocks.size());
+            table.putInt(IndexEntryOffsetTableExtension.VERSION);
+            for (IndexEntryOffsetTableExtension.Entry block : blocks)
+                table.putInt(block.getOffset()).putInt(block.getCount());
+            writeExtension(IndexEntryOffsetTableExtension.SIGNATURE, table.array(), sink, headers);
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (Extension extension : extensions) {
+
+            int signature = extension.getSignature();
+            if (signature == IndexEntryOffsetTableExtension.SIGNATURE
+                    || signature == EndOfIndexEntryExtension.SIGNATURE)
+                continue;
+
+            data.reset();
+            extension.writeData(data);
+            writeExtension(signature, data.toByteArray(), sink, headers);
+        }
+
+        if (endOfIndexEntries) {
+            ByteBuffer eoie = ByteBuffer.allocate(EndOfIndexEntryExtension.SIZE);
+            eoie.putInt(entriesEnd).put(headers.digest());
+            writeExtension(EndOfIndexEntryExtension.SIGNATURE, eoie.array(), sink, null);
+        }
+
+    }
+
+    private static void writeExtension(int signature, byte[] data, Sink sink, MessageDigest headers) throws IOException {
+
+        sink.putInt(signature);
+        sink.putInt(data.length);
+        sink.put(data, 0, data.length);
+
+        if (headers != null)
+            headers.update(ByteBuffer.allocate(8).putInt(signature).putInt(data.length).array());
+
+    }
+
+    /**
+     * 按git的可变长度整数格式编码，结果保存在dst的末尾
+     * @return 编码后的字节数
+     */
+    private static int encodeVarint(int value, byte[] dst) {
+
+        int pos = dst.length - 1;
+        dst[pos] = (byte) (value & 0x7F);
+        while ((value >>>= 7) != 0)
+            dst[--pos] = (byte) (0x80 | (--value & 0x7F));
+
+        return dst.length - pos;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // never happen
+        }
+    }
+
+    /**
+     * 写入channel之前的缓冲区，每次写入channel时先将同样的字节喂给摘要
+     */
+    private static class Sink {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        private final MessageDigest digest = newDigest();
+
+        /**
+         * 已经写入channel的字节数
+         */
+        private long flushed;
+
+        private Sink(WritableByteChannel channel, int bufferSize) {
+            this.channel    = channel;
+            this.buffer     = ByteBuffer.allocate(bufferSize);
+        }
+
+        /**
+         * @return 下一个字节在文件中的偏移量
+         * @exception IllegalStateException 若偏移量超出了index文件中32位偏移量的表示范围
+         */
+        int offset() {
+            long offset = flushed + buffer.position();
+            if (offset > Integer.MAX_VALUE)
+                throw new IllegalStateException("index文件过大，偏移量超出范围：" + offset);
+            return (int) offset;
+        }
+
+        /**
+         * 确保缓冲区中至少还有length个字节的空间
+         */
+        void ensure(int length) throws IOException {
+            if (buffer.remaining() < length)
+                flush();
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        void put(byte[] src, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensure(1);
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(src, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void put(GitObject.Id oid) throws IOException {
+            ensure(GitObject.Id.GIT_SHA1_RAWSZ);
+            oid.writeTo(buffer);
+        }
+
+        /**
+         * 写出count个空字节
+         */
+        void pad(int count) throws IOException {
+            ensure(count);
+            for (int i = 0; i < count; i++)
+                buffer.put((byte) 0);
+        }
+
+        private void flush() throws IOException {
+
+            digest.update(buffer.array(), 0, buffer.position());
+
+            buffer.flip();
+            while (buffer.hasRemaining())
+                flushed += channel.write(buffer);
+            buffer.clear();
+
+        }
+
+        /**
+         * 写出剩余的字节，再在末尾写出它们的SHA-1校验和
+         * @return 校验和
+         */
+        byte[] finish() throws IOException {
+
+            flush();
+
+            byte[] checksum = digest.digest();
+            ByteBuffer trailer = ByteBuffer.wrap(checksum);
+            while (trailer.hasRemaining())
+                channel.write(trailer);
+
+            return checksum;
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CacheHeader;
+import com.ithink.replay.git.model.Extension;
+
+/**
+ * <p>按index文件中的顺序依次接收其各个部分，由{@link IndexStateResolver#visit(String, IndexVisitor)}驱动，
+ * 不构建{@link com.ithink.replay.git.model.IndexState}，适合只需要扫描一遍所有条目的场景<p/>
+ * <p>返回boolean的回调返回false时立即停止访问，之后的部分都不再被读取，也不会再调用{@link #onChecksum(byte[])}<p/>
+ * <p>扩展只有在{@link #visitsExtension(int)}返回true时才会被解码并传给{@link #onExtension(Extension)}，
+ * 其余的扩展只读取头部就被跳过<p/>
+ */
+public interface IndexVisitor {
+
+    /**
+     * @return 是否继续访问
+     */
+    default boolean onHeader(CacheHeader header) {
+        return true;
+    }
+
+    /**
+     * @param entry 当前条目的视图，只在本次调用期间有效，所有条目共享同一个实例
+     * @return 是否继续访问
+     */
+    boolean onEntry(IndexEntryView entry);
+
+    /**
+     * 决定是否解码某个扩展，默认不解码任何扩展
+     * @param signature 扩展的signature
+     * @return 是否解码该扩展并传给{@link #onExtension(Extension)}
+     */
+    default boolean visitsExtension(int signature) {
+        return false;
+    }
+
+    /**
+     * @return 是否继续访问
+     */
+    default boolean onExtension(Extension extension) {
+        return true;
+    }
+
+    /**
+     * 访问完所有部分之后被调用，此时已经按resolver的校验方式校验过校验和
+     * @param checksum 文件末尾20字节的校验和
+     */
+    default void onChecksum(byte[] checksum) {
+    }
+
+}
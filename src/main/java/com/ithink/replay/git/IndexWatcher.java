@@ -0,0 +1,382 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>监视一个或多个index文件，文件改变后在后台重新解析，并将新的{@link IndexState}快照发布给各个{@link Listener}<p/>
+ * <p>基于{@link WatchService}监视文件所在的目录：git写入index时先写{@code index.lock}再将其重命名为index，
+ * 因此目录中出现或修改了同名文件时都会触发重新解析。同一个文件的多个事件间隔小于去抖时间时合并为一次，
+ * 只在最后一个事件之后等待去抖时间再解析；但持续不断地改变时，距第一个未处理的事件最多等待去抖时间的
+ * {@value #MAX_DEBOUNCE_ROUNDS}倍，避免一直得不到解析。解析开始之后才发生的事件总会再触发一次解析，
+ * 因此最后一次改变之后总会有一个快照反映文件的最新内容<p/>
+ * <p>所有文件都在同一个后台线程中依次解析，解析时通过{@link IndexStateResolver#resolve(String, IndexState)}
+ * 传入上一个快照，复用其中未改变的条目。新的快照先替换{@link #getSnapshot(String)}返回的结果，再通知各个监听器；
+ * 文件未改变（例如只是被touch，见{@link FileIdentity#isUnchangedSince(FileIdentity)}，与{@link CachingIndexStateResolver}的判断相同）
+ * 时不发布。解析失败时保留上一个快照，
+ * 并通过{@link Listener#onFailure(String, Exception)}通知，之后的事件会再次触发解析<p/>
+ * <p>只能监视默认文件系统中的文件。可在多个线程中共享，不再使用时需要调用{@link #close()}<p/>
+ */
+public class IndexWatcher implements Closeable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+    /**
+     * 持续改变时，距第一个未处理的事件最多等待去抖时间的这么多倍
+     */
+    public static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+    /**
+     * 接收新的快照，在解析的后台线程中依次被调用，不应执行耗时的操作，也不应抛出异常，否则之后的监听器收不到本次的快照
+     */
+    public interface Listener {
+
+        /**
+         * @param filename 改变的index文件的完整路径
+         * @param snapshot 新的快照
+         */
+        void onUpdate(String filename, IndexState snapshot);
+
+        /**
+         * 重新解析失败时被调用，默认忽略
+         * @param filename 解析失败的index文件的完整路径
+         * @param e 解析时抛出的异常
+         */
+        default void onFailure(String filename, Exception e) {
+        }
+
+    }
+
+    private final IndexStateResolver resolver;
+
+    private final long debounceMillis;
+
+    private final WatchService watchService;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Thread poller;
+
+    private final Map<Path, Watched> watched = new ConcurrentHashMap<>();
+
+    /**
+     * 各个被监视的目录的注册结果，访问时需要持有当前对象的锁
+     */
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * 使用默认的去抖时间{@value #DEFAULT_DEBOUNCE_MILLIS}毫秒
+     * @see #IndexWatcher(IndexStateResolver, long)
+     */
+    public IndexWatcher(IndexStateResolver resolver) throws IOException {
+        this(resolver, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param resolver 重新解析文件时使用的resolver，存储方式为{@link IndexStateResolver.Storage#OBJECTS}时才能复用条目
+     * @param debounceMillis 去抖时间，单位为毫秒
+     * @exception IllegalArgumentException 若resolver为null，或debounceMillis为负数
+     * @exception IOException 若无法创建{@link WatchService}
+     */
+    public IndexWatcher(IndexStateResolver resolver, long debounceMillis) throws IOException {
+
+        if (resolver == null)
+            throw new IllegalArgumentException("resolver cannot be null");
+        if (debounceMillis < 0)
+            throw new IllegalArgumentException("debounce cannot be negative: " + debounceMillis);
+
+        this.resolver       = resolver;
+        this.debounceMillis = debounceMillis;
+        this.watchService   = FileSystems.getDefault().newWatchService();
+
+        this.executor       = new ScheduledThreadPoolExecutor(1, r -> daemon(r, "index-watcher-reload"));
+        this.executor.setRemoveOnCancelPolicy(true);
+
+        this.poller         = daemon(this::poll, "index-watcher-poll");
+        this.poller.start();
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 开始监视指定的index文件，立即在当前线程中解析一次作为第一个快照。已经在监视时直接返回当前的快照
+     * @param filename 要监视的index文件的文件名，包含完整路径
+     * @return 第一个快照
+     * @exception IllegalStateException 若已经关闭
+     * @exception IOException 若解析文件或注册目录时I/O发生错误
+     */
+    public synchronized IndexState watch(String filename) throws IOException {
+
+        if (closed)
+            throw new IllegalStateException("watcher已经关闭");
+
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+
+        Watched existing = watched.get(path);
+        if (existing != null)
+            return existing.snapshot;
+
+        /*
+            先注册目录并加入监视列表再解析，解析期间的改变也会触发重新解析，不会遗漏；
+            重新解析的结果先于第一次解析完成时，保留较新的结果
+         */
+        Path directory = path.getParent();
+        if (!directories.containsKey(directory)) {
+            directories.put(directory, directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+
+        Watched added = new Watched(path);
+        watched.put(path, added);
+        try {
+            FileIdentity identity = FileIdentity.of(path);
+            return added.initialize(resolver.resolve(path.toString()), identity);
+        } catch (IOException | RuntimeException e) {
+            unwatch(filename);
+            throw e;
+        }
+    }
+
+    /**
+     * 停止监视指定的index文件，已经开始的解析依然会完成，但不再发布其结果
+     * @param filename 要停止监视的index文件的文件名，包含完整路径
+     * @return 是否之前在监视该文件
+     */
+    public synchronized boolean unwatch(String filename) {
+
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+
+        Watched removed = watched.remove(path);
+        if (removed == null)
+            return false;
+
+        removed.cancel();
+
+        Path directory = path.getParent();
+        boolean inUse = watched.keySet().stream().anyMatch(p -> p.getParent().equals(directory));
+        if (!inUse) {
+            WatchKey key = directories.remove(directory);
+            if (key != null)
+                key.cancel();
+        }
+
+        return true;
+    }
+
+    /**
+     * @param filename index文件的文件名，包含完整路径
+     * @return 该文件最新的快照，未监视该文件时返回null
+     */
+    public IndexState getSnapshot(String filename) {
+        Watched w = watched.get(Paths.get(filename).toAbsolutePath().normalize());
+        return w != null ? w.snapshot : null;
+    }
+
+    public void addListener(Listener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener cannot be null");
+        listeners.add(listener);
+    }
+
+    public boolean removeListener(Listener listener) {
+        return listeners.remove(listener);
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * 停止监视所有文件，并停止后台线程，已经发布的快照依然可用
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        closed = true;
+
+        executor.shutdownNow();
+        poller.interrupt();
+        watchService.close();
+
+        watched.clear();
+        directories.clear();
+    }
+
+    /**
+     * 在后台线程中等待目录中的事件，为被监视的文件安排重新解析，直到关闭
+     */
+    private void poll() {
+
+        while (!closed) {
+
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+
+                // 事件过多而丢失时，无法知道是哪个文件改变了，重新解析该目录下的所有文件
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    for (Watched w : watched.values()) {
+                        if (w.path.getParent().equals(directory))
+                            w.schedule();
+                    }
+                    continue;
+                }
+
+                Watched w = watched.get(directory.resolve((Path) event.context()));
+                if (w != null)
+                    w.schedule();
+            }
+
+            key.reset();
+        }
+
+    }
+
+    /**
+     * 一个被监视的文件，及其最新的快照与尚未执行的重新解析
+     */
+    private class Watched {
+
+        private final Path path;
+
+        /**
+         * 第一次解析完成之前为null
+         */
+        private volatile IndexState snapshot;
+
+        /**
+         * 解析出snapshot之前读取的文件属性，只在解析的后台线程以及第一次解析时访问
+         */
+        private FileIdentity identity;
+
+        /**
+         * 尚未开始执行的重新解析，及其对应的第一个未处理的事件发生的时间，访问时需要持有当前对象的锁。
+         * 重新解析一开始执行就不再是pending，之后的事件会安排下一次解析
+         */
+        private ScheduledFuture<?> pending;
+        private long pendingSince;
+
+        /**
+         * 最近一次安排的重新解析的序号，用于判断开始执行的是否就是pending
+         */
+        private long generation;
+
+        private Watched(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * 设置第一次解析的结果，期间已经发布了重新解析的结果时保留后者
+         * @return 当前的快照
+         */
+        private synchronized IndexState initialize(IndexState state, FileIdentity identity) {
+            if (snapshot == null) {
+                snapshot = state;
+                this.identity = identity;
+            }
+            return snapshot;
+        }
+
+        private synchronized void schedule() {
+
+            if (closed)
+                return;
+
+            long now = System.nanoTime();
+            if (pending != null && !pending.isDone()) {
+                // 已经等待太久时不再推迟，让其按原计划执行
+                if (now - pendingSince >= TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DEBOUNCE_ROUNDS))
+                    return;
+                pending.cancel(false);
+            } else {
+                pendingSince = now;
+            }
+
+            long scheduled = ++generation;
+            pending = executor.schedule(() -> reload(scheduled), debounceMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void cancel() {
+            if (pending != null)
+                pending.cancel(false);
+        }
+
+        private void reload(long scheduled) {
+
+            // 从此刻起发生的事件都可能晚于本次读取文件，需要安排新的解析
+            synchronized (this) {
+                if (scheduled == generation)
+                    pending = null;
+            }
+
+            if (closed || watched.get(path) != this)
+                return;
+
+            IndexState previous;
+            FileIdentity previousIdentity;
+            synchronized (this) {
+                previous            = snapshot;
+                previousIdentity    = identity;
+            }
+
+            FileIdentity nextIdentity;
+            IndexState next;
+            try {
+                nextIdentity    = FileIdentity.of(path);
+                next            = resolver.resolve(path.toString(), previous);
+            } catch (IOException | RuntimeException e) {
+                for (Listener listener : listeners)
+                    listener.onFailure(path.toString(), e);
+                return;
+            }
+
+            // 解析期间文件又被改变时，解析出的内容与读取的属性不符，总是发布
+            boolean unchanged = previous != null && nextIdentity.isUnchangedSince(previousIdentity)
+                    && Arrays.equals(next.getChecksum(), nextIdentity.getChecksum());
+            if (unchanged || watched.get(path) != this)
+                return;
+
+            synchronized (this) {
+                snapshot = next;
+                identity = nextIdentity;
+            }
+            for (Listener listener : listeners)
+                listener.onUpdate(path.toString(), next);
+        }
+
+    }
+
+}
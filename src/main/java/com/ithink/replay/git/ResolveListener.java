@@ -0,0 +1,24 @@
+package com.ithink.replay.git;
+
+/**
+ * <p>通过{@link IndexStateResolver#addResolveListener(ResolveListener)}注册，每次解析结束后接收其{@link ResolveMetrics}<p/>
+ * <p>在调用{@link IndexStateResolver#resolve(String)}的线程中、返回之前依次被调用，不应执行耗时的操作，也不应抛出异常。
+ * 没有注册任何监听器时不计时，也不创建{@link ResolveMetrics}<p/>
+ * @see ResolveStatistics
+ */
+public interface ResolveListener {
+
+    /**
+     * @param metrics 本次解析的度量，之后不会再被修改
+     */
+    void onResolved(ResolveMetrics metrics);
+
+    /**
+     * 解析失败时被调用，默认忽略
+     * @param metrics 截至失败时的度量，条目以及扩展的数量都为0
+     * @param cause 解析时抛出的异常，之后会被原样抛给调用者
+     */
+    default void onFailure(ResolveMetrics metrics, Throwable cause) {
+    }
+
+}
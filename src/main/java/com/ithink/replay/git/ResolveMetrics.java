@@ -0,0 +1,208 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.Extension;
+import com.ithink.replay.git.model.IndexState;
+import com.ithink.replay.git.model.OptionalExtension;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <p>一次{@link IndexStateResolver#resolve(String)}的各项度量，解析结束后交给各个{@link ResolveListener}<p/>
+ * <p>各个阶段的耗时只统计调用线程中的墙钟时间：边解析边校验时，摘要的大部分计算发生在解析索引条目期间，计入{@link Phase#ENTRIES}，
+ * 只有最后的计算和比较计入{@link Phase#CHECKSUM}；并发校验以及并行解析时，计入的是调用线程等待其他线程的时间。
+ * 分配的字节数同样只统计调用线程，JVM不支持时为-1<p/>
+ * <p>split index的共享index文件在未命中缓存而被解析时，其各个阶段的耗时以及读取的字节数也计入同一个对象<p/>
+ */
+public class ResolveMetrics {
+
+    /**
+     * 解析的各个阶段
+     */
+    public enum Phase {
+
+        /**
+         * 检查魔数以及校验和
+         */
+        CHECKSUM,
+
+        /**
+         * 解析头部
+         */
+        HEADER,
+
+        /**
+         * 解析索引条目列表
+         */
+        ENTRIES,
+
+        /**
+         * 解析扩展列表以及读取末尾的校验和
+         */
+        EXTENSIONS
+
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = allocationMXBean();
+
+    private final String filename;
+    private final IndexStateResolver.Engine engine;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    private long startNanos;
+    private long totalNanos;
+
+    private long startAllocatedBytes;
+    private long allocatedBytes = -1;
+
+    private long bytesRead;
+    private int entryCount;
+    private int extensionCount;
+    private int unknownExtensionCount;
+
+    ResolveMetrics(String filename, IndexStateResolver.Engine engine) {
+        this.filename   = filename;
+        this.engine     = engine;
+    }
+
+    /**
+     * @return 支持统计线程分配字节数时为对应的MXBean，否则为null
+     */
+    private static com.sun.management.ThreadMXBean allocationMXBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) bean;
+                if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled())
+                    return allocation;
+            }
+        } catch (LinkageError | RuntimeException ignored) {
+            // 非HotSpot的JVM中可能不存在com.sun.management
+        }
+        return null;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN == null ? -1 : THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * metrics为null时不读取时钟，用于没有监听器时省去计时的开销
+     * @return 当前时刻，作为{@link #stop}的参数
+     */
+    static long start(ResolveMetrics metrics) {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * 将从start开始到现在的时间计入phase，metrics为null时什么也不做
+     */
+    static void stop(ResolveMetrics metrics, Phase phase, long start) {
+        if (metrics != null)
+            metrics.phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+    }
+
+    void begin() {
+        startAllocatedBytes = currentThreadAllocatedBytes();
+        startNanos          = System.nanoTime();
+    }
+
+    void addBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    /**
+     * @param state 解析结果，解析失败时为null
+     */
+    void end(IndexState state) {
+
+        totalNanos = System.nanoTime() - startNanos;
+        if (startAllocatedBytes >= 0)
+            allocatedBytes = currentThreadAllocatedBytes() - startAllocatedBytes;
+
+        if (state == null)
+            return;
+
+        entryCount      = state.getSortedIndexEntries().size();
+        extensionCount  = state.getExtensions().size();
+        for (Extension extension : state.getExtensions()) {
+            if (extension instanceof OptionalExtension)
+                unknownExtensionCount++;
+        }
+    }
+
+    /**
+     * @return 被解析的index文件名，即传给{@link IndexStateResolver#resolve(String)}的参数
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    public IndexStateResolver.Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return 调用线程在该阶段花费的纳秒数
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return 整个解析过程的纳秒数，包括各个阶段之外的开销，例如打开、映射文件以及合并split index
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return 读取的index文件（包括共享index文件）的总字节数
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return 调用线程在解析过程中分配的字节数，JVM不支持时为-1
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return 解析结果中条目的数量，解析失败时为0
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return 解析结果中扩展的数量，解析失败时为0
+     */
+    public int getExtensionCount() {
+        return extensionCount;
+    }
+
+    /**
+     * @return 不能识别而只保留了原始数据（{@link OptionalExtension}）的扩展的数量，解析失败时为0
+     */
+    public int getUnknownExtensionCount() {
+        return unknownExtensionCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(filename).append(" (").append(engine).append("): ")
+                .append(totalNanos / 1000).append("us");
+        for (Phase phase : Phase.values())
+            sb.append(", ").append(phase.name().toLowerCase()).append(' ').append(phaseNanos[phase.ordinal()] / 1000).append("us");
+        return sb.append(", ").append(bytesRead).append(" bytes, ")
+                .append(entryCount).append(" entries, ")
+                .append(extensionCount).append(" extensions (").append(unknownExtensionCount).append(" unknown), ")
+                .append(allocatedBytes).append(" bytes allocated")
+                .toString();
+    }
+
+}
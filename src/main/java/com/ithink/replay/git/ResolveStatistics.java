@@ -0,0 +1,273 @@
+package com.ithink.replay.git;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>汇总多次解析的{@link ResolveMetrics}：次数、字节数等累计值，以及整个解析过程和各个阶段耗时的直方图<p/>
+ * <p>直方图按微秒数的二进制位数分桶，第i个桶的上界为2<sup>i</sup>-1微秒，记录一次只需一次原子加法，可在多个线程中共享。
+ * 作为{@link ResolveListener}注册到一个或多个{@link IndexStateResolver}上，再通过{@link #register(String)}公开为JMX MBean：<p/>
+ * <pre>
+ * ResolveStatistics statistics = new ResolveStatistics();
+ * resolver.addResolveListener(statistics);
+ * statistics.register("default");
+ * </pre>
+ */
+public class ResolveStatistics implements ResolveListener, ResolveStatisticsMBean {
+
+    public static final String DOMAIN = "com.ithink.replay.git";
+
+    private static final int BUCKETS = 32;
+
+    private static final String TOTAL = "TOTAL";
+
+    private final LongAdder resolveCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder entryCount = new LongAdder();
+    private final LongAdder extensionCount = new LongAdder();
+    private final LongAdder unknownExtensionCount = new LongAdder();
+
+    /**
+     * 只要有一次解析不支持统计分配的字节数，就一直为-1
+     */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final Histogram total = new Histogram();
+    private final Histogram[] phases = new Histogram[ResolveMetrics.Phase.values().length];
+
+    private ObjectName objectName;
+
+    public ResolveStatistics() {
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new Histogram();
+    }
+
+    @Override
+    public void onResolved(ResolveMetrics metrics) {
+
+        resolveCount.increment();
+        bytesRead.add(metrics.getBytesRead());
+        entryCount.add(metrics.getEntryCount());
+        extensionCount.add(metrics.getExtensionCount());
+        unknownExtensionCount.add(metrics.getUnknownExtensionCount());
+
+        long allocated = metrics.getAllocatedBytes();
+        allocatedBytes.getAndUpdate(sum -> sum < 0 || allocated < 0 ? -1 : sum + allocated);
+
+        total.record(metrics.getTotalNanos());
+        for (ResolveMetrics.Phase phase : ResolveMetrics.Phase.values())
+            phases[phase.ordinal()].record(metrics.getPhaseNanos(phase));
+    }
+
+    /**
+     * 失败的解析只计数，不计入直方图
+     */
+    @Override
+    public void onFailure(ResolveMetrics metrics, Throwable cause) {
+        failureCount.increment();
+    }
+
+    /**
+     * 以{@code com.ithink.replay.git:type=ResolveStatistics,name=<name>}为名注册到平台MBeanServer
+     * @param name 区分多个实例的名称
+     * @return 注册使用的ObjectName
+     * @exception IllegalStateException 若当前实例已经注册过
+     * @exception JMException 若名称不合法或已被其他MBean使用
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+
+        if (objectName != null)
+            throw new IllegalStateException("已经注册为" + objectName);
+
+        ObjectName on = new ObjectName(DOMAIN + ":type=ResolveStatistics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        objectName = on;
+
+        return on;
+    }
+
+    /**
+     * 从平台MBeanServer中注销，未注册时什么也不做
+     * @exception JMException 若注销失败
+     */
+    public synchronized void unregister() throws JMException {
+
+        if (objectName == null)
+            return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public long getResolveCount() {
+        return resolveCount.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getEntryCount() {
+        return entryCount.sum();
+    }
+
+    @Override
+    public long getExtensionCount() {
+        return extensionCount.sum();
+    }
+
+    @Override
+    public long getUnknownExtensionCount() {
+        return unknownExtensionCount.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public long[] getHistogramBoundsMicros() {
+        long[] bounds = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS - 1; i++)
+            bounds[i] = (1L << i) - 1;
+        bounds[BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    @Override
+    public long[] getTotalHistogram() {
+        return total.snapshot();
+    }
+
+    @Override
+    public long[] getChecksumHistogram() {
+        return phases[ResolveMetrics.Phase.CHECKSUM.ordinal()].snapshot();
+    }
+
+    @Override
+    public long[] getHeaderHistogram() {
+        return phases[ResolveMetrics.Phase.HEADER.ordinal()].snapshot();
+    }
+
+    @Override
+    public long[] getEntriesHistogram() {
+        return phases[ResolveMetrics.Phase.ENTRIES.ordinal()].snapshot();
+    }
+
+    @Override
+    public long[] getExtensionsHistogram() {
+        return phases[ResolveMetrics.Phase.EXTENSIONS.ordinal()].snapshot();
+    }
+
+    @Override
+    public double getMeanTotalMicros() {
+        return total.mean();
+    }
+
+    @Override
+    public long percentileMicros(String phase, double percentile) {
+
+        if (!(percentile >= 0 && percentile <= 100))
+            throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+
+        Histogram histogram;
+        if (TOTAL.equalsIgnoreCase(phase)) {
+            histogram = total;
+        } else {
+            try {
+                histogram = phases[ResolveMetrics.Phase.valueOf(phase.toUpperCase()).ordinal()];
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new IllegalArgumentException("unknown phase: " + phase);
+            }
+        }
+
+        return histogram.percentile(percentile);
+    }
+
+    /**
+     * 清空所有累计值以及直方图，与正在进行的记录并发时，这些记录可能部分被清空
+     */
+    @Override
+    public void reset() {
+        resolveCount.reset();
+        failureCount.reset();
+        bytesRead.reset();
+        entryCount.reset();
+        extensionCount.reset();
+        unknownExtensionCount.reset();
+        allocatedBytes.set(0);
+        total.reset();
+        for (Histogram phase : phases)
+            phase.reset();
+    }
+
+    private static class Histogram {
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sumMicros = new LongAdder();
+
+        void record(long nanos) {
+            long micros = Math.max(nanos / 1000, 0);
+            counts.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1));
+            sumMicros.add(micros);
+        }
+
+        long[] snapshot() {
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                snapshot[i] = counts.get(i);
+            return snapshot;
+        }
+
+        double mean() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                count += counts.get(i);
+            return count == 0 ? 0 : (double) sumMicros.sum() / count;
+        }
+
+        long percentile(double percentile) {
+
+            long[] snapshot = snapshot();
+            long count = 0;
+            for (long c : snapshot)
+                count += c;
+            if (count == 0)
+                return 0;
+
+            long rank = Math.max((long) Math.ceil(count * percentile / 100), 1);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += snapshot[i];
+                if (seen >= rank)
+                    return (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++)
+                counts.set(i, 0);
+            sumMicros.reset();
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.ithink.replay.git;
+
+/**
+ * {@link ResolveStatistics}通过JMX公开的属性以及操作，时间的单位都是微秒
+ */
+public interface ResolveStatisticsMBean {
+
+    long getResolveCount();
+
+    long getFailureCount();
+
+    long getBytesRead();
+
+    long getEntryCount();
+
+    long getExtensionCount();
+
+    long getUnknownExtensionCount();
+
+    /**
+     * @return 各次解析在调用线程中分配的字节数之和，JVM不支持时为-1
+     */
+    long getAllocatedBytes();
+
+    /**
+     * @return 直方图各个桶的上界（包含），最后一个桶没有上界
+     */
+    long[] getHistogramBoundsMicros();
+
+    long[] getTotalHistogram();
+
+    long[] getChecksumHistogram();
+
+    long[] getHeaderHistogram();
+
+    long[] getEntriesHistogram();
+
+    long[] getExtensionsHistogram();
+
+    double getMeanTotalMicros();
+
+    /**
+     * @param phase {@link ResolveMetrics.Phase}中的名称，或TOTAL表示整个解析过程
+     * @param percentile 0到100之间的百分位
+     * @return 该百分位所在的桶的上界
+     */
+    long percentileMicros(String phase, double percentile);
+
+    void reset();
+
+}
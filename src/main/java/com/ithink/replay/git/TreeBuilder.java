@@ -0,0 +1,424 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.*;
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>由index中已排序的条目生成各级目录的tree对象及其id，即{@code git write-tree}，并得到更新后的TREE扩展<p/>
+ * <p>与git一样信任TREE扩展中有效的记录：遇到有效的子目录时直接使用其对象id，并按其entry_count跳过其覆盖的所有条目，
+ * 既不读取这些条目，也不重新计算其下各级目录的对象。只有无效或不在TREE中的目录才需要生成tree对象，
+ * 这些目录在{@link ForkJoinPool}中并行地生成，上级目录等待其子目录完成后再生成自身。
+ * 某个子目录覆盖的条目范围通过二分查找得到，因此耗时只与需要重新生成的目录的大小相关，与条目总数基本无关<p/>
+ * <p>tree对象中的各项与index中的顺序一致。intent-to-add的条目不写入tree对象，与git一样，
+ * 直接包含这类条目的目录及其各级上级目录在新的TREE扩展中记为无效，下次仍需重新生成。
+ * 存在未合并（stage不为0）的条目时无法生成<p/>
+ * <p>新生成的tree对象可通过{@link ObjectSink}接收，例如写入对象库；本类本身不写出任何对象<p/>
+ */
+public class TreeBuilder {
+
+    /**
+     * 覆盖的条目少于这么多的目录在当前线程中直接生成，不再作为单独的任务
+     */
+    private static final int FORK_THRESHOLD = 256;
+
+    private static final byte[] TREE_MODE = "40000".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // never happen
+        }
+    });
+
+    /**
+     * 接收新生成的tree对象，可能在线程池的多个线程中同时被调用
+     */
+    public interface ObjectSink {
+
+        /**
+         * @param id tree对象的id
+         * @param content tree对象的内容，不包括"tree &lt;size&gt;\0"头部
+         */
+        void accept(GitObject.Id id, byte[] content);
+
+    }
+
+    /**
+     * 生成的结果
+     */
+    public static class Result {
+
+        private final GitObject.Id treeId;
+        private final CachedTreeExtension cachedTree;
+        private final int builtCount;
+        private final int reusedCount;
+
+        private Result(GitObject.Id treeId, CachedTreeExtension cachedTree, int builtCount, int reusedCount) {
+            this.treeId         = treeId;
+            this.cachedTree     = cachedTree;
+            this.builtCount     = builtCount;
+            this.reusedCount    = reusedCount;
+        }
+
+        /**
+         * @return 根目录的tree对象的id
+         */
+        public GitObject.Id getTreeId() {
+            return treeId;
+        }
+
+        /**
+         * @return 新的TREE扩展，可以替换原有的扩展后写回index文件
+         */
+        public CachedTreeExtension getCachedTree() {
+            return cachedTree;
+        }
+
+        /**
+         * @return 新生成的tree对象的数量
+         */
+        public int getBuiltCount() {
+            return builtCount;
+        }
+
+        /**
+         * @return 直接使用了TREE扩展中对象id的子目录的数量，不包括其下的各级目录
+         */
+        public int getReusedCount() {
+            return reusedCount;
+        }
+
+    }
+
+    private final ForkJoinPool pool;
+
+    private ObjectSink objectSink;
+
+    /**
+     * 使用{@link ForkJoinPool#commonPool()}
+     */
+    public TreeBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public TreeBuilder(ForkJoinPool pool) {
+        if (pool == null)
+            throw new IllegalArgumentException("pool cannot be null");
+        this.pool = pool;
+    }
+
+    public ObjectSink getObjectSink() {
+        return objectSink;
+    }
+
+    /**
+     * @param objectSink 接收新生成的tree对象，为null时不输出
+     */
+    public void setObjectSink(ObjectSink objectSink) {
+        this.objectSink = objectSink;
+    }
+
+    /**
+     * 使用state中的TREE扩展（若存在）生成各级目录的tree对象
+     * @exception IllegalStateException 若存在未合并的条目
+     */
+    public Result build(IndexState state) {
+
+        CachedTreeExtension cachedTree = null;
+        for (Extension extension : state.getExtensions()) {
+            if (extension instanceof CachedTreeExtension)
+                cachedTree = (CachedTreeExtension) extension;
+        }
+
+        return build(state.getSortedIndexEntries(), cachedTree);
+    }
+
+    /**
+     * @param entries 已排序的索引条目
+     * @param cachedTree 与entries对应的TREE扩展，可以为null，此时生成所有目录
+     * @exception IllegalStateException 若存在未合并的条目
+     */
+    public Result build(IndexEntries entries, CachedTreeExtension cachedTree) {
+
+        if (entries == null)
+            throw new IllegalArgumentException("entries cannot be null");
+
+        CachedTreeExtension.Entry root = cachedTree == null ? null : cachedTree.getRoot();
+        if (root != null && root.isValid() && root.getEntryCount() == entries.size())
+            return new Result(root.getOid(), cachedTree, 0, 1);
+
+        Counters counters = new Counters();
+
+        Tree tree = pool.invoke(new BuildTask(entries, counters, objectSink, root, new byte[0], new byte[0], 0, entries.size()));
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        tree.writeTo(data);
+
+        return new Result(tree.oid, new CachedTreeExtension(data.toByteArray()), counters.built.get(), counters.reused.get());
+    }
+
+    private static class Counters {
+        private final AtomicInteger built = new AtomicInteger();
+        private final AtomicInteger reused = new AtomicInteger();
+    }
+
+    /**
+     * 生成一个目录的tree对象，需要时为其无效的子目录创建子任务
+     */
+    private static class BuildTask extends RecursiveTask<Tree> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IndexEntries entries;
+        private final Counters counters;
+
+        /**
+         * 开始生成时的{@link #objectSink}，为null时不输出
+         */
+        private final ObjectSink sink;
+
+        /**
+         * 该目录在原有TREE扩展中的记录，不存在时为null
+         */
+        private final CachedTreeExtension.Entry cached;
+
+        private final byte[] name;
+
+        /**
+         * 目录的完整路径加上'/'，根目录为空数组
+         */
+        private final byte[] prefix;
+
+        private final int from;
+        private final int to;
+
+        private BuildTask(IndexEntries entries, Counters counters, ObjectSink sink, CachedTreeExtension.Entry cached,
+                          byte[] name, byte[] prefix, int from, int to) {
+            this.entries    = entries;
+            this.counters   = counters;
+            this.sink       = sink;
+            this.cached     = cached;
+            this.name       = name;
+            this.prefix     = prefix;
+            this.from       = from;
+            this.to         = to;
+        }
+
+        @Override
+        protected Tree compute() {
+
+            /*
+                按顺序收集各项：文件直接记录mode、名称以及对象id；
+                子目录记录其Tree，有效的子目录直接由原有记录得到，其余的先fork，最后再依次join
+             */
+            List<Object> items = new ArrayList<>();
+            boolean valid = true;
+
+            int i = from;
+            while (i < to) {
+
+                CacheEntry entry = entries.get(i);
+                byte[] path = entry.getName();
+                if (entry.getFlags().getStage() != 0)
+                    throw new IllegalStateException("存在未合并的条目，无法生成tree对象：" + new String(path));
+
+                int slash = prefix.length;
+                while (slash < path.length && path[slash] != '/')
+                    slash++;
+
+                if (slash == path.length) {
+                    if (entry.getFlags().getIntentToAdd() == 0)
+                        items.add(entry);
+                    else
+                        valid = false;
+                    i++;
+                    continue;
+                }
+
+                byte[] childName = Arrays.copyOfRange(path, prefix.length, slash);
+                CachedTreeExtension.Entry child = cached == null ? null : cached.getChild(childName);
+
+                if (child != null && child.isValid() && i + child.getEntryCount() <= to) {
+                    counters.reused.incrementAndGet();
+                    items.add(new Tree(child));
+                    i += child.getEntryCount();
+                    continue;
+                }
+
+                byte[] childPrefix = Arrays.copyOf(path, slash + 1);
+                int end = endOf(childPrefix, i + 1);
+
+                BuildTask task = new BuildTask(entries, counters, sink, child, childName, childPrefix, i, end);
+                if (end - i >= FORK_THRESHOLD) {
+                    task.fork();
+                    items.add(task);
+                } else {
+                    items.add(task.compute());
+                }
+                i = end;
+            }
+
+            List<Tree> subtrees = new ArrayList<>();
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (Object item : items) {
+                if (item instanceof CacheEntry) {
+                    CacheEntry entry = (CacheEntry) item;
+                    byte[] path = entry.getName();
+                    writeItem(content, Integer.toOctalString(entry.getMode().toBits()).getBytes(StandardCharsets.US_ASCII),
+                            path, prefix.length, path.length - prefix.length, entry.getOid());
+                    continue;
+                }
+
+                Tree subtree = item instanceof Tree ? (Tree) item : ((BuildTask) item).join();
+                subtrees.add(subtree);
+                valid &= subtree.valid;
+                // 只包含intent-to-add条目的目录是空的，与git一样不写入上级目录的tree对象
+                if (subtree.empty)
+                    continue;
+                writeItem(content, TREE_MODE, subtree.name, 0, subtree.name.length, subtree.oid);
+            }
+
+            byte[] body = content.toByteArray();
+            GitObject.Id oid = hash(body);
+            counters.built.incrementAndGet();
+
+            if (sink != null)
+                sink.accept(oid, body);
+
+            return new Tree(name, oid, to - from, valid, body.length == 0, subtrees);
+        }
+
+        /**
+         * @return [lo, to)范围内第一个不以childPrefix开头的条目的序号，这些条目都在以childPrefix开头的条目之后
+         */
+        private int endOf(byte[] childPrefix, int lo) {
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (startsWith(entries.get(mid).getName(), childPrefix))
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+    }
+
+    private static boolean startsWith(byte[] path, byte[] prefix) {
+        return path.length >= prefix.length && Bytes.mismatch(path, 0, prefix, 0, prefix.length) < 0;
+    }
+
+    private static void writeItem(ByteArrayOutputStream out, byte[] mode, byte[] name, int offset, int length, GitObject.Id oid) {
+        out.write(mode, 0, mode.length);
+        out.write(' ');
+        out.write(name, offset, length);
+        out.write(0);
+        byte[] hash = oid.getHash();
+        out.write(hash, 0, hash.length);
+    }
+
+    /**
+     * @return tree对象的id，即"tree &lt;size&gt;\0"加上内容的SHA-1
+     */
+    private static GitObject.Id hash(byte[] body) {
+        MessageDigest digest = SHA1.get();
+        digest.reset();
+        digest.update(("tree " + body.length + '\0').getBytes(StandardCharsets.US_ASCII));
+        digest.update(body);
+        return new GitObject.Id(digest.digest());
+    }
+
+    /**
+     * 生成后的一个目录，用于写出新的TREE扩展
+     */
+    private static class Tree {
+
+        private final byte[] name;
+        private final GitObject.Id oid;
+        private final int entryCount;
+        private final boolean valid;
+        private final boolean empty;
+
+        /**
+         * 按index中的顺序排列的子目录
+         */
+        private final List<Tree> subtrees;
+
+        /**
+         * 直接使用的原有记录，此时其下的各级目录都原样写出
+         */
+        private final CachedTreeExtension.Entry reused;
+
+        private Tree(byte[] name, GitObject.Id oid, int entryCount, boolean valid, boolean empty, List<Tree> subtrees) {
+            this.name       = name;
+            this.oid        = oid;
+            this.entryCount = entryCount;
+            this.valid      = valid;
+            this.empty      = empty;
+            this.subtrees   = subtrees;
+            this.reused     = null;
+        }
+
+        private Tree(CachedTreeExtension.Entry reused) {
+            this.name       = reused.getName();
+            this.oid        = reused.getOid();
+            this.entryCount = reused.getEntryCount();
+            this.valid      = true;
+            this.empty      = false;
+            this.subtrees   = null;
+            this.reused     = reused;
+        }
+
+        /**
+         * 按自顶向下、深度优先的顺序写出TREE扩展中的记录，与git一样，同一目录下的子目录先按名称长度、再按字节排列
+         */
+        void writeTo(ByteArrayOutputStream out) {
+            if (reused != null) {
+                writeCached(out, reused);
+                return;
+            }
+            if (valid)
+                writeRecord(out, name, entryCount, subtrees.size(), oid);
+            else
+                writeRecord(out, name, -1, subtrees.size(), null);
+
+            List<Tree> sorted = new ArrayList<>(subtrees);
+            sorted.sort((a, b) -> a.name.length != b.name.length
+                    ? Integer.compare(a.name.length, b.name.length)
+                    : Bytes.compare(a.name, b.name));
+            for (Tree subtree : sorted)
+                subtree.writeTo(out);
+        }
+
+        private static void writeCached(ByteArrayOutputStream out, CachedTreeExtension.Entry entry) {
+            writeRecord(out, entry.getName(), entry.isValid() ? entry.getEntryCount() : -1, entry.getSubtreeCount(), entry.getOid());
+            for (CachedTreeExtension.Entry child : entry.getChildren())
+                writeCached(out, child);
+        }
+
+        private static void writeRecord(ByteArrayOutputStream out, byte[] name, int entryCount, int subtreeCount, GitObject.Id oid) {
+            out.write(name, 0, name.length);
+            byte[] counts = ("\0" + entryCount + ' ' + subtreeCount + '\n').getBytes(StandardCharsets.US_ASCII);
+            out.write(counts, 0, counts.length);
+            if (oid != null) {
+                byte[] hash = oid.getHash();
+                out.write(hash, 0, hash.length);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>按序保存在{@link CacheEntry}数组中的索引条目集合<p/>
+ * <p>解析时条目依次追加到数组末尾，构建时只需线性地检查一遍顺序，整个过程为O(n)，
+ * 不再像{@link java.util.TreeSet}那样每个条目都需要一次O(log n)的插入，以及一个树节点的内存开销<p/>
+ */
+public class ArrayIndexEntries extends IndexEntries {
+
+    private final CacheEntry[] entries;
+    private final int size;
+
+    private ArrayIndexEntries(CacheEntry[] entries, int size) {
+        this.entries    = entries;
+        this.size       = size;
+    }
+
+    @Override
+    public CacheEntry get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        return entries[ordinal];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 逐个追加条目，构建{@link ArrayIndexEntries}
+     */
+    public static class Builder implements IndexEntries.Builder {
+
+        private CacheEntry[] entries;
+        private int size;
+
+        /**
+         * 可复用其中条目的上一次解析结果，为null时总是解码新的条目
+         */
+        private final ArrayIndexEntries previous;
+
+        /**
+         * previous中下一个待比较的条目的序号，为-1时表示尚未定位
+         */
+        private int reuseCursor = -1;
+
+        /**
+         * @param expectedCount 预计的条目数量，通常为头部中记录的条目数量
+         */
+        public Builder(int expectedCount) {
+            this(expectedCount, null);
+        }
+
+        /**
+         * <p>从缓冲区追加条目时，若previous中存在路径名、stage、stat数据、模式、标志位以及对象id都与之相同的条目，
+         * 直接复用该条目对象，不再为其创建新的对象<p/>
+         * <p>两次解析的条目都是有序的，因此只在第一次追加时二分查找一次，之后按顺序向前移动，
+         * 总的比较次数与两者的条目数量之和成正比；文件只有末尾部分改变时，之前的条目都会被依次复用<p/>
+         * @param expectedCount 预计的条目数量，通常为头部中记录的条目数量
+         * @param previous 同一个文件上一次的解析结果，可以为null
+         */
+        public Builder(int expectedCount, ArrayIndexEntries previous) {
+            this.entries    = new CacheEntry[Math.max(expectedCount, 1)];
+            this.previous   = previous;
+        }
+
+        public void append(CacheEntry entry) {
+
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+
+            entries[size++] = entry;
+        }
+
+        @Override
+        public void append(ByteBuffer buf, int offset, byte[] name, int nameLength) {
+
+            if (previous != null) {
+                CacheEntry reused = reuse(buf, offset, name, nameLength);
+                if (reused != null) {
+                    append(reused);
+                    return;
+                }
+            }
+
+            CacheEntry.StatData statdata    = new CacheEntry.StatData(
+                    buf.getInt(offset),      buf.getInt(offset + 4),
+                    buf.getInt(offset + 8),  buf.getInt(offset + 12),
+                    buf.getInt(offset + 16), buf.getInt(offset + 20),
+                    buf.getInt(offset + 28), buf.getInt(offset + 32), buf.getInt(offset + 36)
+            );
+
+            CacheEntry.Mode mode            = new CacheEntry.Mode(buf.getInt(offset + 24));
+
+            GitObject.Id oid                = GitObject.Id.of(buf, offset + 40);
+
+            short flagsBits                 = buf.getShort(offset + 60);
+            boolean extended                = CacheEntry.Flags.isExtended(flagsBits);
+            CacheEntry.Flags flags          = new CacheEntry.Flags(flagsBits, extended ? buf.getShort(offset + 62) : 0);
+
+            byte[] path;
+            if (name == null) {
+                path = new byte[nameLength];
+                buf.position(offset + (extended ? 64 : 62));
+                buf.get(path);
+            } else {
+                path = Arrays.copyOf(name, nameLength);
+            }
+
+            append(new CacheEntry(oid, path, statdata, mode, flags));
+        }
+
+        /**
+         * 在previous中查找与缓冲区中offset处的条目完全相同的条目
+         * @return 找到的条目，找不到时返回null
+         */
+        private CacheEntry reuse(ByteBuffer buf, int offset, byte[] name, int nameLength) {
+
+            short flagsBits     = buf.getShort(offset + 60);
+            boolean extended    = CacheEntry.Flags.isExtended(flagsBits);
+            int nameOffset      = offset + (extended ? 64 : 62);
+            int stage           = CacheEntry.Flags.stageOf(flagsBits);
+
+            if (reuseCursor < 0) {
+                int low = 0, high = previous.size;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compare(previous.entries[mid], buf, nameOffset, name, nameLength, stage) < 0)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                reuseCursor = low;
+            }
+
+            while (reuseCursor < previous.size
+                    && compare(previous.entries[reuseCursor], buf, nameOffset, name, nameLength, stage) < 0)
+                reuseCursor++;
+
+            if (reuseCursor == previous.size)
+                return null;
+
+            CacheEntry candidate = previous.entries[reuseCursor];
+            if (compare(candidate, buf, nameOffset, name, nameLength, stage) != 0
+                    || !sameFields(candidate, buf, offset, flagsBits, extended))
+                return null;
+
+            reuseCursor++;
+            return candidate;
+        }
+
+        /**
+         * 按{@link CacheEntry#compareTo}的规则比较entry与缓冲区中的条目，name不为null时路径名取自name
+         */
+        private static int compare(CacheEntry entry, ByteBuffer buf, int nameOffset, byte[] name, int nameLength, int stage) {
+
+            byte[] path = entry.getName();
+            int r = name == null ? -Bytes.compare(buf, nameOffset, nameLength, path, 0, path.length)
+                                 : Bytes.compare(path, 0, path.length, name, 0, nameLength);
+
+            return r != 0 ? r : Integer.compare(entry.getFlags().getStage(), stage);
+        }
+
+        private static boolean sameFields(CacheEntry entry, ByteBuffer buf, int offset, short flagsBits, boolean extended) {
+
+            CacheEntry.Flags flags = entry.getFlags();
+            if (flags.toBits() != flagsBits || flags.toExtendedBits() != (extended ? buf.getShort(offset + 62) : 0))
+                return false;
+
+            CacheEntry.StatData statdata = entry.getStatData();
+            if (statdata.getCtime().getSec()    != buf.getInt(offset)
+                    || statdata.getCtime().getNsec() != buf.getInt(offset + 4)
+                    || statdata.getMtime().getSec()  != buf.getInt(offset + 8)
+                    || statdata.getMtime().getNsec() != buf.getInt(offset + 12)
+                    || statdata.getDev()             != buf.getInt(offset + 16)
+                    || statdata.getIno()             != buf.getInt(offset + 20)
+                    || entry.getMode().toBits()      != buf.getInt(offset + 24)
+                    || statdata.getUid()             != buf.getInt(offset + 28)
+                    || statdata.getGid()             != buf.getInt(offset + 32)
+                    || statdata.getSize()            != buf.getInt(offset + 36))
+                return false;
+
+            return entry.getOid().matches(buf, offset + 40);
+        }
+
+        @Override
+        public void appendAll(IndexEntries.Builder other) {
+
+            if (!(other instanceof Builder))
+                throw new IllegalArgumentException("cannot append entries from " + other.getClass().getName());
+
+            Builder that = (Builder) other;
+            if (size + that.size > entries.length)
+                entries = Arrays.copyOf(entries, size + that.size);
+
+            System.arraycopy(that.entries, 0, entries, size, that.size);
+            size += that.size;
+        }
+
+        /**
+         * 线性地检查一遍顺序，只有未按顺序排列时才排序
+         */
+        @Override
+        public ArrayIndexEntries build() {
+
+            if (!isSorted(size, (a, b) -> entries[a].compareTo(entries[b])))
+                Arrays.sort(entries, 0, size);
+
+            return new ArrayIndexEntries(entries, size);
+        }
+
+    }
+
+}
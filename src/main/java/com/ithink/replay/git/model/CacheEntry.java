@@ -3,6 +3,7 @@ package com.ithink.replay.git.model;
 import com.ithink.replay.git.util.Bytes;
 import com.ithink.replay.git.Displayable;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -28,6 +29,14 @@ public class CacheEntry extends GitObject
         this.flags      = flags;
     }
 
+    /**
+     * 供不持有各个字段，而是从其他存储结构中按需读取的视图类使用，
+     * 子类需要重写所有的getter方法
+     */
+    protected CacheEntry() {
+        this(null, null, null, null, null);
+    }
+
     public StatData getStatData() {
         return statdata;
     }
@@ -51,10 +60,10 @@ public class CacheEntry extends GitObject
     @Override
     public int compareTo(CacheEntry other) {
 
-        int result = Bytes.compare(name, other.name);
+        int result = Bytes.compare(getName(), other.getName());
 
         if (result == 0) {
-            result = Byte.compare(flags.getStage(), other.getFlags().getStage());
+            result = Byte.compare(getFlags().getStage(), other.getFlags().getStage());
         }
 
         return result;
@@ -63,13 +72,30 @@ public class CacheEntry extends GitObject
     @Override
     public List<String> toLines() {
         return Arrays.asList(
-                "-   name_path  : " + new String(name),
+                "-   name_path  : " + new String(getName()),
                 "    object_id  : " + getOid(),
-                "    mode       : " + mode,
-                "    flags      : " + flags
+                "    mode       : " + getMode(),
+                "    flags      : " + getFlags()
         );
     }
 
+    /**
+     * 与{@link #toLines()}的内容相同，对象id直接编码到out中
+     */
+    @Override
+    public void writeTo(Appendable out) throws IOException {
+
+        String nl = System.lineSeparator();
+        GitObject.Id oid = getOid();
+
+        out.append("-   name_path  : ").append(new String(getName())).append(nl);
+        out.append("    object_id  : ");
+        Bytes.appendHex(out, oid != null ? oid.getHash() : null);
+        out.append(nl);
+        out.append("    mode       : ").append(getMode().toString()).append(nl);
+        out.append("    flags      : ").append(getFlags().toString()).append(nl);
+    }
+
     /**
      * @author le
      * @since v_0.1.0
@@ -162,6 +188,21 @@ public class CacheEntry extends GitObject
             this.unixPermission = (short) (mode & 0x1ff);
         }
 
+        public byte getObjectType() {
+            return objectType;
+        }
+
+        public short getUnixPermission() {
+            return unixPermission;
+        }
+
+        /**
+         * @return 写回index文件时的32位mode，未使用的位都为0
+         */
+        public int toBits() {
+            return objectType << 12 | unixPermission;
+        }
+
         @Override
         public String toString() {
 
@@ -188,21 +229,57 @@ public class CacheEntry extends GitObject
      *     12-bit name length if the length is less than 0xFFF; otherwise 0xFFF
      *     is stored in this field.
      *
+     *   (Version 3 or later) A 16-bit field, only applicable if the
+     *   "extended flag" above is 1, split into (high to low bits).
+     *
+     *     1-bit reserved for future
+     *
+     *     1-bit skip-worktree flag (used by sparse checkout)
+     *
+     *     1-bit intent-to-add flag (used by "git add -N")
+     *
+     *     13-bit unused, must be zero
+     *
      * @author le
      * @since v_0.1.0
      */
     public static class Flags {
 
+        /**
+         * flags中表示存在第二个16位flags的位
+         */
+        public static final int EXTENDED = 0x4000;
+
         private final byte assumeValid;
         private final byte extendedFlag;
         private final byte stage;
         private final short nameLength;
 
+        private final byte skipWorktree;
+        private final byte intentToAdd;
+
         public Flags(short flagsBits) {
-            this.assumeValid    =    (byte) (flagsBits >>> 15);
-            this.extendedFlag   =    (byte) (flagsBits << 1 >>> 14);
-            this.stage          =    (byte) (flagsBits << 2 >>> 12);
+            this(flagsBits, (short) 0);
+        }
+
+        /**
+         * @param flagsBits 16位的flags
+         * @param extendedFlagsBits 版本3及以上，extended flag为1时紧跟在flags之后的第二个16位flags，否则为0
+         */
+        public Flags(short flagsBits, short extendedFlagsBits) {
+            this.assumeValid    =    (byte) (flagsBits >>> 15 & 0x1);
+            this.extendedFlag   =    (byte) (flagsBits >>> 14 & 0x1);
+            this.stage          =    stageOf(flagsBits);
             this.nameLength     =   (short) (flagsBits & 0xFFF);
+            this.skipWorktree   =    (byte) (extendedFlagsBits >>> 14 & 0x1);
+            this.intentToAdd    =    (byte) (extendedFlagsBits >>> 13 & 0x1);
+        }
+
+        /**
+         * 不创建{@link Flags}对象，直接从16位的flags中取出stage
+         */
+        public static byte stageOf(short flagsBits) {
+            return (byte) (flagsBits >>> 12 & 0x3);
         }
 
         public byte getAssumeValid() {
@@ -221,6 +298,35 @@ public class CacheEntry extends GitObject
             return nameLength;
         }
 
+        public byte getSkipWorktree() {
+            return skipWorktree;
+        }
+
+        public byte getIntentToAdd() {
+            return intentToAdd;
+        }
+
+        /**
+         * @return 写回index文件时的16位flags
+         */
+        public short toBits() {
+            return (short) (assumeValid << 15 | extendedFlag << 14 | stage << 12 | nameLength);
+        }
+
+        /**
+         * @return 写回index文件时，extended flag为1的条目紧跟在flags之后的第二个16位flags
+         */
+        public short toExtendedBits() {
+            return (short) (skipWorktree << 14 | intentToAdd << 13);
+        }
+
+        /**
+         * 不创建{@link Flags}对象，判断16位的flags中extended flag是否为1
+         */
+        public static boolean isExtended(short flagsBits) {
+            return (flagsBits & EXTENDED) != 0;
+        }
+
         @Override
         public String toString() {
             return "{" +
@@ -228,6 +334,9 @@ public class CacheEntry extends GitObject
                     ", extended_flag: " + extendedFlag +
                     ", stage: " + stage +
                     ", nameLength: " + nameLength +
+                    (extendedFlag == 0 ? "" :
+                            ", skip_worktree: " + skipWorktree +
+                            ", intent_to_add: " + intentToAdd) +
                     '}';
         }
 
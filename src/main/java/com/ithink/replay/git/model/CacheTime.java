@@ -23,6 +23,14 @@ public class CacheTime {
         this.nsec = nsec;
     }
 
+    public int getSec() {
+        return sec;
+    }
+
+    public int getNsec() {
+        return nsec;
+    }
+
     @Override
     public String toString() {
         // TODO 8-16 确认获取正确的失去偏移
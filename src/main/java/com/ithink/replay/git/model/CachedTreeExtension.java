@@ -1,7 +1,14 @@
 package com.ithink.replay.git.model;
 
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -11,6 +18,13 @@ import java.util.List;
  *
  *   When a path is updated in index, the path must be invalidated and
  *   removed from tree cache.
+ *
+ * <p>解析时按自顶向下、深度优先的顺序还原出目录树：{@link #getRoot()}为根目录，
+ * 每个{@link Entry}按文件中的顺序保存其子目录，另有一份按名称排序的子目录用于二分查找，
+ * 因此{@link #find(byte[])}按目录的路径查找只需逐级查找，耗时与路径的深度成正比。
+ * {@link #getEntries()}依然按文件中的顺序列出所有目录<p/>
+ * <p>{@link #invalidate(byte[])}将包含某个路径的各级目录标记为无效，不重建整个树；
+ * 写回文件时按当前的状态写出，未调用过该方法时与解析时的数据逐字节相同<p/>
  */
 public class CachedTreeExtension extends SupportedExtension<CachedTreeExtension.Entry> {
 
@@ -19,53 +33,196 @@ public class CachedTreeExtension extends SupportedExtension<CachedTreeExtension.
      */
     public static final int SIGNATURE = 0x54_52_45_45;
 
+    /**
+     * 根目录，扩展数据为空时为null
+     */
+    private final Entry root;
+
+    /**
+     * @exception IllegalStateException 若数据不符合TREE扩展的格式，或各个目录的子目录数量与实际的记录不符
+     */
     public CachedTreeExtension(byte[] data) {
         super(SIGNATURE, data);
+        this.root = getEntries().isEmpty() ? null : getEntries().get(0);
+    }
+
+    public Entry getRoot() {
+        return root;
+    }
+
+    /**
+     * 按路径查找目录，逐级在子目录中二分查找
+     * @param path 以'/'分隔的目录路径，不以'/'开头或结尾，空数组表示根目录
+     * @return 对应的目录，不存在时返回null
+     */
+    public Entry find(byte[] path) {
+
+        if (path == null)
+            throw new IllegalArgumentException("path cannot be null");
+
+        Entry entry = root;
+        int from = 0;
+        while (entry != null && from < path.length) {
+            int to = indexOfSlash(path, from);
+            entry = entry.findChild(path, from, to - from);
+            from = to + 1;
+        }
+
+        return entry;
+    }
+
+    public Entry find(String path) {
+        return find(path.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * <p>路径对应的文件或目录改变时调用：根目录以及包含该路径的各级目录都被标记为无效，其对象id不再可用；
+     * path本身是一个目录时，该目录也被标记为无效。不在树中的各级目录被忽略<p/>
+     * <p>与git一样只修改各个目录的状态，目录之间的结构以及其余目录都保持不变<p/>
+     * @param path 以'/'分隔的完整路径
+     */
+    public void invalidate(byte[] path) {
+
+        if (path == null)
+            throw new IllegalArgumentException("path cannot be null");
+
+        Entry entry = root;
+        int from = 0;
+        while (entry != null) {
+            entry.invalidate();
+            if (from >= path.length)
+                break;
+            int to = indexOfSlash(path, from);
+            entry = entry.findChild(path, from, to - from);
+            from = to + 1;
+        }
+    }
+
+    public void invalidate(String path) {
+        invalidate(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int indexOfSlash(byte[] path, int from) {
+        int i = from;
+        while (i < path.length && path[i] != '/')
+            i++;
+        return i;
+    }
+
+    /**
+     * 按文件中的顺序写出各个目录的当前状态
+     */
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+        for (Entry entry : getEntries()) {
+            out.write(entry.name);
+            out.write(0);
+            out.write(Integer.toString(entry.entryCount).getBytes(StandardCharsets.US_ASCII));
+            out.write(' ');
+            out.write(Integer.toString(entry.subtreeCount).getBytes(StandardCharsets.US_ASCII));
+            out.write('\n');
+            if (entry.isValid())
+                out.write(entry.getOid().getHash());
+        }
+    }
+
+    /**
+     * 逐个解析各个目录的记录，同时按深度优先的顺序还原父子关系：
+     * 每个记录都是栈顶目录的下一个子目录，子目录数量不为0的目录入栈，其子目录都已出现后出栈
+     */
     @Override
     protected List<Entry> convertEntries(byte[] data) {
 
         List<Entry> entries = new ArrayList<>();
+        Deque<Entry> parents = new ArrayDeque<>();
 
         int pos = 0;
-        for (int i = 0; i < data.length; i++) {
-            if (data[i] == 0x0a) {
-                /*                                                                               v
-                  [0]...[pos].[    (i - 4)   ][  (i - 3)  ][    (i - 2)   ][    (i - 1)   ][     i    ].[data.length-1]
-                              |0x00(nil byte)|             |0x20(A space) |                |0x0a('\n')|
-                        |<--path component-->||entry count|                |subtreesCount |
-                        |<------------------------------- this entry -------------------------------->|
-
-                  忽略data[i-4]即尾部的空字节,所以是pathComponent字节数组长度为(i - 5) + 1 -pos
-                */
-                byte[] pathComponent    = new byte[(i - 5) + 1 - pos];
-                System.arraycopy(data, pos, pathComponent, 0, (i - 5) + 1 - pos);
-                byte entryCount         = data[i - 3];
-                byte subtreesCount      = data[i - 1];
-
-                /*
-                  entry count为负数（最高位为1）时，说明接下来的20个字节存储的仍是该树节点(entry)的数据
-                  将接下来的20个字节拷贝为其object name，并在下次循环中跳过这20个字节
-                */
-                byte[] objectName       = null;
-                if (!(entryCount < 0)) {
-                    int size = GitObject.Id.GIT_SHA1_RAWSZ;
-                    objectName = new byte[size];
-                    System.arraycopy(data, pos, objectName, 0, size);
-                    i += size;
-                }
+        while (pos < data.length) {
 
-                Entry entry = new Entry(objectName, pathComponent, entryCount, subtreesCount);
-                entries.add(entry);
+            int nul = pos;
+            while (nul < data.length && data[nul] != 0)
+                nul++;
+            if (nul == data.length)
+                throw new IllegalStateException("TREE扩展数据损坏：第" + (entries.size() + 1) + "个目录的名称没有结尾的空字节");
+            byte[] name = Arrays.copyOfRange(data, pos, nul);
+            pos = nul + 1;
 
-                pos = i + 1;
+            int space = indexOf(data, pos, (byte) ' ');
+            int entryCount = parseDecimal(data, pos, space);
+            pos = space + 1;
+
+            int newline = indexOf(data, pos, (byte) '\n');
+            int subtreeCount = parseDecimal(data, pos, newline);
+            if (subtreeCount < 0)
+                throw new IllegalStateException("TREE扩展数据损坏：子目录的数量为负数：" + subtreeCount);
+            pos = newline + 1;
+
+            // entry_count为负数时表示无效，之后没有对象id，下一个记录紧跟在换行符之后
+            GitObject.Id oid = null;
+            if (entryCount >= 0) {
+                if (pos + GitObject.Id.GIT_SHA1_RAWSZ > data.length)
+                    throw new IllegalStateException("TREE扩展数据损坏：目录" + new String(name) + "的对象id不完整");
+                oid = GitObject.Id.of(data, pos);
+                pos += GitObject.Id.GIT_SHA1_RAWSZ;
             }
 
+            Entry parent = parents.peek();
+            if (parent == null && !entries.isEmpty())
+                throw new IllegalStateException("TREE扩展数据损坏：根目录的所有子目录之后还有多余的记录");
+
+            Entry entry = new Entry(oid, name, entryCount, subtreeCount, parent);
+            entries.add(entry);
+
+            if (parent != null) {
+                parent.children[parent.childCount++] = entry;
+                if (parent.childCount == parent.subtreeCount) {
+                    parents.pop();
+                    parent.sortChildren();
+                }
+            }
+            if (subtreeCount > 0)
+                parents.push(entry);
         }
 
+        if (!parents.isEmpty())
+            throw new IllegalStateException("TREE扩展数据损坏：目录" + new String(parents.peek().getPath()) + "的子目录不完整");
+
         return entries;
+    }
 
+    /**
+     * @return 从from开始第一个b的位置
+     * @exception IllegalStateException 若不存在
+     */
+    private static int indexOf(byte[] data, int from, byte b) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b)
+                return i;
+        }
+        throw new IllegalStateException("TREE扩展数据损坏：缺少" + (b == ' ' ? "空格" : "换行符"));
+    }
+
+    /**
+     * 解析[from, to)范围内可能以'-'开头的十进制数
+     */
+    private static int parseDecimal(byte[] data, int from, int to) {
+
+        boolean negative = from < to && data[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to)
+            throw new IllegalStateException("TREE扩展数据损坏：缺少数字");
+
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new IllegalStateException("TREE扩展数据损坏：非法的数字：" + new String(data, from, to - from, StandardCharsets.US_ASCII));
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE)
+                throw new IllegalStateException("TREE扩展数据损坏：数字溢出：" + new String(data, from, to - from, StandardCharsets.US_ASCII));
+        }
+
+        return (int) (negative ? -value : value);
     }
 
 
@@ -114,15 +271,130 @@ public class CachedTreeExtension extends SupportedExtension<CachedTreeExtension.
     public static class Entry extends GitObject
             implements SupportedExtension.Entry {
 
+        private static final Entry[] NO_CHILDREN = new Entry[0];
+
         private final byte[] name;
-        private final byte entryCount;
-        private final byte subtreesCount;
+        private final int subtreeCount;
+        private final Entry parent;
 
-        private Entry(byte[] hash, byte[] name, byte entryCount, byte subtreesCount) {
-            super(hash);
+        /**
+         * 按文件中的顺序排列的子目录，写回文件以及遍历时使用
+         */
+        private final Entry[] children;
+
+        /**
+         * 按名称排序的子目录，查找时使用
+         */
+        private Entry[] sortedChildren = NO_CHILDREN;
+
+        private int entryCount;
+        private int childCount;
+
+        private Entry(GitObject.Id oid, byte[] name, int entryCount, int subtreeCount, Entry parent) {
+            super(oid);
             this.name           = name;
             this.entryCount     = entryCount;
-            this.subtreesCount  = subtreesCount;
+            this.subtreeCount   = subtreeCount;
+            this.parent         = parent;
+            this.children       = subtreeCount == 0 ? NO_CHILDREN : new Entry[subtreeCount];
+        }
+
+        private void sortChildren() {
+            sortedChildren = children.clone();
+            Arrays.sort(sortedChildren, (a, b) -> Bytes.compare(a.name, b.name));
+        }
+
+        private Entry findChild(byte[] path, int offset, int length) {
+
+            int low = 0, high = sortedChildren.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                byte[] n = sortedChildren[mid].name;
+                int cmp = Bytes.compare(n, 0, n.length, path, offset, length);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return sortedChildren[mid];
+            }
+
+            return null;
+        }
+
+        private void invalidate() {
+            entryCount = -1;
+        }
+
+        /**
+         * @return 目录的名称，相对于上级目录，根目录为空数组
+         */
+        public byte[] getName() {
+            return name;
+        }
+
+        /**
+         * @return 从根目录开始、以'/'分隔的完整路径，根目录为空数组
+         */
+        public byte[] getPath() {
+
+            if (parent == null)
+                return name;
+
+            byte[] parentPath = parent.getPath();
+            if (parentPath.length == 0)
+                return name;
+
+            byte[] path = Arrays.copyOf(parentPath, parentPath.length + 1 + name.length);
+            path[parentPath.length] = '/';
+            System.arraycopy(name, 0, path, parentPath.length + 1, name.length);
+            return path;
+        }
+
+        /**
+         * 在子目录中二分查找
+         * @param name 子目录的名称
+         * @return 对应的子目录，不存在时返回null
+         */
+        public Entry getChild(byte[] name) {
+            return findChild(name, 0, name.length);
+        }
+
+        /**
+         * @return 上级目录，根目录返回null
+         */
+        public Entry getParent() {
+            return parent;
+        }
+
+        /**
+         * @return 按文件中的顺序排列的子目录，不能修改
+         */
+        public List<Entry> getChildren() {
+            return Arrays.asList(children);
+        }
+
+        /**
+         * @return 该目录（包括各级子目录）覆盖的索引条目的数量，无效时为负数
+         */
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public int getSubtreeCount() {
+            return subtreeCount;
+        }
+
+        public boolean isValid() {
+            return entryCount >= 0;
+        }
+
+        /**
+         * @return 该目录对应的tree对象的id，无效时为null
+         */
+        @Override
+        public Id getOid() {
+            return isValid() ? super.getOid() : null;
         }
 
         @Override
@@ -130,11 +402,11 @@ public class CachedTreeExtension extends SupportedExtension<CachedTreeExtension.
             return Arrays.asList(
                     "-   name_path       : " + new String(name),
                     "    object_id       : " + getOid(),
-                    "    entry_count     : " + (char) entryCount,
-                    "    subtrees_count  : " + (char) subtreesCount
+                    "    entry_count     : " + entryCount,
+                    "    subtrees_count  : " + subtreeCount
             );
         }
 
     }
 
-}
\ No newline at end of file
+}
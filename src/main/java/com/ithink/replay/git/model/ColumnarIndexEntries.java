@@ -0,0 +1,435 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>按列存储的索引条目集合<p/>
+ * <p>不再为每个条目分别创建{@link CacheEntry}、{@link CacheEntry.StatData}、两个{@link CacheTime}、
+ * {@link CacheEntry.Mode}、{@link CacheEntry.Flags}、{@link GitObject.Id}以及hash和name两个数组，
+ * 而是把所有条目的同一个字段保存在同一个基本类型数组中：<p/>
+ * <ul>
+ *     <li>stat data的9个字段以及mode，各自一个{@code int[]}</li>
+ *     <li>flags以及版本3中的extended flags，各自一个{@code short[]}</li>
+ *     <li>所有条目的object name依次保存在同一个{@code byte[]}中，第i个条目的object name从i * 20开始</li>
+ *     <li>所有条目的路径名按前缀压缩保存在一个{@link PathDictionary}中，每个路径名只保存与上一个路径名不同的后缀</li>
+ * </ul>
+ * <p>每个条目的内存开销为：10 * 4(int列) + 2 * 2(flags, extended flags) + 20(object name) + 约2字节 + 路径名中与上一个路径名不同的后缀，
+ * 即<b>约66字节 + 后缀长度</b>，同一目录下的路径名的后缀通常只有文件名，且整个集合只有固定的16个对象，与条目数量无关。
+ * 相比之下，按对象存储时每个条目约有9个对象，约260字节 + 路径名长度<p/>
+ * <p>{@link #get(int)}返回的是只持有序号的轻量视图，各个getter方法按需从列中构建对应的对象；
+ * 只关心个别字段时，可以直接使用按序号读取的方法，例如{@link #getMode(int)}，避免创建任何对象；
+ * 按顺序读取路径名时使用{@link #getPaths()}的{@link PathDictionary.Cursor 游标}，每个路径名只需要拷贝其后缀<p/>
+ */
+public class ColumnarIndexEntries extends IndexEntries {
+
+    private static final int RAWSZ = GitObject.Id.GIT_SHA1_RAWSZ;
+
+    private final int size;
+
+    private final int[] ctimeSeconds;
+    private final int[] ctimeNanoseconds;
+    private final int[] mtimeSeconds;
+    private final int[] mtimeNanoseconds;
+    private final int[] dev;
+    private final int[] ino;
+    private final int[] mode;
+    private final int[] uid;
+    private final int[] gid;
+    private final int[] fileSize;
+    private final short[] flags;
+    private final short[] extendedFlags;
+
+    private final byte[] oids;
+
+    private final PathDictionary paths;
+
+    private ColumnarIndexEntries(Builder builder, PathDictionary paths) {
+        this.size               = builder.size;
+        this.ctimeSeconds       = builder.ctimeSeconds;
+        this.ctimeNanoseconds   = builder.ctimeNanoseconds;
+        this.mtimeSeconds       = builder.mtimeSeconds;
+        this.mtimeNanoseconds   = builder.mtimeNanoseconds;
+        this.dev                = builder.dev;
+        this.ino                = builder.ino;
+        this.mode               = builder.mode;
+        this.uid                = builder.uid;
+        this.gid                = builder.gid;
+        this.fileSize           = builder.fileSize;
+        this.flags              = builder.flags;
+        this.extendedFlags      = builder.extendedFlags;
+        this.oids               = builder.oids;
+        this.paths              = paths;
+    }
+
+    @Override
+    public CacheEntry get(int ordinal) {
+        checkOrdinal(ordinal);
+        return new View(ordinal);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getMode(int ordinal) {
+        return mode[ordinal];
+    }
+
+    public short getFlags(int ordinal) {
+        return flags[ordinal];
+    }
+
+    public short getExtendedFlags(int ordinal) {
+        return extendedFlags[ordinal];
+    }
+
+    public int getNameLength(int ordinal) {
+        return paths.getLength(ordinal);
+    }
+
+    /**
+     * @return 按顺序保存所有条目的路径名的字典，第i个路径名即第i个条目的路径名
+     */
+    public PathDictionary getPaths() {
+        return paths;
+    }
+
+    /**
+     * 将第ordinal个条目的object name拷贝到dst中从offset开始的20个字节
+     */
+    public void copyOid(int ordinal, byte[] dst, int offset) {
+        System.arraycopy(oids, ordinal * RAWSZ, dst, offset, RAWSZ);
+    }
+
+    /**
+     * 将第ordinal个条目的路径名拷贝到dst中从offset开始的位置
+     * @return 路径名的长度
+     */
+    public int copyName(int ordinal, byte[] dst, int offset) {
+        return paths.copy(ordinal, dst, offset);
+    }
+
+    @Override
+    public int indexOf(byte[] path, int stage) {
+        int i = lowerBound(path, stage);
+        return i < size && compareAt(i, path, stage) == 0 ? i : -(i + 1);
+    }
+
+    @Override
+    protected int compareAt(int ordinal, byte[] path, int stage) {
+
+        int result = paths.compare(ordinal, path);
+        if (result == 0)
+            result = Integer.compare(CacheEntry.Flags.stageOf(flags[ordinal]), stage);
+
+        return result;
+    }
+
+    /**
+     * 先在路径名字典中查找第一个等于path的条目，再跳过同一路径名中stage更小的条目（最多3个）
+     */
+    @Override
+    protected int lowerBound(byte[] path, int stage) {
+
+        int i = paths.indexOf(path);
+        if (i < 0)
+            return -(i + 1);
+
+        while (i < size && CacheEntry.Flags.stageOf(flags[i]) < stage && paths.compare(i, path) == 0)
+            i++;
+
+        return i;
+    }
+
+    @Override
+    protected int stageAt(int ordinal) {
+        return CacheEntry.Flags.stageOf(flags[ordinal]);
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+    }
+
+    /**
+     * 按列读取某个条目的轻量视图，只持有该条目的序号
+     */
+    private class View extends CacheEntry {
+
+        private final int ordinal;
+
+        private View(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public GitObject.Id getOid() {
+            return GitObject.Id.of(oids, ordinal * RAWSZ);
+        }
+
+        @Override
+        public byte[] getName() {
+            return paths.get(ordinal);
+        }
+
+        @Override
+        public StatData getStatData() {
+            return new StatData(
+                    ctimeSeconds[ordinal], ctimeNanoseconds[ordinal],
+                    mtimeSeconds[ordinal], mtimeNanoseconds[ordinal],
+                    dev[ordinal], ino[ordinal], uid[ordinal], gid[ordinal], fileSize[ordinal]
+            );
+        }
+
+        @Override
+        public Mode getMode() {
+            return new Mode(mode[ordinal]);
+        }
+
+        @Override
+        public Flags getFlags() {
+            return new Flags(flags[ordinal], extendedFlags[ordinal]);
+        }
+
+        /**
+         * 同一个集合中的条目已按该顺序排列，且路径名及stage都相同的条目不会重复出现，因此两个视图直接比较各自的序号
+         */
+        @Override
+        public int compareTo(CacheEntry other) {
+
+            if (!(other instanceof View) || ((View) other).outer() != ColumnarIndexEntries.this)
+                return super.compareTo(other);
+
+            return Integer.compare(ordinal, ((View) other).ordinal);
+        }
+
+        private ColumnarIndexEntries outer() {
+            return ColumnarIndexEntries.this;
+        }
+
+    }
+
+    /**
+     * 逐个追加条目，按列构建{@link ColumnarIndexEntries}
+     */
+    public static class Builder implements IndexEntries.Builder {
+
+        private int size;
+
+        private int[] ctimeSeconds;
+        private int[] ctimeNanoseconds;
+        private int[] mtimeSeconds;
+        private int[] mtimeNanoseconds;
+        private int[] dev;
+        private int[] ino;
+        private int[] mode;
+        private int[] uid;
+        private int[] gid;
+        private int[] fileSize;
+        private short[] flags;
+        private short[] extendedFlags;
+
+        private byte[] oids;
+
+        private byte[] names;
+        private int[] nameOffsets;
+
+        /**
+         * @param expectedCount 预计的条目数量，通常为头部中记录的条目数量，据此一次性分配好各个列
+         */
+        public Builder(int expectedCount) {
+            int capacity = Math.max(expectedCount, 1);
+            this.ctimeSeconds       = new int[capacity];
+            this.ctimeNanoseconds   = new int[capacity];
+            this.mtimeSeconds       = new int[capacity];
+            this.mtimeNanoseconds   = new int[capacity];
+            this.dev                = new int[capacity];
+            this.ino                = new int[capacity];
+            this.mode               = new int[capacity];
+            this.uid                = new int[capacity];
+            this.gid                = new int[capacity];
+            this.fileSize           = new int[capacity];
+            this.flags              = new short[capacity];
+            this.extendedFlags      = new short[capacity];
+            this.oids               = new byte[capacity * RAWSZ];
+            this.names              = new byte[capacity * 32];
+            this.nameOffsets        = new int[capacity + 1];
+        }
+
+        @Override
+        public void append(ByteBuffer buf, int offset, byte[] name, int nameLength) {
+
+            if (size == flags.length)
+                grow(size * 2);
+
+            int i = size;
+
+            ctimeSeconds[i]         = buf.getInt(offset);
+            ctimeNanoseconds[i]     = buf.getInt(offset + 4);
+            mtimeSeconds[i]         = buf.getInt(offset + 8);
+            mtimeNanoseconds[i]     = buf.getInt(offset + 12);
+            dev[i]                  = buf.getInt(offset + 16);
+            ino[i]                  = buf.getInt(offset + 20);
+            mode[i]                 = buf.getInt(offset + 24);
+            uid[i]                  = buf.getInt(offset + 28);
+            gid[i]                  = buf.getInt(offset + 32);
+            fileSize[i]             = buf.getInt(offset + 36);
+            flags[i]                = buf.getShort(offset + 60);
+
+            boolean extended        = CacheEntry.Flags.isExtended(flags[i]);
+            extendedFlags[i]        = extended ? buf.getShort(offset + 62) : 0;
+
+            buf.position(offset + 40);
+            buf.get(oids, i * RAWSZ, RAWSZ);
+
+            int nameOffset = nameOffsets[i];
+            ensureNameCapacity(nameOffset + nameLength);
+            if (name == null) {
+                buf.position(offset + (extended ? 64 : 62));
+                buf.get(names, nameOffset, nameLength);
+            } else {
+                System.arraycopy(name, 0, names, nameOffset, nameLength);
+            }
+            nameOffsets[i + 1] = nameOffset + nameLength;
+
+            size++;
+        }
+
+        @Override
+        public void appendAll(IndexEntries.Builder other) {
+
+            if (!(other instanceof Builder))
+                throw new IllegalArgumentException("cannot append entries from " + other.getClass().getName());
+
+            Builder that = (Builder) other;
+            if (size + that.size > flags.length)
+                grow(size + that.size);
+
+            System.arraycopy(that.ctimeSeconds,     0, ctimeSeconds,     size, that.size);
+            System.arraycopy(that.ctimeNanoseconds, 0, ctimeNanoseconds, size, that.size);
+            System.arraycopy(that.mtimeSeconds,     0, mtimeSeconds,     size, that.size);
+            System.arraycopy(that.mtimeNanoseconds, 0, mtimeNanoseconds, size, that.size);
+            System.arraycopy(that.dev,              0, dev,              size, that.size);
+            System.arraycopy(that.ino,              0, ino,              size, that.size);
+            System.arraycopy(that.mode,             0, mode,             size, that.size);
+            System.arraycopy(that.uid,              0, uid,              size, that.size);
+            System.arraycopy(that.gid,              0, gid,              size, that.size);
+            System.arraycopy(that.fileSize,         0, fileSize,         size, that.size);
+            System.arraycopy(that.flags,            0, flags,            size, that.size);
+            System.arraycopy(that.extendedFlags,    0, extendedFlags,    size, that.size);
+            System.arraycopy(that.oids,             0, oids,             size * RAWSZ, that.size * RAWSZ);
+
+            int base = nameOffsets[size], length = that.nameOffsets[that.size];
+            ensureNameCapacity(base + length);
+            System.arraycopy(that.names, 0, names, base, length);
+            for (int i = 1; i <= that.size; i++)
+                nameOffsets[size + i] = base + that.nameOffsets[i];
+
+            size += that.size;
+        }
+
+        private void ensureNameCapacity(int capacity) {
+            if (capacity > names.length)
+                names = Arrays.copyOf(names, Math.max(names.length * 2, capacity));
+        }
+
+        private int compare(int a, int b) {
+
+            int result = Bytes.compare(
+                    names, nameOffsets[a], nameOffsets[a + 1] - nameOffsets[a],
+                    names, nameOffsets[b], nameOffsets[b + 1] - nameOffsets[b]
+            );
+            if (result == 0)
+                result = Byte.compare(CacheEntry.Flags.stageOf(flags[a]), CacheEntry.Flags.stageOf(flags[b]));
+
+            return result;
+        }
+
+        /**
+         * 按排好序的序号，重新排列所有的列
+         */
+        private void reorder(int[] order) {
+
+            ctimeSeconds        = permute(ctimeSeconds, order);
+            ctimeNanoseconds    = permute(ctimeNanoseconds, order);
+            mtimeSeconds        = permute(mtimeSeconds, order);
+            mtimeNanoseconds    = permute(mtimeNanoseconds, order);
+            dev                 = permute(dev, order);
+            ino                 = permute(ino, order);
+            mode                = permute(mode, order);
+            uid                 = permute(uid, order);
+            gid                 = permute(gid, order);
+            fileSize            = permute(fileSize, order);
+
+            short[] sortedFlags = new short[size];
+            short[] sortedExtendedFlags = new short[size];
+            byte[] sortedOids   = new byte[size * RAWSZ];
+            byte[] sortedNames  = new byte[nameOffsets[size]];
+            int[] sortedOffsets = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                int from = order[i], length = nameOffsets[from + 1] - nameOffsets[from];
+                sortedFlags[i] = flags[from];
+                sortedExtendedFlags[i] = extendedFlags[from];
+                System.arraycopy(oids, from * RAWSZ, sortedOids, i * RAWSZ, RAWSZ);
+                System.arraycopy(names, nameOffsets[from], sortedNames, sortedOffsets[i], length);
+                sortedOffsets[i + 1] = sortedOffsets[i] + length;
+            }
+
+            flags           = sortedFlags;
+            extendedFlags   = sortedExtendedFlags;
+            oids            = sortedOids;
+            names           = sortedNames;
+            nameOffsets     = sortedOffsets;
+        }
+
+        private static int[] permute(int[] column, int[] order) {
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++)
+                sorted[i] = column[order[i]];
+            return sorted;
+        }
+
+        private void grow(int capacity) {
+            ctimeSeconds        = Arrays.copyOf(ctimeSeconds, capacity);
+            ctimeNanoseconds    = Arrays.copyOf(ctimeNanoseconds, capacity);
+            mtimeSeconds        = Arrays.copyOf(mtimeSeconds, capacity);
+            mtimeNanoseconds    = Arrays.copyOf(mtimeNanoseconds, capacity);
+            dev                 = Arrays.copyOf(dev, capacity);
+            ino                 = Arrays.copyOf(ino, capacity);
+            mode                = Arrays.copyOf(mode, capacity);
+            uid                 = Arrays.copyOf(uid, capacity);
+            gid                 = Arrays.copyOf(gid, capacity);
+            fileSize            = Arrays.copyOf(fileSize, capacity);
+            flags               = Arrays.copyOf(flags, capacity);
+            extendedFlags       = Arrays.copyOf(extendedFlags, capacity);
+            oids                = Arrays.copyOf(oids, capacity * RAWSZ);
+            nameOffsets         = Arrays.copyOf(nameOffsets, capacity + 1);
+        }
+
+        /**
+         * 线性地检查一遍顺序，只有未按顺序排列时才排序
+         */
+        @Override
+        public ColumnarIndexEntries build() {
+
+            if (size != flags.length)
+                grow(size);
+
+            if (!isSorted(size, this::compare))
+                reorder(sortOrdinals(size, this::compare));
+
+            // 排好序之后才能按前缀压缩路径名
+            PathDictionary.Builder paths = new PathDictionary.Builder();
+            for (int i = 0; i < size; i++)
+                paths.add(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i]);
+
+            return new ColumnarIndexEntries(this, paths.build());
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.ithink.replay.git.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>按路径名查找冲突的索引：处于冲突状态的路径名及其stage 1到3的条目，以及各个路径名在REUC扩展中的记录，
+ * 由{@link IndexState#getConflicts()}在第一次使用时构建<p/>
+ * <p>条目按路径名及stage排列，同一路径名的各个stage相邻，因此只需线性地扫描一遍各个条目的stage，
+ * 将stage不为0的连续条目按路径名分组，每组只保存其第一个以及最后一个条目之后的序号。
+ * 扫描时通过{@link IndexEntries#stageAt(int)}直接读取flags，只有stage不为0的条目才需要比较路径名<p/>
+ * <p>按路径名查找时在各组之间二分查找，复杂度为O(log c)，c为冲突的路径名的数量；
+ * 只列出冲突时不需要任何查找。REUC扩展中的记录只在查找到时才解码<p/>
+ */
+public class ConflictIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final IndexEntries entries;
+
+    /**
+     * 不存在REUC扩展时为null
+     */
+    private final ResolveUndoExtension resolveUndo;
+
+    private final int size;
+
+    /**
+     * 第i个冲突的路径名的stage不为0的条目，序号范围为[starts[i], ends[i])
+     */
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * @param entries 已排序的索引条目
+     * @param resolveUndo REUC扩展，可以为null
+     */
+    public ConflictIndex(IndexEntries entries, ResolveUndoExtension resolveUndo) {
+
+        if (entries == null)
+            throw new IllegalArgumentException("entries cannot be null");
+
+        int[] starts = EMPTY, ends = EMPTY;
+        int size = 0;
+
+        int previousStage = 0;
+        for (int ordinal = 0, count = entries.size(); ordinal < count; ordinal++) {
+
+            int stage = entries.stageAt(ordinal);
+            if (stage == 0) {
+                previousStage = 0;
+                continue;
+            }
+
+            // 紧跟在同一路径名的更小stage之后时属于同一组，否则开始新的一组
+            if (previousStage != 0 && previousStage < stage
+                    && entries.compareAt(ordinal, entries.get(ordinal - 1).getName(), stage) == 0) {
+                ends[size - 1] = ordinal + 1;
+            } else {
+                if (size == starts.length) {
+                    starts  = Arrays.copyOf(starts, Math.max(size * 2, 16));
+                    ends    = Arrays.copyOf(ends, starts.length);
+                }
+                starts[size]    = ordinal;
+                ends[size]      = ordinal + 1;
+                size++;
+            }
+            previousStage = stage;
+        }
+
+        this.entries        = entries;
+        this.resolveUndo    = resolveUndo;
+        this.size           = size;
+        this.starts         = starts;
+        this.ends           = ends;
+    }
+
+    /**
+     * @return 处于冲突状态的路径名的数量
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param i 冲突的序号，范围为[0, size())，按路径名排列
+     * @return 第i个冲突的路径名
+     */
+    public byte[] getPath(int i) {
+        checkIndex(i);
+        return entries.get(starts[i]).getName();
+    }
+
+    /**
+     * @param i 冲突的序号，范围为[0, size())，按路径名排列
+     * @return 第i个冲突的路径名的stage 1到3的条目，按stage排列
+     */
+    public IndexEntries getStages(int i) {
+        checkIndex(i);
+        return entries.range(starts[i], ends[i]);
+    }
+
+    /**
+     * 二分查找路径名对应的冲突
+     * @param path 完整路径名
+     * @return 冲突的序号，路径名未处于冲突状态时返回-1
+     */
+    public int indexOf(byte[] path) {
+
+        if (path == null)
+            throw new IllegalArgumentException("path cannot be null");
+
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = starts[mid];
+            // stage取该条目自身的stage，只比较路径名
+            int result = entries.compareAt(start, path, entries.stageAt(start));
+            if (result < 0)
+                low = mid + 1;
+            else if (result > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    public boolean isConflicted(byte[] path) {
+        return indexOf(path) >= 0;
+    }
+
+    public boolean isConflicted(String path) {
+        return isConflicted(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param path 完整路径名
+     * @return 路径名的stage 1到3的条目，按stage排列，未处于冲突状态时返回空集合
+     */
+    public IndexEntries getStages(byte[] path) {
+        int i = indexOf(path);
+        return i < 0 ? entries.range(0, 0) : entries.range(starts[i], ends[i]);
+    }
+
+    public IndexEntries getStages(String path) {
+        return getStages(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return REUC扩展，不存在时为null
+     */
+    public ResolveUndoExtension getResolveUndo() {
+        return resolveUndo;
+    }
+
+    /**
+     * 查找路径名在REUC扩展中的记录，即该路径名上一次解决冲突之前的各个stage
+     * @param path 完整路径名
+     * @return 对应的记录，不存在REUC扩展或其中没有该路径名时返回null
+     */
+    public ResolveUndoExtension.Entry getResolveUndo(byte[] path) {
+        return resolveUndo == null ? null : resolveUndo.find(path);
+    }
+
+    public ResolveUndoExtension.Entry getResolveUndo(String path) {
+        return getResolveUndo(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return 路径名在REUC扩展中是否有记录，不解码该记录
+     */
+    public boolean hasResolveUndo(byte[] path) {
+        return resolveUndo != null && resolveUndo.contains(path);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *      The End of Index Entry (EOIE) is used to locate the end of the variable
+ *   length index entries and the beginning of the extensions. Code can take
+ *   advantage of this to quickly locate the index extensions without having
+ *   to parse through all of the index entries.
+ * </p>
+ *
+ * <p>
+ *      Because it must be able to be loaded before the variable length cache
+ *   entries and other index extensions, this extension must be written last.
+ * </p>
+ *
+ * <ul>
+ *     <li>32-bit offset to the end of the index entries</li>
+ *     <li>
+ *         160-bit SHA-1 over the extension types and their sizes (but not
+ *     their contents).
+ *     </li>
+ * </ul>
+ */
+public class EndOfIndexEntryExtension extends Extension {
+
+    /**
+     * The signature for this extension is { 'E', 'O', 'I', 'E' }.
+     */
+    public static final int SIGNATURE = 0x45_4F_49_45;
+
+    /**
+     * 扩展数据的字节数：4字节的偏移量加上20字节的SHA-1
+     */
+    public static final int SIZE = 4 + GitObject.Id.GIT_SHA1_RAWSZ;
+
+    private final int offset;
+    private final byte[] hash;
+
+    public EndOfIndexEntryExtension(byte[] data) {
+        super(SIGNATURE, data);
+
+        if (data.length != SIZE)
+            throw new IllegalArgumentException("EOIE扩展的大小必须为" + SIZE + "字节，实际为" + data.length);
+
+        this.offset = ByteBuffer.wrap(data).getInt();
+        this.hash   = Arrays.copyOfRange(data, 4, SIZE);
+    }
+
+    /**
+     * @return 索引条目列表结束的位置，即第一个扩展开始的位置
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return 对其之前所有扩展的signature以及size计算的SHA-1值
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+        new DataOutputStream(out).writeInt(offset);
+        out.write(hash);
+    }
+
+    @Override
+    protected List<String> dataLines() {
+        return Arrays.asList(
+                "    offset     : " + offset,
+                "    hash       : " + Bytes.toHexString(hash)
+        );
+    }
+
+}
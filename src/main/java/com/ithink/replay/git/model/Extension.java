@@ -3,6 +3,8 @@ package com.ithink.replay.git.model;
 import com.ithink.replay.git.Displayable;
 import com.ithink.replay.git.util.Int;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +31,24 @@ public abstract class Extension implements Comparable<Extension>, Displayable {
         this.size       = data.length;
     }
 
+    public int getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return 解析时扩展数据的字节数，不包括signature以及size本身
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * 将扩展数据按index文件中的格式写出，不包括signature以及size，用于将{@link IndexState}写回文件
+     * @param out 接收扩展数据的输出流
+     * @exception IOException 若I/O发生错误
+     */
+    public abstract void writeData(OutputStream out) throws IOException;
+
     /**
      *  除可选的扩展（内部的保存为字节数组）外，其余的皆不冗余地保存内容对应的字节数组
      *  <br>
@@ -52,6 +72,24 @@ public abstract class Extension implements Comparable<Extension>, Displayable {
         return strs;
     }
 
+    @Override
+    public void writeTo(Appendable out) throws IOException {
+        String nl = System.lineSeparator();
+        out.append("-   signature  : ").append(Int.toSignatureString(signature)).append(nl);
+        out.append("    size       : ").append(String.valueOf(size)).append(nl);
+        writeDataLines(out);
+    }
+
+    /**
+     * 将{@link #dataLines()}中的各行直接写入out，数据较多的子类可以重写以避免构建整个列表
+     * @exception IOException 若I/O发生错误
+     */
+    protected void writeDataLines(Appendable out) throws IOException {
+        String nl = System.lineSeparator();
+        for (String l : dataLines())
+            out.append(l).append(nl);
+    }
+
 }
 
 
@@ -2,6 +2,8 @@ package com.ithink.replay.git.model;
 
 import com.ithink.replay.git.util.Bytes;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author le
  * @since v_0.1.0
@@ -24,7 +26,10 @@ public class GitObject {
     }
 
     /**
-     * SHA-1 value
+     * <p>SHA-1 value<p/>
+     * <p>20字节按网络字节序拆分为两个long和一个int保存，不再持有一个单独的字节数组，
+     * 每个对象少一个数组对象的开销；{@link #equals(Object)}只需比较三个字段，
+     * {@link #hashCode()}直接取前4个字节（SHA-1本身已经是均匀分布的）<p/>
      */
     public static class Id {
 
@@ -38,7 +43,12 @@ public class GitObject {
          */
         public static final int GIT_SHA1_HEXSZ = (2 * GIT_SHA1_RAWSZ);
 
-        private final byte[] hash;
+        /**
+         * 第0到7、8到15、16到19个字节
+         */
+        private final long high;
+        private final long middle;
+        private final int low;
 
         public Id(byte[] hash) {
 
@@ -51,17 +61,83 @@ public class GitObject {
                 throw new IllegalArgumentException(msg);
             }
 
-            this.hash = hash;
+            ByteBuffer buf = ByteBuffer.wrap(hash);
+            this.high       = buf.getLong(0);
+            this.middle     = buf.getLong(8);
+            this.low        = buf.getInt(16);
+
+        }
 
+        private Id(long high, long middle, int low) {
+            this.high       = high;
+            this.middle     = middle;
+            this.low        = low;
+        }
+
+        /**
+         * 直接从缓冲区中读取20字节，不创建中间的字节数组，不修改缓冲区的position
+         * @param buf 包含SHA-1的缓冲区，需要为网络字节序
+         * @param offset SHA-1在buf中的偏移量
+         */
+        public static Id of(ByteBuffer buf, int offset) {
+            return new Id(buf.getLong(offset), buf.getLong(offset + 8), buf.getInt(offset + 16));
         }
 
+        /**
+         * 从字节数组中offset开始的20字节创建，不复制该数组
+         */
+        public static Id of(byte[] bytes, int offset) {
+            return of(ByteBuffer.wrap(bytes), offset);
+        }
+
+        /**
+         * @return 新分配的20字节数组，修改它不会影响当前对象
+         */
         public byte[] getHash() {
+            byte[] hash = new byte[GIT_SHA1_RAWSZ];
+            writeTo(ByteBuffer.wrap(hash));
             return hash;
         }
 
+        /**
+         * 在dst的当前position写入20字节
+         */
+        public void writeTo(ByteBuffer dst) {
+            dst.putLong(high).putLong(middle).putInt(low);
+        }
+
+        /**
+         * 与缓冲区中offset处的20字节比较，不修改缓冲区的position
+         */
+        public boolean matches(ByteBuffer buf, int offset) {
+            return buf.getLong(offset) == high && buf.getLong(offset + 8) == middle && buf.getInt(offset + 16) == low;
+        }
+
+        /**
+         * @return 前8个字节，可直接用作哈希表的哈希值
+         */
+        public long getPrefix() {
+            return high;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Id))
+                return false;
+            Id that = (Id) o;
+            return high == that.high && middle == that.middle && low == that.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high >>> 32);
+        }
+
         @Override
         public String toString() {
-            return Bytes.toHexString(hash);
+            return Bytes.toHexString(getHash());
         }
     }
 }
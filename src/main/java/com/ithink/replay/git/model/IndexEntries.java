@@ -0,0 +1,334 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * <p>按序号（从0开始）随机访问的、只读的有序索引条目集合<p/>
+ * <p>条目已按{@link CacheEntry#compareTo}的顺序排好，第i个条目即序号为i的条目，
+ * 因此{@link #first()}、{@link #last()}、{@link #contains(Object)}以及各个子集视图都通过二分查找实现，
+ * 不需要像{@link TreeSet}那样为每个条目维护树节点<p/>
+ * <p>各个子类决定条目在内存中的存储方式，{@link #get(int)}返回的条目可以是按需构建的视图<p/>
+ * <p>按路径名及stage查找条目见{@link #indexOf(byte[], int)}，复杂度为O(log n)<p/>
+ */
+public abstract class IndexEntries extends AbstractSet<CacheEntry> implements SortedSet<CacheEntry> {
+
+    /**
+     * 第一次调用{@link #getOidIndex()}时才构建
+     */
+    private volatile OidIndex oidIndex;
+
+    /**
+     * @param ordinal 条目的序号，范围为[0, size())
+     * @return 序号对应的条目，可以是按需构建的轻量视图，但必须能在任何使用{@link CacheEntry}的地方使用
+     * @exception IndexOutOfBoundsException 若序号超出范围
+     */
+    public abstract CacheEntry get(int ordinal);
+
+    @Override
+    public abstract int size();
+
+    @Override
+    public Iterator<CacheEntry> iterator() {
+        return new Iterator<CacheEntry>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public CacheEntry next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * 按自然顺序排序，即{@link CacheEntry#compareTo}
+     */
+    @Override
+    public Comparator<? super CacheEntry> comparator() {
+        return null;
+    }
+
+    @Override
+    public CacheEntry first() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return get(0);
+    }
+
+    @Override
+    public CacheEntry last() {
+        if (isEmpty())
+            throw new NoSuchElementException();
+        return get(size() - 1);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof CacheEntry))
+            return false;
+        CacheEntry e = (CacheEntry) o;
+        return indexOf(e.getName(), e.getFlags().getStage()) >= 0;
+    }
+
+    /**
+     * <p>获取从对象id到条目序号的哈希索引，第一次调用时构建，之后一直复用<p/>
+     * <p>构建需要遍历一遍所有条目，只按路径名查找的使用者不需要为此付出任何代价。可在多个线程中调用，只会构建一次<p/>
+     * @see OidIndex
+     */
+    public OidIndex getOidIndex() {
+        OidIndex index = oidIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = oidIndex;
+                if (index == null)
+                    oidIndex = index = new OidIndex(this);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 二分查找路径名及stage都相同的条目
+     * @param path 完整路径名
+     * @param stage 0表示未冲突的条目，1到3表示冲突时的各个stage
+     * @return 条目的序号；若不存在，则返回(-(插入点) - 1)，与{@link Arrays#binarySearch(int[], int)}一致
+     */
+    public int indexOf(byte[] path, int stage) {
+
+        int low = 0, high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compareAt(mid, path, stage);
+            if (result < 0)
+                low = mid + 1;
+            else if (result > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * @return 路径名及stage都相同的条目，若不存在则返回null
+     * @see #indexOf(byte[], int)
+     */
+    public CacheEntry get(byte[] path, int stage) {
+        int i = indexOf(path, stage);
+        return i < 0 ? null : get(i);
+    }
+
+    /**
+     * @return 指定路径名的所有stage的条目，按stage从小到大排列，若不存在则返回空集合
+     */
+    public IndexEntries getAll(byte[] path) {
+        return new Range(this, lowerBound(path, 0), lowerBound(path, 4));
+    }
+
+    @Override
+    public IndexEntries subSet(CacheEntry fromElement, CacheEntry toElement) {
+        if (fromElement.compareTo(toElement) > 0)
+            throw new IllegalArgumentException("fromElement > toElement");
+        return new Range(this, lowerBound(fromElement), lowerBound(toElement));
+    }
+
+    @Override
+    public IndexEntries headSet(CacheEntry toElement) {
+        return new Range(this, 0, lowerBound(toElement));
+    }
+
+    @Override
+    public IndexEntries tailSet(CacheEntry fromElement) {
+        return new Range(this, lowerBound(fromElement), size());
+    }
+
+    /**
+     * 比较序号为ordinal的条目与由path和stage表示的条目的大小，规则与{@link CacheEntry#compareTo}一致<br>
+     * 子类可以重写该方法，直接比较其内部存储的路径名，避免构建条目
+     */
+    protected int compareAt(int ordinal, byte[] path, int stage) {
+
+        CacheEntry e = get(ordinal);
+
+        int result = Bytes.compare(e.getName(), path);
+        if (result == 0)
+            result = Integer.compare(e.getFlags().getStage(), stage);
+
+        return result;
+    }
+
+    /**
+     * 获取序号为ordinal的条目的stage<br>
+     * 子类可以重写该方法，直接读取其内部存储的flags，避免构建条目
+     */
+    protected int stageAt(int ordinal) {
+        return get(ordinal).getFlags().getStage();
+    }
+
+    /**
+     * @return 序号在[from, to)范围内的条目的视图
+     */
+    IndexEntries range(int from, int to) {
+        return new Range(this, from, to);
+    }
+
+    /**
+     * @return 第一个不小于e的条目的序号，若所有条目都小于e，则返回size()
+     */
+    protected int lowerBound(CacheEntry e) {
+        return lowerBound(e.getName(), e.getFlags().getStage());
+    }
+
+    /**
+     * @return 第一个不小于由path和stage表示的条目的序号，若所有条目都更小，则返回size()
+     */
+    protected int lowerBound(byte[] path, int stage) {
+
+        int low = 0, high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareAt(mid, path, stage) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * 比较两个序号对应的条目的大小
+     */
+    protected interface OrdinalComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * 线性地检查一遍[0, size)范围内的序号是否已按comparator的顺序排列
+     */
+    protected static boolean isSorted(int size, OrdinalComparator comparator) {
+        for (int i = 1; i < size; i++) {
+            if (comparator.compare(i - 1, i) > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 将[0, size)范围内的序号按comparator的顺序稳定地排序，不需要装箱
+     * @return 排好序的序号，即结果中第i个元素为排序后第i个条目原来的序号
+     */
+    protected static int[] sortOrdinals(int size, OrdinalComparator comparator) {
+
+        int[] ordinals = new int[size];
+        for (int i = 0; i < size; i++)
+            ordinals[i] = i;
+
+        // 自底向上的归并排序
+        int[] temp = new int[size];
+        for (int width = 1; width < size; width <<= 1) {
+            for (int low = 0; low < size - width; low += width << 1) {
+                int mid = low + width, high = Math.min(low + (width << 1), size);
+                int i = low, j = mid, k = low;
+                while (i < mid && j < high)
+                    temp[k++] = comparator.compare(ordinals[i], ordinals[j]) <= 0 ? ordinals[i++] : ordinals[j++];
+                while (i < mid)
+                    temp[k++] = ordinals[i++];
+                while (j < high)
+                    temp[k++] = ordinals[j++];
+                System.arraycopy(temp, low, ordinals, low, high - low);
+            }
+        }
+
+        return ordinals;
+    }
+
+    /**
+     * 序号在[from, to)范围内的子集视图
+     */
+    private static class Range extends IndexEntries {
+
+        private final IndexEntries entries;
+        private final int from;
+        private final int to;
+
+        private Range(IndexEntries entries, int from, int to) {
+            this.entries    = entries;
+            this.from       = from;
+            this.to         = Math.max(from, to);
+        }
+
+        @Override
+        public CacheEntry get(int ordinal) {
+            if (ordinal < 0 || ordinal >= size())
+                throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size());
+            return entries.get(from + ordinal);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        protected int compareAt(int ordinal, byte[] path, int stage) {
+            return entries.compareAt(from + ordinal, path, stage);
+        }
+
+        @Override
+        protected int stageAt(int ordinal) {
+            return entries.stageAt(from + ordinal);
+        }
+
+    }
+
+    /**
+     * 按文件中的顺序逐个接收解析出的条目
+     */
+    public interface Sink {
+
+        /**
+         * 追加一个条目
+         * @param buf 条目的定长部分（从ctime到flags，共62字节，网络字节序；extended flag为1时还包括紧随其后的16位extended flags，共64字节）
+         *            所在的缓冲区，调用期间其position可能被修改
+         * @param offset 条目的定长部分在buf中的偏移量
+         * @param name 条目的完整路径名，只在本次调用期间有效，之后可能被复用；
+         *             为null时表示路径名就保存在buf中紧跟着定长部分的位置（即从offset + 62或offset + 64开始）
+         * @param nameLength 路径名的长度
+         */
+        void append(ByteBuffer buf, int offset, byte[] name, int nameLength);
+
+    }
+
+    /**
+     * <p>在解析时逐个追加条目，最后构建出{@link IndexEntries}<p/>
+     * <p>git总是按照{@link CacheEntry#compareTo}的顺序写出条目，因此构建时只线性地检查一遍顺序，
+     * 只有检查不通过时才需要排序<p/>
+     */
+    public interface Builder extends Sink {
+
+        /**
+         * 将另一个同类型builder中的所有条目，按顺序追加到本builder的末尾，用于合并并行解析的各个分块
+         * @exception IllegalArgumentException 若other与本builder的类型不同
+         */
+        void appendAll(Builder other);
+
+        /**
+         * @return 包含所有已追加条目的集合
+         */
+        IndexEntries build();
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.ithink.replay.git.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *      The Index Entry Offset Table (IEOT) is used to help address the CPU
+ *   cost of loading the index by enabling multi-threading the process of
+ *   converting cache entries from the on-disk format to the in-memory format.
+ * </p>
+ *
+ * <ul>
+ *     <li>32-bit version (currently 1)</li>
+ *     <li>
+ *         A number of index offset entries each consisting of:
+ *         <ul>
+ *             <li>32-bit offset from the beginning of the file to the first cache entry in this block of entries.</li>
+ *             <li>32-bit count of cache entries in this block</li>
+ *         </ul>
+ *     </li>
+ * </ul>
+ */
+public class IndexEntryOffsetTableExtension extends SupportedExtension<IndexEntryOffsetTableExtension.Entry> {
+
+    /**
+     * The signature for this extension is { 'I', 'E', 'O', 'T' }.
+     */
+    public static final int SIGNATURE = 0x49_45_4F_54;
+
+    public static final int VERSION = 1;
+
+    private final int version;
+
+    public IndexEntryOffsetTableExtension(byte[] data) {
+        super(SIGNATURE, data);
+        this.version = data.length < 4 ? 0 : ByteBuffer.wrap(data).getInt();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(version);
+        for (Entry entry : getEntries()) {
+            data.writeInt(entry.getOffset());
+            data.writeInt(entry.getCount());
+        }
+    }
+
+    @Override
+    protected List<Entry> convertEntries(byte[] data) {
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (data.length < 4 || buf.getInt(0) != VERSION)
+            return new ArrayList<>();
+
+        List<Entry> entries = new ArrayList<>((data.length - 4) >> 3);
+        for (int pos = 4; pos + 8 <= data.length; pos += 8)
+            entries.add(new Entry(buf.getInt(pos), buf.getInt(pos + 4)));
+
+        return entries;
+    }
+
+    /**
+     * 一个索引条目分块：分块中第一个条目的偏移量，以及分块中的条目数量
+     */
+    public static class Entry implements SupportedExtension.Entry {
+
+        private final int offset;
+        private final int count;
+
+        public Entry(int offset, int count) {
+            this.offset = offset;
+            this.count  = count;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public List<String> toLines() {
+            return Arrays.asList(
+                    "-   offset  : " + offset,
+                    "    count   : " + count
+            );
+        }
+
+    }
+
+}
@@ -3,10 +3,10 @@ package com.ithink.replay.git.model;
 import com.ithink.replay.git.util.Bytes;
 import com.ithink.replay.git.Displayable;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <pre>
@@ -52,24 +52,91 @@ import java.util.TreeSet;
 public class IndexState implements Displayable {
 
     private final CacheHeader header;
-    private final SortedSet<CacheEntry> sortedIndexEntries;
-    private final SortedSet<Extension> extensions = new TreeSet<>();
+    private final IndexEntries sortedIndexEntries;
+    /**
+     * 按在文件中出现的顺序排列的扩展，写回文件时保持该顺序
+     */
+    private final List<Extension> extensions = new ArrayList<>();
     private final byte[] checksum = new byte[20];
 
+    /**
+     * 校验和的校验结果，见{@link #getIntegrity()}
+     */
+    private volatile CompletableFuture<Boolean> integrity = CompletableFuture.completedFuture(false);
+
+    /**
+     * 第一次调用{@link #getConflicts()}时才构建
+     */
+    private volatile ConflictIndex conflicts;
+
+    /**
+     * 创建不包含任何索引条目的对象
+     */
     public IndexState(CacheHeader header) {
+        this(header, new ArrayIndexEntries.Builder(0).build());
+    }
+
+    /**
+     * @param header 头部
+     * @param sortedIndexEntries 已解析好的索引条目，例如{@link ArrayIndexEntries}或按列存储的{@link ColumnarIndexEntries}
+     */
+    public IndexState(CacheHeader header, IndexEntries sortedIndexEntries) {
         this.header = header;
-        this.sortedIndexEntries = new TreeSet<>();
+        this.sortedIndexEntries = sortedIndexEntries;
     }
 
     public CacheHeader getHeader() {
         return header;
     }
 
-    public SortedSet<CacheEntry> getSortedIndexEntries() {
+    public IndexEntries getSortedIndexEntries() {
         return sortedIndexEntries;
     }
 
-    public SortedSet<Extension> getExtensions() {
+    /**
+     * 通过二分查找获取路径名及stage都相同的索引条目
+     * @param path 完整路径名
+     * @param stage 0表示未冲突的条目，1到3表示冲突时的各个stage
+     * @return 对应的条目，若不存在则返回null
+     */
+    public CacheEntry getEntry(byte[] path, int stage) {
+        return sortedIndexEntries.get(path, stage);
+    }
+
+    /**
+     * 获取引用指定对象id的所有条目，第一次调用时构建{@link OidIndex}
+     * @param oid 对象id
+     * @return 引用该对象id的条目，按路径名及stage排列
+     */
+    public List<CacheEntry> getEntries(GitObject.Id oid) {
+        return sortedIndexEntries.getOidIndex().entriesOf(oid);
+    }
+
+    /**
+     * <p>获取按路径名查找冲突以及REUC记录的索引，第一次调用时扫描一遍各个条目的stage构建，之后一直复用<p/>
+     * <p>构建时使用当时{@link #getExtensions()}中的REUC扩展，之后再修改扩展列表不会反映到已构建的索引中。
+     * 可在多个线程中调用，只会构建一次<p/>
+     * @see ConflictIndex
+     */
+    public ConflictIndex getConflicts() {
+        ConflictIndex index = conflicts;
+        if (index == null) {
+            synchronized (this) {
+                index = conflicts;
+                if (index == null) {
+                    ResolveUndoExtension resolveUndo = null;
+                    for (Extension extension : extensions) {
+                        if (extension instanceof ResolveUndoExtension)
+                            resolveUndo = (ResolveUndoExtension) extension;
+                    }
+                    conflicts = index = new ConflictIndex(sortedIndexEntries, resolveUndo);
+                }
+            }
+        }
+        return index;
+    }
+
+    public List<Extension> getExtensions() {
         return extensions;
     }
 
@@ -77,6 +144,27 @@ public class IndexState implements Displayable {
         return checksum;
     }
 
+    /**
+     * <p>获取校验和的校验结果：结果为true表示已校验且一致，为false表示没有校验，
+     * 例如git以{@code index.skipHash}写出的、最后20字节全为0的文件，或者不是由文件解析得到的对象；
+     * 校验和不一致时以{@link IllegalStateException}异常结束<p/>
+     * <p>只有{@link com.ithink.replay.git.IndexStateResolver.Verification#ASYNC}方式下，
+     * 解析结果返回时校验可能尚未完成，可以通过{@link CompletableFuture#join()}等待，
+     * 或通过{@link CompletableFuture#whenComplete}注册回调；其余方式下返回的总是已经结束的future<p/>
+     */
+    public CompletableFuture<Boolean> getIntegrity() {
+        return integrity;
+    }
+
+    /**
+     * @param integrity 校验和的校验结果，由解析器设置，不能为null
+     */
+    public void setIntegrity(CompletableFuture<Boolean> integrity) {
+        if (integrity == null)
+            throw new IllegalArgumentException("integrity cannot be null");
+        this.integrity = integrity;
+    }
+
     @Override
     public List<String> toLines() {
 
@@ -108,4 +196,34 @@ public class IndexState implements Displayable {
         return strs;
     }
 
+    /**
+     * 逐个条目直接写出，不构建{@link #toLines()}中的列表，占用的内存与条目的数量无关
+     */
+    @Override
+    public void writeTo(Appendable out) throws IOException {
+
+        String nl = System.lineSeparator();
+
+        out.append("[header]").append(nl);
+        header.writeTo(out);
+        out.append(nl).append(nl);
+
+        out.append("[index entries]").append(nl);
+        for (CacheEntry entry : sortedIndexEntries) {
+            entry.writeTo(out);
+        }
+        out.append(nl).append(nl);
+
+        out.append("[extensions]").append(nl);
+        for (Extension extension : extensions) {
+            extension.writeTo(out);
+            out.append(nl);
+        }
+        out.append(nl).append(nl);
+
+        out.append("[SHA-1 checksum]").append(nl);
+        Bytes.appendHex(out, checksum);
+        out.append(nl);
+    }
+
 }
@@ -0,0 +1,284 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>延迟解码的索引条目集合<p/>
+ * <p>解析时只扫描一遍条目列表，为每个条目记录其在缓冲区中的起始偏移量以及路径名长度（分别保存在{@code int[]}和{@code short[]}中），
+ * stat data、mode、flags、object name以及路径名都要等到调用者访问该条目时，才从缓冲区中解码<p/>
+ * <p>适用于只访问少数条目的场景，每个条目的常驻内存开销只有6字节，但需要一直持有整个index文件的缓冲区
+ * （通常是映射到内存中的文件，在被回收之前，某些平台上无法删除或替换该文件）<p/>
+ * <p>版本4中路径名经过前缀压缩，必须依赖前一个条目才能还原，无法按偏移量单独解码，
+ * 因此扫描时会把还原出的路径名依次保存在一个字节数组中，其余字段依然延迟解码<p/>
+ * <p>所有访问都只使用按绝对位置读取的方法，可在多个线程中共享<p/>
+ */
+public class LazyIndexEntries extends IndexEntries {
+
+    private static final int OID_OFFSET   = 40;
+    private static final int FLAGS_OFFSET = 60;
+    private static final int NAME_OFFSET  = 62;
+
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    private final short[] nameLengths;
+    private final int size;
+
+    /**
+     * 版本4中还原出的所有路径名，第i个条目的路径名为[nameOffsets[i], nameOffsets[i + 1])；其他版本中都为null
+     */
+    private final byte[] names;
+    private final int[] nameOffsets;
+
+    private LazyIndexEntries(Builder builder) {
+        this.buffer         = builder.buffer;
+        this.offsets        = builder.offsets;
+        this.nameLengths    = builder.nameLengths;
+        this.size           = builder.size;
+        this.names          = builder.names == null ? null : Arrays.copyOf(builder.names, builder.nameOffsets[size]);
+        this.nameOffsets    = builder.nameOffsets;
+    }
+
+    @Override
+    public CacheEntry get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        return new View(ordinal);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    protected int compareAt(int ordinal, byte[] path, int stage) {
+
+        int result = names != null
+                ? Bytes.compare(names, nameOffsets[ordinal], nameLength(ordinal), path, 0, path.length)
+                : Bytes.compare(buffer, nameOffset(offsets[ordinal]), nameLength(ordinal), path, 0, path.length);
+        if (result == 0)
+            result = Integer.compare(CacheEntry.Flags.stageOf(buffer.getShort(offsets[ordinal] + FLAGS_OFFSET)), stage);
+
+        return result;
+    }
+
+    @Override
+    protected int stageAt(int ordinal) {
+        return CacheEntry.Flags.stageOf(buffer.getShort(offsets[ordinal] + FLAGS_OFFSET));
+    }
+
+    private int nameLength(int ordinal) {
+        return nameLengths[ordinal] & 0xFFFF;
+    }
+
+    /**
+     * @return 紧跟在定长部分之后的路径名的偏移量，extended flag为1时还需要跳过第二个16位flags
+     */
+    private int nameOffset(int offset) {
+        return offset + NAME_OFFSET + (CacheEntry.Flags.isExtended(buffer.getShort(offset + FLAGS_OFFSET)) ? 2 : 0);
+    }
+
+    /**
+     * 直接从缓冲区中解码各个字段的条目视图，只持有条目的序号
+     */
+    private class View extends CacheEntry {
+
+        private final int ordinal;
+
+        private View(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public GitObject.Id getOid() {
+            return GitObject.Id.of(buffer, offsets[ordinal] + OID_OFFSET);
+        }
+
+        @Override
+        public byte[] getName() {
+            if (names != null)
+                return Arrays.copyOfRange(names, nameOffsets[ordinal], nameOffsets[ordinal + 1]);
+            return read(nameOffset(offsets[ordinal]), nameLength(ordinal));
+        }
+
+        @Override
+        public StatData getStatData() {
+            int offset = offsets[ordinal];
+            return new StatData(
+                    buffer.getInt(offset),      buffer.getInt(offset + 4),
+                    buffer.getInt(offset + 8),  buffer.getInt(offset + 12),
+                    buffer.getInt(offset + 16), buffer.getInt(offset + 20),
+                    buffer.getInt(offset + 28), buffer.getInt(offset + 32), buffer.getInt(offset + 36)
+            );
+        }
+
+        @Override
+        public Mode getMode() {
+            return new Mode(buffer.getInt(offsets[ordinal] + 24));
+        }
+
+        @Override
+        public Flags getFlags() {
+            int offset = offsets[ordinal];
+            short flagsBits = buffer.getShort(offset + FLAGS_OFFSET);
+            return new Flags(flagsBits, Flags.isExtended(flagsBits) ? buffer.getShort(offset + NAME_OFFSET) : 0);
+        }
+
+        /**
+         * 使用独立的duplicate读取，不影响其他线程
+         */
+        private byte[] read(int from, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(from);
+            dup.get(bytes);
+            return bytes;
+        }
+
+    }
+
+    /**
+     * 在扫描条目列表时逐个记录条目的偏移量，构建{@link LazyIndexEntries}
+     */
+    public static class Builder implements IndexEntries.Builder {
+
+        private final ByteBuffer buffer;
+        private int[] offsets;
+        private short[] nameLengths;
+        private int size;
+
+        private byte[] names;
+        private int[] nameOffsets;
+
+        /**
+         * @param buffer 整个index文件的缓冲区，条目的偏移量都相对于它
+         * @param expectedCount 预计的条目数量，通常为头部中记录的条目数量
+         */
+        public Builder(ByteBuffer buffer, int expectedCount) {
+            this.buffer         = buffer;
+            this.offsets        = new int[Math.max(expectedCount, 1)];
+            this.nameLengths    = new short[offsets.length];
+        }
+
+        /**
+         * 只记录条目的偏移量及路径名长度，不读取任何字段
+         * @param buf 忽略，偏移量总是相对于构造时传入的缓冲区
+         * @param name 为null时路径名紧跟在定长部分之后；否则为版本4中还原出的路径名，需要保存下来
+         */
+        @Override
+        public void append(ByteBuffer buf, int offset, byte[] name, int nameLength) {
+
+            if (name != null && names == null) {
+                if (size > 0)
+                    throw new IllegalStateException("cannot mix prefix-compressed names with in-place names");
+                names       = new byte[offsets.length * 32];
+                nameOffsets = new int[offsets.length + 1];
+            }
+
+            append(offset, nameLength);
+
+            if (names != null) {
+                int from = nameOffsets[size - 1];
+                if (from + nameLength > names.length)
+                    names = Arrays.copyOf(names, Math.max(names.length * 2, from + nameLength));
+                System.arraycopy(name, 0, names, from, nameLength);
+                nameOffsets[size] = from + nameLength;
+            }
+        }
+
+        @Override
+        public void appendAll(IndexEntries.Builder other) {
+
+            if (!(other instanceof Builder))
+                throw new IllegalArgumentException("cannot append entries from " + other.getClass().getName());
+
+            Builder that = (Builder) other;
+            for (int i = 0; i < that.size; i++) {
+                if (that.names == null) {
+                    append(that.offsets[i], that.nameLengths[i] & 0xFFFF);
+                } else {
+                    byte[] name = Arrays.copyOfRange(that.names, that.nameOffsets[i], that.nameOffsets[i + 1]);
+                    append(buffer, that.offsets[i], name, name.length);
+                }
+            }
+        }
+
+        /**
+         * @param offset 条目在缓冲区中的起始偏移量
+         * @param nameLength 条目路径名的长度
+         */
+        public void append(int offset, int nameLength) {
+
+            if (nameLength > 0xFFFF)
+                throw new IllegalArgumentException("name too long: " + nameLength);
+
+            if (size == offsets.length) {
+                offsets     = Arrays.copyOf(offsets, size * 2);
+                nameLengths = Arrays.copyOf(nameLengths, size * 2);
+                if (nameOffsets != null)
+                    nameOffsets = Arrays.copyOf(nameOffsets, size * 2 + 1);
+            }
+
+            offsets[size]       = offset;
+            nameLengths[size]   = (short) nameLength;
+            size++;
+        }
+
+        private int compare(int a, int b) {
+
+            int lengthA = nameLengths[a] & 0xFFFF, lengthB = nameLengths[b] & 0xFFFF;
+            int result = names != null
+                    ? Bytes.compare(names, nameOffsets[a], lengthA, names, nameOffsets[b], lengthB)
+                    : Bytes.compare(buffer, nameOffset(offsets[a]), lengthA, buffer, nameOffset(offsets[b]), lengthB);
+            if (result == 0)
+                result = Byte.compare(
+                        CacheEntry.Flags.stageOf(buffer.getShort(offsets[a] + FLAGS_OFFSET)),
+                        CacheEntry.Flags.stageOf(buffer.getShort(offsets[b] + FLAGS_OFFSET))
+                );
+
+            return result;
+        }
+
+        private int nameOffset(int offset) {
+            return offset + NAME_OFFSET + (CacheEntry.Flags.isExtended(buffer.getShort(offset + FLAGS_OFFSET)) ? 2 : 0);
+        }
+
+        /**
+         * 线性地检查一遍顺序，只有未按顺序排列时才重新排列偏移量
+         */
+        @Override
+        public LazyIndexEntries build() {
+
+            if (!isSorted(size, this::compare)) {
+                int[] order = sortOrdinals(size, this::compare);
+                int[] sortedOffsets = new int[size];
+                short[] sortedLengths = new short[size];
+                byte[] sortedNames = names == null ? null : new byte[nameOffsets[size]];
+                int[] sortedNameOffsets = names == null ? null : new int[size + 1];
+                for (int i = 0; i < size; i++) {
+                    int from = order[i];
+                    sortedOffsets[i] = offsets[from];
+                    sortedLengths[i] = nameLengths[from];
+                    if (names != null) {
+                        int length = nameLengths[from] & 0xFFFF;
+                        System.arraycopy(names, nameOffsets[from], sortedNames, sortedNameOffsets[i], length);
+                        sortedNameOffsets[i + 1] = sortedNameOffsets[i] + length;
+                    }
+                }
+                offsets     = sortedOffsets;
+                nameLengths = sortedLengths;
+                if (names != null) {
+                    names       = sortedNames;
+                    nameOffsets = sortedNameOffsets;
+                }
+            }
+
+            return new LazyIndexEntries(this);
+        }
+
+    }
+
+}
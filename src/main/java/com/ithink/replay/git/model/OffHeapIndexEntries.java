@@ -0,0 +1,297 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>保存在堆外内存中的索引条目集合，用于数百万条目以上的index文件<p/>
+ * <p>所有条目按{@link #STRIDE}字节的固定步长依次保存在一个直接缓冲区（{@link ByteBuffer#allocateDirect}）中，
+ * 第i个条目从i * STRIDE开始，因此按序号访问不需要任何偏移量表；每个条目的布局为：<p/>
+ * <pre>
+ *     0   与文件中相同的定长部分：ctime、mtime、dev、ino、mode、uid、gid、size、object name以及flags，共62字节
+ *     62  16位extended flags，extended flag为0时为0
+ *     64  32位路径名在路径名缓冲区中的偏移量
+ *     68  32位路径名的长度
+ * </pre>
+ * <p>所有路径名（版本4中为还原后的完整路径名）依次保存在另一个直接缓冲区中。
+ * 解析完成后不再引用index文件的缓冲区，堆上只有两个缓冲区对象本身，与条目的数量无关；
+ * 只有条目未按顺序排列时，构建时才需要一个临时的序号数组来重新排列各个条目<p/>
+ * <p>{@link #get(int)}返回的条目视图只持有序号，访问其字段时才从缓冲区中解码。
+ * 构建完成后两个缓冲区都是只读的，所有访问都只使用按绝对位置读取的方法，可在多个线程中共享<p/>
+ * <p>直接缓冲区的总大小受{@code -XX:MaxDirectMemorySize}限制（默认与最大堆相同），
+ * 每个条目约占{@link #STRIDE}字节加上路径名的长度；单个缓冲区最大2GB，因此最多约2900万个条目<p/>
+ */
+public class OffHeapIndexEntries extends IndexEntries {
+
+    /**
+     * 每个条目占用的字节数
+     */
+    public static final int STRIDE = 72;
+
+    private static final int OID_OFFSET             = 40;
+    private static final int FLAGS_OFFSET           = 60;
+    private static final int EXTENDED_FLAGS_OFFSET  = 62;
+    private static final int NAME_OFFSET_OFFSET     = 64;
+    private static final int NAME_LENGTH_OFFSET     = 68;
+
+    private final ByteBuffer records;
+    private final ByteBuffer names;
+    private final int size;
+
+    private OffHeapIndexEntries(ByteBuffer records, ByteBuffer names, int size) {
+        this.records    = records.asReadOnlyBuffer();
+        this.names      = names.asReadOnlyBuffer();
+        this.size       = size;
+    }
+
+    @Override
+    public CacheEntry get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        return new View(ordinal);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 所有条目以及路径名占用的堆外内存的字节数
+     */
+    public long getOffHeapSize() {
+        return (long) records.capacity() + names.capacity();
+    }
+
+    @Override
+    protected int compareAt(int ordinal, byte[] path, int stage) {
+
+        int record = ordinal * STRIDE;
+        int result = Bytes.compare(names, records.getInt(record + NAME_OFFSET_OFFSET), records.getInt(record + NAME_LENGTH_OFFSET),
+                path, 0, path.length);
+        if (result == 0)
+            result = Integer.compare(CacheEntry.Flags.stageOf(records.getShort(record + FLAGS_OFFSET)), stage);
+
+        return result;
+    }
+
+    @Override
+    protected int stageAt(int ordinal) {
+        return CacheEntry.Flags.stageOf(records.getShort(ordinal * STRIDE + FLAGS_OFFSET));
+    }
+
+    /**
+     * 直接从缓冲区中解码各个字段的条目视图，只持有条目的序号
+     */
+    private class View extends CacheEntry {
+
+        private final int record;
+
+        private View(int ordinal) {
+            this.record = ordinal * STRIDE;
+        }
+
+        @Override
+        public GitObject.Id getOid() {
+            return GitObject.Id.of(records, record + OID_OFFSET);
+        }
+
+        @Override
+        public byte[] getName() {
+            byte[] bytes = new byte[records.getInt(record + NAME_LENGTH_OFFSET)];
+            // 使用独立的duplicate读取，不影响其他线程
+            ByteBuffer dup = names.duplicate();
+            dup.position(records.getInt(record + NAME_OFFSET_OFFSET));
+            dup.get(bytes);
+            return bytes;
+        }
+
+        @Override
+        public StatData getStatData() {
+            return new StatData(
+                    records.getInt(record),      records.getInt(record + 4),
+                    records.getInt(record + 8),  records.getInt(record + 12),
+                    records.getInt(record + 16), records.getInt(record + 20),
+                    records.getInt(record + 28), records.getInt(record + 32), records.getInt(record + 36)
+            );
+        }
+
+        @Override
+        public Mode getMode() {
+            return new Mode(records.getInt(record + 24));
+        }
+
+        @Override
+        public Flags getFlags() {
+            return new Flags(records.getShort(record + FLAGS_OFFSET), records.getShort(record + EXTENDED_FLAGS_OFFSET));
+        }
+
+    }
+
+    /**
+     * 逐个将条目拷贝到堆外的缓冲区中，构建{@link OffHeapIndexEntries}
+     */
+    public static class Builder implements IndexEntries.Builder {
+
+        private ByteBuffer records;
+        private ByteBuffer names;
+        private int size;
+
+        /**
+         * 路径名缓冲区中已使用的字节数
+         */
+        private int namesSize;
+
+        /**
+         * 从文件的缓冲区拷贝路径名时使用的临时数组
+         */
+        private byte[] scratch = new byte[256];
+
+        /**
+         * @param expectedCount 预计的条目数量，通常为头部中记录的条目数量，据此一次性分配好条目缓冲区
+         */
+        public Builder(int expectedCount) {
+            int capacity = Math.max(expectedCount, 1);
+            this.records    = ByteBuffer.allocateDirect(recordsCapacity(capacity));
+            this.names      = ByteBuffer.allocateDirect(namesCapacity((long) capacity * 32));
+        }
+
+        private static int recordsCapacity(long count) {
+            if (count * STRIDE > Integer.MAX_VALUE)
+                throw new IllegalStateException("条目过多，无法保存在单个堆外缓冲区中：" + count);
+            return (int) (count * STRIDE);
+        }
+
+        private static int namesCapacity(long bytes) {
+            return (int) Math.min(bytes, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void append(ByteBuffer buf, int offset, byte[] name, int nameLength) {
+
+            ensureRecordCapacity(size + 1);
+            ensureNameCapacity(namesSize + nameLength);
+
+            int record = size * STRIDE;
+
+            // 定长部分与文件中的布局相同，按int、long依次拷贝
+            for (int i = 0; i < 40; i += 4)
+                records.putInt(record + i, buf.getInt(offset + i));
+            records.putLong(record + OID_OFFSET,      buf.getLong(offset + OID_OFFSET));
+            records.putLong(record + OID_OFFSET + 8,  buf.getLong(offset + OID_OFFSET + 8));
+            records.putInt(record + OID_OFFSET + 16,  buf.getInt(offset + OID_OFFSET + 16));
+
+            short flagsBits     = buf.getShort(offset + FLAGS_OFFSET);
+            boolean extended    = CacheEntry.Flags.isExtended(flagsBits);
+            records.putShort(record + FLAGS_OFFSET, flagsBits);
+            records.putShort(record + EXTENDED_FLAGS_OFFSET, extended ? buf.getShort(offset + EXTENDED_FLAGS_OFFSET) : 0);
+            records.putInt(record + NAME_OFFSET_OFFSET, namesSize);
+            records.putInt(record + NAME_LENGTH_OFFSET, nameLength);
+
+            if (name == null) {
+                if (scratch.length < nameLength)
+                    scratch = new byte[Math.max(scratch.length * 2, nameLength)];
+                buf.position(offset + (extended ? 64 : 62));
+                buf.get(scratch, 0, nameLength);
+                name = scratch;
+            }
+            names.position(namesSize);
+            names.put(name, 0, nameLength);
+            namesSize += nameLength;
+
+            size++;
+        }
+
+        @Override
+        public void appendAll(IndexEntries.Builder other) {
+
+            if (!(other instanceof Builder))
+                throw new IllegalArgumentException("cannot append entries from " + other.getClass().getName());
+
+            Builder that = (Builder) other;
+            ensureRecordCapacity(size + that.size);
+            ensureNameCapacity(namesSize + that.namesSize);
+
+            ByteBuffer src = that.records.duplicate();
+            src.limit(that.size * STRIDE).position(0);
+            records.position(size * STRIDE);
+            records.put(src);
+
+            // 被追加的条目的路径名都排在已有的路径名之后
+            for (int i = 0; i < that.size; i++) {
+                int record = (size + i) * STRIDE + NAME_OFFSET_OFFSET;
+                records.putInt(record, records.getInt(record) + namesSize);
+            }
+
+            src = that.names.duplicate();
+            src.limit(that.namesSize).position(0);
+            names.position(namesSize);
+            names.put(src);
+
+            size += that.size;
+            namesSize += that.namesSize;
+        }
+
+        private void ensureRecordCapacity(int count) {
+            if ((long) count * STRIDE > records.capacity())
+                records = grow(records, recordsCapacity(Math.max((long) size * 2, count)), size * STRIDE);
+        }
+
+        private void ensureNameCapacity(long bytes) {
+            if (bytes > Integer.MAX_VALUE)
+                throw new IllegalStateException("路径名过多，无法保存在单个堆外缓冲区中：" + bytes + " bytes");
+            if (bytes > names.capacity())
+                names = grow(names, namesCapacity(Math.max((long) names.capacity() * 2, bytes)), namesSize);
+        }
+
+        /**
+         * 分配新的直接缓冲区，并拷贝原缓冲区中前used个字节，原缓冲区的内存在其被回收时释放
+         */
+        private static ByteBuffer grow(ByteBuffer buffer, int capacity, int used) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            ByteBuffer src = buffer.duplicate();
+            src.limit(used).position(0);
+            grown.put(src);
+            return grown;
+        }
+
+        private int compare(int a, int b) {
+
+            int recordA = a * STRIDE, recordB = b * STRIDE;
+            int result = Bytes.compare(
+                    names, records.getInt(recordA + NAME_OFFSET_OFFSET), records.getInt(recordA + NAME_LENGTH_OFFSET),
+                    names, records.getInt(recordB + NAME_OFFSET_OFFSET), records.getInt(recordB + NAME_LENGTH_OFFSET)
+            );
+            if (result == 0)
+                result = Byte.compare(
+                        CacheEntry.Flags.stageOf(records.getShort(recordA + FLAGS_OFFSET)),
+                        CacheEntry.Flags.stageOf(records.getShort(recordB + FLAGS_OFFSET))
+                );
+
+            return result;
+        }
+
+        /**
+         * 线性地检查一遍顺序，只有未按顺序排列时才按排好的顺序将各个条目拷贝到新的缓冲区中，路径名不需要移动
+         */
+        @Override
+        public OffHeapIndexEntries build() {
+
+            if (!isSorted(size, this::compare)) {
+                int[] order = sortOrdinals(size, this::compare);
+                ByteBuffer sorted = ByteBuffer.allocateDirect(recordsCapacity(Math.max(size, 1)));
+                ByteBuffer src = records.duplicate();
+                for (int i = 0; i < size; i++) {
+                    src.limit(order[i] * STRIDE + STRIDE).position(order[i] * STRIDE);
+                    sorted.put(src);
+                }
+                records = sorted;
+            }
+
+            return new OffHeapIndexEntries(records, names, size);
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.ithink.replay.git.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>从对象id到条目序号的哈希索引，用于回答“哪些路径引用了某个对象”，由{@link IndexEntries#getOidIndex()}在第一次使用时构建<p/>
+ * <p>开放寻址（线性探测）的哈希表，槽位数为不少于条目数量2倍的2的幂。每个槽位只保存基本类型：
+ * 对象id的前8个字节（SHA-1本身是均匀分布的，直接用作哈希值），以及引用该对象id的第一个条目的序号。
+ * 引用同一个对象id的其余条目通过按序号索引的数组串成升序的链表，
+ * 因此即使大量条目引用同一个对象（例如空文件），探测序列也不会变长<p/>
+ * <p>查找时不装箱、不创建任何对象，期望复杂度为O(1)；前8个字节相同时再比较完整的对象id<p/>
+ */
+public class OidIndex {
+
+    private final IndexEntries entries;
+
+    private final int mask;
+
+    /**
+     * 各个槽位中对象id的前8个字节
+     */
+    private final long[] prefixes;
+
+    /**
+     * 各个槽位中第一个条目的序号加1，为0时表示空槽位
+     */
+    private final int[] heads;
+
+    /**
+     * 下标为条目的序号，值为引用同一个对象id的下一个条目的序号加1，为0时表示没有下一个
+     */
+    private final int[] next;
+
+    OidIndex(IndexEntries entries) {
+
+        int size = entries.size();
+        int capacity = Integer.highestOneBit(Math.max(size * 2 - 1, 1)) << 1;
+        if (capacity <= 0)
+            throw new IllegalStateException("条目过多，无法构建对象id索引：" + size);
+
+        this.entries    = entries;
+        this.mask       = capacity - 1;
+        this.prefixes   = new long[capacity];
+        this.heads      = new int[capacity];
+        this.next       = new int[size];
+
+        // 从后往前插入到链表头部，链表中的序号就是升序的
+        for (int ordinal = size - 1; ordinal >= 0; ordinal--)
+            insert(ordinal, entries.get(ordinal).getOid());
+    }
+
+    private void insert(int ordinal, GitObject.Id oid) {
+
+        long prefix = oid.getPrefix();
+        int slot = slotOf(prefix);
+        while (heads[slot] != 0) {
+            if (prefixes[slot] == prefix && oidAt(heads[slot] - 1).equals(oid)) {
+                next[ordinal] = heads[slot];
+                heads[slot] = ordinal + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        prefixes[slot]  = prefix;
+        heads[slot]     = ordinal + 1;
+    }
+
+    private int slotOf(long prefix) {
+        return (int) (prefix >>> 32) & mask;
+    }
+
+    private GitObject.Id oidAt(int ordinal) {
+        return entries.get(ordinal).getOid();
+    }
+
+    /**
+     * @param oid 对象id
+     * @return 引用该对象id的序号最小的条目的序号，不存在时返回-1
+     */
+    public int first(GitObject.Id oid) {
+
+        if (oid == null)
+            throw new IllegalArgumentException("oid cannot be null");
+
+        long prefix = oid.getPrefix();
+        int slot = slotOf(prefix);
+        while (heads[slot] != 0) {
+            if (prefixes[slot] == prefix && oidAt(heads[slot] - 1).equals(oid))
+                return heads[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param ordinal {@link #first(GitObject.Id)}或本方法返回的序号
+     * @return 引用同一个对象id的下一个条目的序号，不存在时返回-1
+     */
+    public int next(int ordinal) {
+        return next[ordinal] - 1;
+    }
+
+    public boolean contains(GitObject.Id oid) {
+        return first(oid) >= 0;
+    }
+
+    /**
+     * @return 引用该对象id的条目的数量
+     */
+    public int count(GitObject.Id oid) {
+        int count = 0;
+        for (int i = first(oid); i >= 0; i = next(i))
+            count++;
+        return count;
+    }
+
+    /**
+     * @return 引用该对象id的所有条目的序号，升序排列
+     */
+    public int[] ordinalsOf(GitObject.Id oid) {
+        int[] ordinals = new int[4];
+        int count = 0;
+        for (int i = first(oid); i >= 0; i = next(i)) {
+            if (count == ordinals.length)
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+            ordinals[count++] = i;
+        }
+        return Arrays.copyOf(ordinals, count);
+    }
+
+    /**
+     * @return 引用该对象id的所有条目，按路径名及stage排列
+     */
+    public List<CacheEntry> entriesOf(GitObject.Id oid) {
+        List<CacheEntry> list = new ArrayList<>();
+        for (int i = first(oid); i >= 0; i = next(i))
+            list.add(entries.get(i));
+        return list;
+    }
+
+}
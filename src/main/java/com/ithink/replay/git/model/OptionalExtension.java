@@ -2,6 +2,8 @@ package com.ithink.replay.git.model;
 
 import com.ithink.replay.git.util.Bytes;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,6 +24,11 @@ public class OptionalExtension extends Extension {
         return data;
     }
 
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+        out.write(data);
+    }
+
     @Override
     public List<String> dataLines() {
 
@@ -35,4 +42,14 @@ public class OptionalExtension extends Extension {
         return lines;
     }
 
+    /**
+     * 逐行将数据编码为十六进制直接写出，不构建整个列表
+     */
+    @Override
+    protected void writeDataLines(Appendable out) throws IOException {
+        String nl = System.lineSeparator();
+        out.append("data: ").append(nl);
+        Bytes.appendHexLines(out, data, "\t", nl);
+    }
+
 }
@@ -0,0 +1,450 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * <p>按前缀压缩（front coding）保存的有序路径名集合，与LevelDB/SSTable中数据块的编码方式相同<p/>
+ * <p>index中的路径名已排好序，相邻的路径名通常有很长的公共目录前缀，因此每个路径名只保存与上一个路径名不同的后缀：<p/>
+ * <pre>
+ *     varint 与上一个路径名的公共前缀的长度（shared）
+ *     varint 后缀的长度（unshared）
+ *     unshared个字节的后缀
+ * </pre>
+ * <p>每{@link #getRestartInterval() restartInterval}个路径名为一块，每块的第一个路径名为重启点，其shared总是0，即保存完整的路径名，
+ * 另有一个int数组记录各个重启点的偏移量。因此：<p/>
+ * <ul>
+ *     <li>按路径名查找时先在各个重启点之间二分查找，再在块内顺序比较，不需要还原出任何路径名，见{@link #lowerBound(byte[])}</li>
+ *     <li>按序号随机访问时从所在块的重启点开始解码，最多解码restartInterval个路径名，见{@link #copy(int, byte[], int)}</li>
+ *     <li>顺序遍历时每个路径名只需要拷贝其后缀，见{@link Cursor}</li>
+ * </ul>
+ * <p>每个路径名的开销约为2字节加上后缀的长度，再加上每块4字节的重启点偏移量；
+ * 相比之下，每个路径名一个{@code byte[]}时为16字节的对象头、路径名的完整长度以及对齐，再加上一个4到8字节的引用<p/>
+ * <p>构建完成后不可修改，可在多个线程中共享<p/>
+ */
+public class PathDictionary {
+
+    /**
+     * 默认每块的路径名数量，与LevelDB的默认值相同
+     */
+    public static final int DEFAULT_RESTART_INTERVAL = 16;
+
+    private final byte[] data;
+
+    /**
+     * 第i个重启点，即第i * restartInterval个路径名在data中的偏移量
+     */
+    private final int[] restarts;
+
+    private final int restartInterval;
+
+    private final int size;
+
+    private final int maxLength;
+
+    private PathDictionary(Builder builder) {
+        this.data               = Arrays.copyOf(builder.data, builder.dataSize);
+        this.restarts           = Arrays.copyOf(builder.restarts, (builder.size + builder.restartInterval - 1) / builder.restartInterval);
+        this.restartInterval    = builder.restartInterval;
+        this.size               = builder.size;
+        this.maxLength          = builder.maxLength;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * @return 最长的路径名的长度，顺序解码时调用者提供的缓冲区至少要这么长
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return 编码后的路径名以及重启点偏移量占用的字节数，不含数组的对象头
+     */
+    public long getEncodedSize() {
+        return data.length + 4L * restarts.length;
+    }
+
+    /**
+     * @return 第ordinal个路径名的长度，只解码其所在块中位于其之前的各个路径名的长度
+     */
+    public int getLength(int ordinal) {
+
+        checkOrdinal(ordinal);
+
+        int p = restarts[ordinal / restartInterval];
+        for (int i = ordinal % restartInterval; ; i--) {
+            int shared = readVarint(data, p);
+            p += varintSize(shared);
+            int unshared = readVarint(data, p);
+            if (i == 0)
+                return shared + unshared;
+            p += varintSize(unshared) + unshared;
+        }
+    }
+
+    /**
+     * @return 第ordinal个路径名的拷贝
+     */
+    public byte[] get(int ordinal) {
+        byte[] path = new byte[getLength(ordinal)];
+        copy(ordinal, path, 0);
+        return path;
+    }
+
+    /**
+     * 将第ordinal个路径名还原到dst中从offset开始的位置。从所在块的重启点开始依次应用各个后缀，
+     * 只写入dst的剩余空间之内的部分，因此只要dst能放下该路径名即可，不需要能放下块内更长的路径名
+     * @return 路径名的长度
+     * @exception IndexOutOfBoundsException 若dst中从offset开始的空间放不下该路径名
+     */
+    public int copy(int ordinal, byte[] dst, int offset) {
+
+        checkOrdinal(ordinal);
+
+        int capacity = dst.length - offset;
+        int p = restarts[ordinal / restartInterval];
+        for (int i = ordinal % restartInterval; ; i--) {
+            int shared = readVarint(data, p);
+            p += varintSize(shared);
+            int unshared = readVarint(data, p);
+            p += varintSize(unshared);
+
+            if (shared < capacity)
+                System.arraycopy(data, p, dst, offset + shared, Math.min(unshared, capacity - shared));
+            p += unshared;
+
+            if (i == 0) {
+                int length = shared + unshared;
+                if (length > capacity)
+                    throw new IndexOutOfBoundsException("path length: " + length + ", capacity: " + capacity);
+                return length;
+            }
+        }
+    }
+
+    /**
+     * 比较第ordinal个路径名与path的大小，规则与{@link Bytes#compare(byte[], byte[])}一致。
+     * 从所在块的重启点开始依次比较，每个路径名只比较其后缀中必要的字节，不需要还原出任何路径名
+     */
+    public int compare(int ordinal, byte[] path) {
+
+        checkOrdinal(ordinal);
+
+        int state = 0;
+        int p = restarts[ordinal / restartInterval];
+        for (int i = ordinal % restartInterval; ; i--) {
+            int shared = readVarint(data, p);
+            p += varintSize(shared);
+            int unshared = readVarint(data, p);
+            p += varintSize(unshared);
+
+            state = advance(state, p, shared, unshared, path);
+            if (i == 0)
+                return resultOf(state);
+            p += unshared;
+        }
+    }
+
+    /**
+     * 二分查找路径名
+     * @return 第一个等于path的路径名的序号；若不存在，则返回(-(插入点) - 1)，与{@link Arrays#binarySearch(int[], int)}一致
+     */
+    public int indexOf(byte[] path) {
+
+        if (path == null)
+            throw new IllegalArgumentException("path cannot be null");
+
+        // 找到最后一个重启点小于path的块，path若存在则只可能在该块中，或者是下一块的重启点
+        int low = 0, high = restarts.length - 1, block = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareRestart(mid, path) < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int ordinal = block * restartInterval, end = Math.min(size, ordinal + restartInterval);
+        int state = 0;
+        for (int p = restarts.length == 0 ? 0 : restarts[block]; ordinal < end; ordinal++) {
+            int shared = readVarint(data, p);
+            p += varintSize(shared);
+            int unshared = readVarint(data, p);
+            p += varintSize(unshared);
+
+            state = advance(state, p, shared, unshared, path);
+            int result = resultOf(state);
+            if (result == 0)
+                return ordinal;
+            if (result > 0)
+                return -(ordinal + 1);
+            p += unshared;
+        }
+
+        // 块内的路径名都更小，下一块的重启点不小于path
+        return end < size && compareRestart(block + 1, path) == 0 ? end : -(end + 1);
+    }
+
+    /**
+     * @return 第一个不小于path的路径名的序号，若所有路径名都更小，则返回size()
+     */
+    public int lowerBound(byte[] path) {
+        int i = indexOf(path);
+        return i < 0 ? -(i + 1) : i;
+    }
+
+    /**
+     * @param from 第一个解码的路径名的序号，范围为[0, size()]
+     * @param buffer 解码的目标缓冲区，长度至少为{@link #getMaxLength()}
+     * @return 从第from个路径名开始顺序解码的游标
+     */
+    public Cursor cursor(int from, byte[] buffer) {
+        return new Cursor(from, buffer);
+    }
+
+    /**
+     * <p>已知上一个路径名与path的公共前缀长度及比较结果，求出位于p处的路径名与path的公共前缀长度及比较结果，
+     * 只比较其后缀中必要的字节：<p/>
+     * <ul>
+     *     <li>shared大于上一个公共前缀长度m时，本路径名在m处的字节与上一个路径名相同，结果也相同</li>
+     *     <li>否则本路径名的前shared个字节都与path相同，从shared处开始比较其后缀</li>
+     * </ul>
+     * @param state 上一个路径名的结果，公共前缀长度左移2位，再加上比较结果 + 1；块内第一个路径名之前为0
+     */
+    private int advance(int state, int p, int shared, int unshared, byte[] path) {
+
+        if (shared > state >>> 2)
+            return state;
+
+        int n = Math.min(unshared, path.length - shared);
+        int i = Bytes.mismatch(data, p, path, shared, n);
+
+        int matched, result;
+        if (i < 0) {
+            matched = shared + n;
+            result  = Integer.compare(shared + unshared, path.length);
+        } else {
+            matched = shared + i;
+            result  = Integer.compare(data[p + i] & 0xff, path[matched] & 0xff);
+        }
+
+        return matched << 2 | (result + 1);
+    }
+
+    /**
+     * 比较第block个重启点的路径名与path的大小，重启点的shared总是0，只占1个字节
+     */
+    private int compareRestart(int block, byte[] path) {
+        int p = restarts[block] + 1;
+        int length = readVarint(data, p);
+        return Bytes.compare(data, p + varintSize(length), length, path, 0, path.length);
+    }
+
+    private static int resultOf(int state) {
+        return (state & 3) - 1;
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+    }
+
+    private static int readVarint(byte[] bytes, int p) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[p++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int n = 1;
+        while ((value >>>= 7) != 0)
+            n++;
+        return n;
+    }
+
+    /**
+     * <p>按顺序将各个路径名依次解码到调用者提供的缓冲区中，每个路径名只拷贝其后缀，不分配任何对象：<p/>
+     * <pre>
+     * PathDictionary.Cursor cursor = paths.cursor(0, new byte[paths.getMaxLength()]);
+     * for (int length; (length = cursor.next()) >= 0; )
+     *     // 当前路径名为buffer中的前length个字节
+     * </pre>
+     * <p>缓冲区中的内容在下一次调用{@link #next()}时被覆盖；游标本身不是线程安全的<p/>
+     */
+    public class Cursor {
+
+        private final byte[] buffer;
+
+        /**
+         * 下一个路径名的序号及其在data中的偏移量
+         */
+        private int next;
+        private int position;
+
+        private Cursor(int from, byte[] buffer) {
+
+            if (from < 0 || from > size)
+                throw new IndexOutOfBoundsException("from: " + from + ", size: " + size);
+            if (buffer.length < maxLength)
+                throw new IllegalArgumentException("buffer length " + buffer.length + " is less than max length " + maxLength);
+
+            this.buffer = buffer;
+
+            // 从所在块的重启点开始，先还原出第from个之前的路径名
+            int block = from / restartInterval;
+            this.next       = block * restartInterval;
+            this.position   = block < restarts.length ? restarts[block] : data.length;
+            while (next < from)
+                next();
+        }
+
+        /**
+         * 解码下一个路径名
+         * @return 路径名的长度，已没有更多的路径名时返回-1
+         */
+        public int next() {
+
+            if (next >= size)
+                return -1;
+
+            int shared = readVarint(data, position);
+            position += varintSize(shared);
+            int unshared = readVarint(data, position);
+            position += varintSize(unshared);
+
+            System.arraycopy(data, position, buffer, shared, unshared);
+            position += unshared;
+            next++;
+
+            return shared + unshared;
+        }
+
+        /**
+         * @return 最近一次{@link #next()}解码的路径名的序号
+         */
+        public int ordinal() {
+            return next - 1;
+        }
+
+        public byte[] getBuffer() {
+            return buffer;
+        }
+
+    }
+
+    /**
+     * 按顺序逐个追加路径名，构建{@link PathDictionary}
+     */
+    public static class Builder {
+
+        private final int restartInterval;
+
+        private byte[] data = new byte[1024];
+        private int dataSize;
+
+        private int[] restarts = new int[16];
+
+        private int size;
+
+        private int maxLength;
+
+        /**
+         * 上一个路径名，用于计算公共前缀以及检查顺序
+         */
+        private byte[] last = new byte[256];
+        private int lastLength;
+
+        public Builder() {
+            this(DEFAULT_RESTART_INTERVAL);
+        }
+
+        /**
+         * @param restartInterval 每块的路径名数量，越大越省内存，随机访问及查找时块内需要解码的路径名也越多
+         */
+        public Builder(int restartInterval) {
+            if (restartInterval <= 0)
+                throw new IllegalArgumentException("restartInterval must be positive: " + restartInterval);
+            this.restartInterval = restartInterval;
+        }
+
+        /**
+         * 追加一个路径名
+         * @param name 路径名所在的数组
+         * @param offset 路径名在name中的偏移量
+         * @param length 路径名的长度
+         * @exception IllegalArgumentException 若路径名小于上一个路径名
+         */
+        public void add(byte[] name, int offset, int length) {
+
+            int shared = 0;
+            if (size > 0) {
+                int n = Math.min(lastLength, length);
+                int i = Bytes.mismatch(last, 0, name, offset, n);
+                if (i < 0 ? lastLength > length : (last[i] & 0xff) > (name[offset + i] & 0xff))
+                    throw new IllegalArgumentException("paths must be added in sorted order");
+                shared = i < 0 ? n : i;
+            }
+
+            if (size % restartInterval == 0) {
+                if (size / restartInterval == restarts.length)
+                    restarts = Arrays.copyOf(restarts, restarts.length * 2);
+                restarts[size / restartInterval] = dataSize;
+                shared = 0;
+            }
+
+            int unshared = length - shared;
+            ensureCapacity(dataSize + 10 + unshared);
+            dataSize = writeVarint(data, dataSize, shared);
+            dataSize = writeVarint(data, dataSize, unshared);
+            System.arraycopy(name, offset + shared, data, dataSize, unshared);
+            dataSize += unshared;
+
+            if (last.length < length)
+                last = Arrays.copyOf(last, Math.max(last.length * 2, length));
+            System.arraycopy(name, offset + shared, last, shared, unshared);
+            lastLength = length;
+
+            maxLength = Math.max(maxLength, length);
+            size++;
+        }
+
+        public void add(byte[] name) {
+            add(name, 0, name.length);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, capacity));
+        }
+
+        private static int writeVarint(byte[] bytes, int p, int value) {
+            while ((value & ~0x7f) != 0) {
+                bytes[p++] = (byte) (value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            bytes[p++] = (byte) value;
+            return p;
+        }
+
+        public PathDictionary build() {
+            return new PathDictionary(this);
+        }
+
+    }
+
+}
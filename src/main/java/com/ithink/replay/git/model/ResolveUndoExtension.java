@@ -1,5 +1,10 @@
 package com.ithink.replay.git.model;
 
+import com.ithink.replay.git.util.Bytes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -16,6 +21,10 @@ import java.util.*;
  *   "git checkout -m"), in case users want to redo a conflict resolution
  *   from scratch.
  *  </p>
+ *  <p>解析时只扫描一遍扩展数据，检查其格式并记下每条记录的位置，不为记录创建任何对象；
+ *  {@link #getEntries()}返回只读的列表，各条记录在第一次被读取时才解码。
+ *  git按路径名的顺序写出这些记录，因此{@link #find(byte[])}直接二分查找，
+ *  只有记录未按顺序排列时才在解析时额外排序一次，之后都为O(log n)<p/>
  */
 public class ResolveUndoExtension extends SupportedExtension<ResolveUndoExtension.Entry> {
 
@@ -24,69 +33,240 @@ public class ResolveUndoExtension extends SupportedExtension<ResolveUndoExtensio
      */
     public static final int SIGNATURE = 0x52_45_55_43;
 
+    /**
+     * 不含任何对象、只记录各条记录位置的列表，即{@link #getEntries()}
+     */
+    private final Records records;
+
+    /**
+     * @exception IllegalStateException 若数据不符合REUC扩展的格式
+     */
     public ResolveUndoExtension(byte[] data) {
 
         super(SIGNATURE, data);
+        this.records = (Records) getEntries();
+
+    }
+
+    /**
+     * 按路径名二分查找记录，只解码找到的记录
+     * @param path 完整路径名
+     * @return 对应的记录，不存在时返回null
+     */
+    public Entry find(byte[] path) {
+        int i = records.indexOf(path);
+        return i < 0 ? null : records.get(i);
+    }
+
+    public Entry find(String path) {
+        return find(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 按路径名二分查找，不解码任何记录
+     */
+    public boolean contains(byte[] path) {
+        return records.indexOf(path) >= 0;
+    }
+
+    /**
+     * 按解析时的格式，依次写出各个条目的路径名、3个八进制的entry mode，以及存在的stage的object name
+     */
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+
+        for (Entry entry : getEntries()) {
+
+            out.write(entry.getPathName());
+            out.write(0);
+
+            Entry.ResolveUndoInfoItem[] info = entry.getInfo();
+            for (Entry.ResolveUndoInfoItem item : info) {
+                out.write(Integer.toOctalString(item.getMode().toBits()).getBytes(StandardCharsets.US_ASCII));
+                out.write(0);
+            }
+            for (Entry.ResolveUndoInfoItem item : info) {
+                if (item.getOid() != null)
+                    out.write(item.getOid().getHash());
+            }
+        }
 
     }
 
     @Override
     protected List<Entry> convertEntries(byte[] data) {
+        return new Records(data);
+    }
 
-        ArrayList<Entry> entries = new ArrayList<>();
-        byte[] stage0 = {0x30};    // Integer.toOctalString(0).getBytes();
+    /**
+     * 按文件中的顺序排列的记录，只保存各条记录在数据中的偏移量以及路径名的长度，
+     * 读取时才解码，解码后的记录被缓存，可在多个线程中读取
+     */
+    private static class Records extends AbstractList<Entry> implements RandomAccess {
 
-        byte[][] byteses = new byte[4][];
-        int mark = 0, pos = 1;
-        while (pos < data.length) {
+        private static final int RAWSZ = GitObject.Id.GIT_SHA1_RAWSZ;
 
-            /*
-             * 读取path name以及3个entry mode
-             */
-            for (int i = 0; i < 4; i++) {
+        private final byte[] data;
+        private final int size;
+        private final int[] offsets;
+        private final int[] pathLengths;
 
-                while (pos < data.length && data[pos] != 0x0)
-                    pos ++;
+        /**
+         * 按路径名排好序的记录的序号，记录本身已按路径名排列时为null
+         */
+        private final int[] sorted;
 
-                int offset = pos - mark;
-                byte[] bytes = byteses[i] = new byte[offset];
-                System.arraycopy(data, mark, bytes, 0, offset);
+        /**
+         * 已解码的记录，Entry的字段都是final的，因此并发读取时最多重复解码
+         */
+        private final Entry[] decoded;
 
-                mark = pos + 1;
-                pos = mark + 1;
-            }
+        private Records(byte[] data) {
 
-            byte[] pathName = byteses[0];
-            Entry entry = new Entry(pathName);
+            int[] offsets = new int[16], pathLengths = new int[16];
+            int size = 0;
 
-            Entry.ResolveUndoInfoItem[] info = entry.getInfo();
-            /*
-             * 遍历3个entry mode，并生成对应的对象的object name（根据其转化为32bit整形时是否为0，来判断额外读取20字节还是空字节）
-             * 再讲每个entry mode,及生成的object name组合成info item，依次设置为entry的 info item
-             */
-            for (int i = 1; i < 4; i++) {
+            int pos = 0;
+            while (pos < data.length) {
 
-                int mode                    = Integer.valueOf(new String(byteses[i]), 8);
-                byte[] objectName           = null;
+                int path = pos;
+                int pathEnd = indexOfNul(data, pos);
+                pos = pathEnd;
 
-                if (!Arrays.equals(byteses[i], stage0)) {
-                    int size = GitObject.Id.GIT_SHA1_RAWSZ;
+                int count = 0;
+                for (int i = 0; i < 3; i++) {
+                    int end = indexOfNul(data, pos + 1);
+                    if (parseMode(data, pos + 1, end) != 0)
+                        count++;
+                    pos = end;
+                }
 
-                    objectName = new byte[size];
-                    System.arraycopy(data, mark, objectName, 0, size);
+                pos += 1 + count * RAWSZ;
+                if (pos > data.length)
+                    throw new IllegalStateException("REUC扩展中的记录不完整：" + new String(data, path, pathEnd - path));
 
-                    mark += size;
-                    pos = mark + 1;
+                if (size == offsets.length) {
+                    offsets     = Arrays.copyOf(offsets, size * 2);
+                    pathLengths = Arrays.copyOf(pathLengths, size * 2);
                 }
+                offsets[size]       = path;
+                pathLengths[size]   = pathEnd - path;
+                size++;
+            }
+
+            this.data           = data;
+            this.size           = size;
+            this.offsets        = offsets;
+            this.pathLengths    = pathLengths;
+            this.decoded        = new Entry[size];
+            this.sorted         = IndexEntries.isSorted(size, this::comparePaths)
+                                        ? null
+                                        : IndexEntries.sortOrdinals(size, this::comparePaths);
+        }
+
+        /**
+         * @return 从from开始的第一个NUL的位置
+         * @exception IllegalStateException 若直到数据末尾都没有NUL
+         */
+        private static int indexOfNul(byte[] data, int from) {
+            int i = from;
+            while (i < data.length && data[i] != 0)
+                i++;
+            if (i >= data.length)
+                throw new IllegalStateException("REUC扩展中的字段没有以NUL结尾，位置：" + from);
+            return i;
+        }
 
-                info[i - 1] = new Entry.ResolveUndoInfoItem(objectName, mode);
+        /**
+         * @return [from, to)范围内的八进制数
+         * @exception IllegalStateException 若为空或包含八进制数字以外的字符
+         */
+        private static int parseMode(byte[] data, int from, int to) {
+            if (from == to)
+                throw new IllegalStateException("REUC扩展中的entry mode为空，位置：" + from);
+            int mode = 0;
+            for (int i = from; i < to; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 7)
+                    throw new IllegalStateException("REUC扩展中的entry mode不是八进制数，位置：" + from);
+                mode = mode << 3 | digit;
             }
+            return mode;
+        }
+
+        private int comparePaths(int a, int b) {
+            return Bytes.compare(data, offsets[a], pathLengths[a], data, offsets[b], pathLengths[b]);
+        }
+
+        /**
+         * @return 路径名为path的记录的序号，不存在时返回-1
+         */
+        int indexOf(byte[] path) {
+
+            if (path == null)
+                throw new IllegalArgumentException("path cannot be null");
+
+            int low = 0, high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int i = sorted == null ? mid : sorted[mid];
+                int result = Bytes.compare(data, offsets[i], pathLengths[i], path, 0, path.length);
+                if (result < 0)
+                    low = mid + 1;
+                else if (result > 0)
+                    high = mid - 1;
+                else
+                    return i;
+            }
+
+            return -1;
+        }
 
-            entries.add(entry);
+        @Override
+        public Entry get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            Entry entry = decoded[index];
+            if (entry == null)
+                decoded[index] = entry = decode(index);
+            return entry;
         }
 
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 解码一条记录：路径名、3个entry mode，以及mode不为0的stage的object name
+         */
+        private Entry decode(int index) {
+
+            int offset = offsets[index];
+            byte[] pathName = Arrays.copyOfRange(data, offset, offset + pathLengths[index]);
+
+            int[] modes = new int[3];
+            int pos = offset + pathLengths[index];
+            for (int i = 0; i < 3; i++) {
+                int end = indexOfNul(data, pos + 1);
+                modes[i] = parseMode(data, pos + 1, end);
+                pos = end;
+            }
+            pos++;
+
+            Entry.ResolveUndoInfoItem[] info = new Entry.ResolveUndoInfoItem[3];
+            for (int i = 0; i < 3; i++) {
+                byte[] objectName = null;
+                if (modes[i] != 0) {
+                    objectName = Arrays.copyOfRange(data, pos, pos + RAWSZ);
+                    pos += RAWSZ;
+                }
+                info[i] = new Entry.ResolveUndoInfoItem(objectName, modes[i]);
+            }
+
+            return new Entry(pathName, info);
+        }
 
-        return entries;
     }
 
     /**
@@ -111,10 +291,24 @@ public class ResolveUndoExtension extends SupportedExtension<ResolveUndoExtensio
     public static class Entry implements SupportedExtension.Entry {
 
         private final byte[] lost;
-        private final ResolveUndoInfoItem[] ui = new ResolveUndoInfoItem[3];
+        private final ResolveUndoInfoItem[] ui;
 
         public Entry(byte[] pathName) {
-            this.lost = pathName;
+            this(pathName, new ResolveUndoInfoItem[3]);
+        }
+
+        /**
+         * @param info stage 1到3的entry mode及object name，长度必须为3
+         */
+        public Entry(byte[] pathName, ResolveUndoInfoItem[] info) {
+            if (info == null || info.length != 3)
+                throw new IllegalArgumentException("info must have exactly 3 items");
+            this.lost   = pathName;
+            this.ui     = info;
+        }
+
+        public byte[] getPathName() {
+            return lost;
         }
 
         public ResolveUndoInfoItem[] getInfo() {
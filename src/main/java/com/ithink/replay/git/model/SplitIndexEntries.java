@@ -0,0 +1,290 @@
+package com.ithink.replay.git.model;
+
+import java.util.BitSet;
+
+/**
+ * <p>split index模式下，在共享index文件的条目之上应用link扩展中的删除、替换位图，并加入新增条目之后得到的最终条目集合<p/>
+ * <p>不复制任何条目，只按顺序记录最终的每个条目来自共享index文件还是本文件（下称delta），以及其在来源中的序号，
+ * 因此共享index文件的解析结果可以被多次加载的delta复用，合并的代价只与delta的大小以及共享条目的数量成正比，
+ * 不需要重新解码任何共享条目<p/>
+ * <p>被替换的条目在delta中通常不保存路径名，其路径名取自被替换的共享条目，其余字段都取自delta<p/>
+ */
+public class SplitIndexEntries extends IndexEntries {
+
+    private static final byte[] EMPTY_NAME = new byte[0];
+
+    private final IndexEntries shared;
+    private final IndexEntries delta;
+
+    /**
+     * 最终的第i个条目：非负数表示共享条目的序号，负数v表示delta中序号为(-v - 1)的条目
+     */
+    private final int[] ordinals;
+    private final int size;
+
+    /**
+     * delta中被用作替换的条目（即路径名为空的条目，位于delta的最前面）的数量
+     */
+    private final int replacementCount;
+
+    /**
+     * 下标为替换位图中的第k个为1的位，值为替换该共享条目的delta条目的序号，即这些条目在delta文件中的顺序
+     */
+    private final int[] replacements;
+
+    /**
+     * 下标为delta中被用作替换的条目的序号，值为被其替换的共享条目的序号
+     */
+    private final int[] replaced;
+
+    private SplitIndexEntries(IndexEntries shared, IndexEntries delta, int[] ordinals, int size,
+                              int replacementCount, int[] replacements, int[] replaced) {
+        this.shared             = shared;
+        this.delta              = delta;
+        this.ordinals           = ordinals;
+        this.size               = size;
+        this.replacementCount   = replacementCount;
+        this.replacements       = replacements;
+        this.replaced           = replaced;
+    }
+
+    /**
+     * <p>按git的做法合并：先替换，再删除，最后按顺序加入其余的delta条目。
+     * 加入的条目与已有的条目的路径名及stage都相同时替换已有的条目，stage为0时还会移除同一路径名的其他stage<p/>
+     * <p>delta中路径名为空的条目排序后都位于最前面，且同一stage的条目之间保持在文件中的顺序，
+     * 因此按stage将它们依次分配给替换位图中的各个共享条目<p/>
+     * @param shared 共享index文件中的条目
+     * @param delta 本文件中的条目
+     * @param link 本文件中的link扩展
+     * @return 合并后的条目
+     * @exception IllegalStateException 若位图与条目不一致
+     */
+    public static SplitIndexEntries merge(IndexEntries shared, IndexEntries delta, SplitIndexExtension link) {
+
+        BitSet deleted = link.getDeleteBitmap();
+        BitSet replace = link.getReplaceBitmap();
+
+        if (deleted.length() > shared.size() || replace.length() > shared.size())
+            throw new IllegalStateException("link扩展的位图超出了共享index文件的条目数量" + shared.size());
+
+        int replacementCount = delta.lowerBound(EMPTY_NAME, 4);
+        if (replace.cardinality() != replacementCount)
+            throw new IllegalStateException("link扩展的替换位图中有" + replace.cardinality()
+                    + "个条目，但index文件中有" + replacementCount + "个路径名为空的条目");
+
+        /*
+            为替换位图中的每个共享条目找到同一stage的下一个路径名为空的delta条目
+         */
+        int[] next = new int[4], end = new int[4];
+        for (int stage = 0; stage < 4; stage++) {
+            next[stage] = delta.lowerBound(EMPTY_NAME, stage);
+            end[stage]  = delta.lowerBound(EMPTY_NAME, stage + 1);
+        }
+
+        int[] replacePositions  = new int[replacementCount];
+        int[] replacements      = new int[replacementCount];
+        int[] replaced          = new int[replacementCount];
+        for (int k = 0, p = replace.nextSetBit(0); p >= 0; k++, p = replace.nextSetBit(p + 1)) {
+
+            if (deleted.get(p))
+                throw new IllegalStateException("共享index文件中的第" + p + "个条目同时被替换和删除");
+
+            int stage = shared.get(p).getFlags().getStage();
+            if (next[stage] == end[stage])
+                throw new IllegalStateException("找不到替换共享index文件中第" + p + "个条目的条目");
+
+            int d = next[stage]++;
+            replacePositions[k] = p;
+            replacements[k]     = d;
+            replaced[d]         = p;
+        }
+
+        /*
+            按顺序归并共享条目与新增的delta条目
+         */
+        int[] ordinals = new int[shared.size() + delta.size() - replacementCount];
+        Merger merger = new Merger(shared, deleted, replacePositions, replacements, ordinals);
+        for (int d = replacementCount; d < delta.size(); d++) {
+
+            CacheEntry added = delta.get(d);
+            byte[] name = added.getName();
+            int stage = added.getFlags().getStage();
+
+            int pos = shared.indexOf(name, stage);
+            boolean exists = pos >= 0;
+            if (!exists)
+                pos = -(pos + 1);
+
+            merger.copyTo(pos);
+            ordinals[merger.size++] = -(d + 1);
+            if (exists)
+                merger.skip(pos + 1);
+
+            // 加入stage为0的条目时，同一路径名的其他stage都被移除
+            if (stage == 0)
+                merger.skip(shared.lowerBound(name, 4));
+        }
+        merger.copyTo(shared.size());
+
+        return new SplitIndexEntries(shared, delta, ordinals, merger.size, replacementCount, replacements, replaced);
+    }
+
+    /**
+     * 按顺序复制共享条目的序号，跳过被删除的条目，并将被替换的条目换成对应的delta条目
+     */
+    private static class Merger {
+
+        private final IndexEntries shared;
+        private final BitSet deleted;
+        private final int[] replacePositions;
+        private final int[] replacements;
+        private final int[] ordinals;
+
+        private int position;
+        private int replacement;
+        private int size;
+
+        private Merger(IndexEntries shared, BitSet deleted, int[] replacePositions, int[] replacements, int[] ordinals) {
+            this.shared             = shared;
+            this.deleted            = deleted;
+            this.replacePositions   = replacePositions;
+            this.replacements       = replacements;
+            this.ordinals           = ordinals;
+        }
+
+        /**
+         * 复制序号在[position, to)范围内的共享条目
+         */
+        private void copyTo(int to) {
+
+            for (; position < to; position++) {
+
+                while (replacement < replacePositions.length && replacePositions[replacement] < position)
+                    replacement++;
+
+                if (deleted.get(position))
+                    continue;
+
+                if (replacement < replacePositions.length && replacePositions[replacement] == position)
+                    ordinals[size++] = -(replacements[replacement] + 1);
+                else
+                    ordinals[size++] = position;
+            }
+
+        }
+
+        /**
+         * 丢弃序号小于to的、尚未复制的共享条目
+         */
+        private void skip(int to) {
+            position = Math.max(position, Math.min(to, shared.size()));
+        }
+
+    }
+
+    @Override
+    public CacheEntry get(int ordinal) {
+
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+
+        int v = ordinals[ordinal];
+        if (v >= 0)
+            return shared.get(v);
+
+        int d = -(v + 1);
+        return d < replacementCount ? new Replacement(delta.get(d), shared.get(replaced[d]).getName())
+                                    : delta.get(d);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    protected int compareAt(int ordinal, byte[] path, int stage) {
+
+        int v = ordinals[ordinal];
+        if (v >= 0)
+            return shared.compareAt(v, path, stage);
+
+        int d = -(v + 1);
+        return d < replacementCount ? shared.compareAt(replaced[d], path, stage)
+                                    : delta.compareAt(d, path, stage);
+    }
+
+    @Override
+    protected int stageAt(int ordinal) {
+        int v = ordinals[ordinal];
+        return v >= 0 ? shared.stageAt(v) : delta.stageAt(-(v + 1));
+    }
+
+    /**
+     * @return 共享index文件中的条目
+     */
+    public IndexEntries getShared() {
+        return shared;
+    }
+
+    /**
+     * @return 本文件（delta）中的条目数量
+     */
+    public int getDeltaSize() {
+        return delta.size();
+    }
+
+    /**
+     * 按在delta文件中的顺序获取其中的条目：先是按替换位图的顺序排列的、路径名为空的替换条目，然后是新增的条目，
+     * 用于将delta原样写回文件
+     * @param i 条目在delta文件中的序号，范围为[0, getDeltaSize())
+     */
+    public CacheEntry getDeltaEntry(int i) {
+        return delta.get(i < replacementCount ? replacements[i] : i);
+    }
+
+    /**
+     * 被替换的共享条目：路径名取自共享条目，其余字段取自delta中的条目
+     */
+    private static class Replacement extends CacheEntry {
+
+        private final CacheEntry entry;
+        private final byte[] name;
+
+        private Replacement(CacheEntry entry, byte[] name) {
+            this.entry  = entry;
+            this.name   = name;
+        }
+
+        @Override
+        public GitObject.Id getOid() {
+            return entry.getOid();
+        }
+
+        @Override
+        public byte[] getName() {
+            return name;
+        }
+
+        @Override
+        public StatData getStatData() {
+            return entry.getStatData();
+        }
+
+        @Override
+        public Mode getMode() {
+            return entry.getMode();
+        }
+
+        /**
+         * delta中记录的路径名长度为0，换成实际的路径名长度
+         */
+        @Override
+        public Flags getFlags() {
+            Flags flags = entry.getFlags();
+            return new Flags((short) (flags.toBits() & ~0xFFF | Math.min(name.length, 0xFFF)), flags.toExtendedBits());
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Ewah;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <p>
+ *      A split index is stored in a shared index file and this file. The
+ *   extension records the changes to be made on top of the shared index
+ *   to produce the final index.
+ * </p>
+ *
+ * <ul>
+ *     <li>
+ *         160-bit SHA-1 of the shared index file. The shared index file path
+ *     is $GIT_DIR/sharedindex.&lt;SHA-1 (hex)&gt;. If all bits are zero, the
+ *     index does not require a shared index file.
+ *     </li>
+ *     <li>
+ *         An ewah-encoded delete bitmap, each bit represents an entry in the
+ *     shared index. If a bit is set, its corresponding entry in the
+ *     shared index will be removed from the final index.
+ *     </li>
+ *     <li>
+ *         An ewah-encoded replace bitmap, each bit represents an entry in
+ *     the shared index. If a bit is set, its corresponding entry in the
+ *     shared index will be replaced with an entry in this index
+ *     file. All replaced entries are stored in sorted order in this
+ *     index. The first "1" bit in the replace bitmap corresponds to the
+ *     first index entry, the second "1" bit to the second entry and so
+ *     on. Replaced entries may have empty path names to save space.
+ *     </li>
+ * </ul>
+ *
+ * <p>
+ *      The remaining index entries after replaced ones will be added to the
+ *   final index. These added entries are also sorted by entry name then
+ *   stage.
+ * </p>
+ */
+public class SplitIndexExtension extends Extension {
+
+    /**
+     * The signature for this extension is { 'l', 'i', 'n', 'k' }.
+     */
+    public static final int SIGNATURE = 0x6C_69_6E_6B;
+
+    /**
+     * 原始的扩展数据，写回文件时原样写出
+     */
+    private final byte[] data;
+
+    private final GitObject.Id sharedIndexId;
+    private final BitSet deleteBitmap = new BitSet();
+    private final BitSet replaceBitmap = new BitSet();
+
+    /**
+     * @exception IllegalStateException 若数据不完整，或两个位图之后还有多余的数据
+     */
+    public SplitIndexExtension(byte[] data) {
+        super(SIGNATURE, data);
+
+        if (data.length < GitObject.Id.GIT_SHA1_RAWSZ)
+            throw new IllegalStateException("link扩展的数据不完整：" + data.length + " bytes");
+
+        this.data = data;
+
+        byte[] hash = Arrays.copyOf(data, GitObject.Id.GIT_SHA1_RAWSZ);
+        this.sharedIndexId = isNull(hash) ? null : new GitObject.Id(hash);
+
+        int pos = GitObject.Id.GIT_SHA1_RAWSZ;
+        if (pos < data.length) {
+            pos += Ewah.read(data, pos, deleteBitmap);
+            pos += Ewah.read(data, pos, replaceBitmap);
+            if (pos != data.length)
+                throw new IllegalStateException("link扩展的位图之后还有多余的数据");
+        }
+    }
+
+    private static boolean isNull(byte[] hash) {
+        for (byte b : hash) {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 共享index文件的SHA-1，即其末尾的校验和；不需要共享index文件时返回null
+     */
+    public GitObject.Id getSharedIndexId() {
+        return sharedIndexId;
+    }
+
+    /**
+     * @return 需要从共享index文件中删除的条目的序号，每次都返回新的副本，扩展本身不可修改
+     */
+    public BitSet getDeleteBitmap() {
+        return (BitSet) deleteBitmap.clone();
+    }
+
+    /**
+     * @return 需要被本文件中的条目替换的共享index文件中的条目的序号，每次都返回新的副本
+     */
+    public BitSet getReplaceBitmap() {
+        return (BitSet) replaceBitmap.clone();
+    }
+
+    @Override
+    public void writeData(OutputStream out) throws IOException {
+        out.write(data);
+    }
+
+    @Override
+    protected List<String> dataLines() {
+        return Arrays.asList(
+                "    shared_index : " + sharedIndexId,
+                "    delete       : " + deleteBitmap,
+                "    replace      : " + replaceBitmap
+        );
+    }
+
+}
@@ -2,6 +2,7 @@ package com.ithink.replay.git.model;
 
 import com.ithink.replay.git.Displayable;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,16 +12,20 @@ public abstract class SupportedExtension<E extends SupportedExtension.Entry>
     /**
      * A series of entries fill the entire extension;
      */
-    private final List<E> entries = new ArrayList<>();
+    private final List<E> entries;
 
     protected SupportedExtension(int signature, byte[] data) {
         super(signature, data);
-        entries.addAll(convertEntries(data));
+        this.entries = convertEntries(data);
     }
 
+    /**
+     * 解析扩展数据，返回的列表原样作为{@link #getEntries()}的结果，
+     * 子类可以返回按需解码各个条目的只读列表
+     */
     protected abstract List<E> convertEntries(byte[] data);
 
-    public List<? extends Entry> getEntries() {
+    public List<E> getEntries() {
         return entries;
     }
 
@@ -38,6 +43,19 @@ public abstract class SupportedExtension<E extends SupportedExtension.Entry>
         return strs;
     }
 
+    /**
+     * 逐个条目写出，只为当前条目构建其各行
+     */
+    @Override
+    protected void writeDataLines(Appendable out) throws IOException {
+        String nl = System.lineSeparator();
+        out.append("    entries:").append(nl);
+        for (Entry entry : entries) {
+            for (String str : entry.toLines())
+                out.append('\t').append(str).append(nl);
+        }
+    }
+
 
     interface Entry extends Displayable {
 
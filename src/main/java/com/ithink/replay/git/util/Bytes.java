@@ -1,6 +1,15 @@
 package com.ithink.replay.git.util;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -14,6 +23,17 @@ public class Bytes {
             '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
     };
 
+    /**
+     * 每行的字节数，及其格式化后的最大字符数
+     */
+    private static final int HEX_LINE_BYTES = 16;
+    private static final int HEX_LINE_CHARS = HEX_LINE_BYTES * 2 + HEX_LINE_BYTES / 2 - 1;
+
+    /**
+     * 流式输出时每个线程复用的字符数组，足够容纳一个对象id或一行十六进制数
+     */
+    private static final ThreadLocal<char[]> HEX_BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+
     /**
      *  将字节数组转化为十六进制的字符串，从高到底位。<br>
      *  例如：以下代码的效果是等效的
@@ -30,13 +50,10 @@ public class Bytes {
         if (bytes == null)
             return "null";
 
-        StringBuilder sb = new StringBuilder();
-
-        for (byte b : bytes)
-            sb.append(digits[b >>> 4 & 0xf])
-                .append(digits[b & 0xf]);
+        char[] chars = new char[bytes.length * 2];
+        toHexChars(bytes, 0, bytes.length, chars, 0);
 
-        return sb.toString();
+        return new String(chars);
 
     }
 
@@ -60,28 +77,122 @@ public class Bytes {
         if (bytes.length == 0)
             return Collections.singletonList("");
 
+        char[] line = new char[HEX_LINE_CHARS];
+        List<String> strs = new ArrayList<>((bytes.length >> 4) + 1);
 
-        StringBuilder sb = new StringBuilder();
-        List<String> strs = new ArrayList<>(bytes.length >> 3 + 1);
+        for (int from = 0; from < bytes.length; from += HEX_LINE_BYTES)
+            strs.add(new String(line, 0, toHexLine(bytes, from, line)));
 
-        for (int i = 0; i < bytes.length; i++) {
-            char firstHex   = digits[bytes[i] >>> 4 & 0xf],
-                 secondHex  = digits[bytes[i] & 0xf];
-            sb.append(firstHex).append(secondHex);
+        return strs;
+    }
 
-            boolean isEvenOne          = (i & 0x1) == 0x1,
-                    isLastOneInLine    = (i & 0xf) == 0xf,
-                    isLastOne          = i == bytes.length - 1;
-            if (isLastOneInLine || isLastOne) {
-                strs.add(sb.toString());
-                sb.setLength(0);
-            } else if (isEvenOne) {
-                sb.append(' ');
-            }
+    /**
+     * 将bytes中从offset开始的length个字节编码为十六进制字符，写入dst中从dstOffset开始的位置
+     * @return 写入的字符数，即length的2倍
+     */
+    public static int toHexChars(byte[] bytes, int offset, int length, char[] dst, int dstOffset) {
+
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[offset + i];
+            dst[dstOffset++] = digits[b >>> 4 & 0xf];
+            dst[dstOffset++] = digits[b & 0xf];
         }
 
+        return length * 2;
+    }
 
-        return strs;
+    /**
+     * 按{@link #toHexLines(byte[])}的格式，将从from开始的一行（至多16字节）编码到dst中
+     * @return 写入的字符数
+     */
+    private static int toHexLine(byte[] bytes, int from, char[] dst) {
+
+        int to = Math.min(from + HEX_LINE_BYTES, bytes.length);
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            dst[n++] = digits[bytes[i] >>> 4 & 0xf];
+            dst[n++] = digits[bytes[i] & 0xf];
+            if ((i & 0x1) == 0x1 && i != to - 1)
+                dst[n++] = ' ';
+        }
+
+        return n;
+    }
+
+    /**
+     * 与{@link #toHexString(byte[])}的结果相同，但直接写入out，编码时使用当前线程复用的字符数组，不创建字符串
+     * @param out 接收字符的目标
+     * @param bytes 要编码的字节数组，为null时写入"null"
+     * @exception IOException 若写入out时I/O发生错误
+     */
+    public static void appendHex(Appendable out, byte[] bytes) throws IOException {
+
+        if (bytes == null) {
+            out.append("null");
+            return;
+        }
+
+        char[] buffer = HEX_BUFFER.get();
+        int chunk = buffer.length / 2;
+        for (int from = 0; from < bytes.length; from += chunk) {
+            int length = Math.min(chunk, bytes.length - from);
+            append(out, buffer, toHexChars(bytes, from, length, buffer, 0));
+        }
+
+    }
+
+    /**
+     * 与{@link #toHexLines(byte[])}的格式相同，但逐行直接写入out，不创建字符串
+     * @param out 接收字符的目标
+     * @param bytes 要编码的字节数组
+     * @param prefix 每行开头的字符串
+     * @param lineSeparator 每行结尾的换行符
+     * @exception IOException 若写入out时I/O发生错误
+     */
+    public static void appendHexLines(Appendable out, byte[] bytes, String prefix, String lineSeparator) throws IOException {
+
+        if (bytes == null)
+            throw new IllegalArgumentException("bytes cannot be null");
+
+        if (bytes.length == 0) {
+            out.append(prefix).append(lineSeparator);
+            return;
+        }
+
+        char[] buffer = HEX_BUFFER.get();
+        for (int from = 0; from < bytes.length; from += HEX_LINE_BYTES) {
+            out.append(prefix);
+            append(out, buffer, toHexLine(bytes, from, buffer));
+            out.append(lineSeparator);
+        }
+
+    }
+
+    /**
+     * {@link Writer}与{@link StringBuilder}可以直接写入字符数组，其余的只能包装为{@link CharSequence}
+     */
+    private static void append(Appendable out, char[] chars, int length) throws IOException {
+        if (out instanceof Writer)
+            ((Writer) out).write(chars, 0, length);
+        else if (out instanceof StringBuilder)
+            ((StringBuilder) out).append(chars, 0, length);
+        else
+            out.append(CharBuffer.wrap(chars, 0, length));
+    }
+
+    /**
+     * Java 9及以上的{@code Arrays.mismatch(byte[], int, int, byte[], int, int)}，由JIT编译为向量指令；
+     * 在Java 8中不存在，为null
+     */
+    private static final MethodHandle ARRAYS_MISMATCH = findArraysMismatch();
+
+    private static MethodHandle findArraysMismatch() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Arrays.class, "mismatch", MethodType.methodType(
+                    int.class, byte[].class, int.class, int.class, byte[].class, int.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
     }
 
     /**
@@ -89,20 +200,141 @@ public class Bytes {
      * 规则：<br>
      *     从下标为0的开始往后比较相同下标对应的元素，若得出结果则直接返回，否则继续往后比较<br>
      *     若两个数组中下标相同的两个元素都相等，则判断两个数组的长度<br>
+     * 元素按无符号字节比较，与git中的memcmp()顺序一致<br>
+     * 实现上先找到第一个不同的字节（见{@link #mismatch}），而不是逐个字节比较大小，较长的公共前缀（例如同一目录下的路径名）可以被成块地跳过<br>
      */
     public static int compare(byte[] bytesA, byte[] bytesB) {
 
         if (bytesA == null || bytesB == null)
             throw new IllegalArgumentException("both byteA and byteB cannot be null");
 
-        int la = bytesA.length, lb = bytesB.length;
+        return compare(bytesA, 0, bytesA.length, bytesB, 0, bytesB.length);
+    }
+
+    /**
+     * 比较两个字节数组中指定片段的大小，规则与{@link #compare(byte[], byte[])}一致，但不需要先把片段拷贝出来
+     */
+    public static int compare(byte[] bytesA, int offsetA, int lengthA,
+                              byte[] bytesB, int offsetB, int lengthB) {
+
+        if (bytesA == null || bytesB == null)
+            throw new IllegalArgumentException("both byteA and byteB cannot be null");
+
+        int i = mismatch(bytesA, offsetA, bytesB, offsetB, Math.min(lengthA, lengthB));
+
+        return i < 0 ? Integer.compare(lengthA, lengthB)
+                     : Integer.compare(bytesA[offsetA + i] & 0xff, bytesB[offsetB + i] & 0xff);
+    }
+
+    /**
+     * 比较缓冲区中从offsetA开始的lengthA个字节，与字节数组中指定片段的大小，规则与{@link #compare(byte[], byte[])}一致<br>
+     * 只使用按绝对位置读取的方法，不会修改缓冲区的position，可在多个线程中共享同一个缓冲区<br>
+     * 缓冲区为网络字节序（默认）时每次读取8个字节，按无符号long比较
+     */
+    public static int compare(ByteBuffer bufferA, int offsetA, int lengthA,
+                              byte[] bytesB, int offsetB, int lengthB) {
+
+        if (bufferA == null || bytesB == null)
+            throw new IllegalArgumentException("both bufferA and byteB cannot be null");
+
+        if (bufferA.hasArray())
+            return compare(bufferA.array(), bufferA.arrayOffset() + offsetA, lengthA, bytesB, offsetB, lengthB);
+
+        int min = Math.min(lengthA, lengthB);
+        int i = 0;
+
+        if (bufferA.order() == ByteOrder.BIG_ENDIAN) {
+            for (; i <= min - 8; i += 8) {
+                long a = bufferA.getLong(offsetA + i), b = getLong(bytesB, offsetB + i);
+                if (a != b)
+                    return Long.compareUnsigned(a, b);
+            }
+        }
+
+        for (; i < min; i++) {
+            int r = Integer.compare(bufferA.get(offsetA + i) & 0xff, bytesB[offsetB + i] & 0xff);
+            if (r != 0) return r;
+        }
+
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    /**
+     * 比较两个缓冲区（可以是同一个）中指定片段的大小，规则与{@link #compare(byte[], byte[])}一致，不会修改缓冲区的position<br>
+     * 两个缓冲区都为网络字节序（默认）时每次读取8个字节，按无符号long比较
+     */
+    public static int compare(ByteBuffer bufferA, int offsetA, int lengthA,
+                              ByteBuffer bufferB, int offsetB, int lengthB) {
+
+        if (bufferA == null || bufferB == null)
+            throw new IllegalArgumentException("both bufferA and bufferB cannot be null");
 
-        for (int i = 0; i < Math.min(la, lb); i++) {
-            int r = Byte.compare(bytesA[i], bytesB[i]);
+        if (bufferB.hasArray())
+            return compare(bufferA, offsetA, lengthA, bufferB.array(), bufferB.arrayOffset() + offsetB, lengthB);
+
+        int min = Math.min(lengthA, lengthB);
+        int i = 0;
+
+        if (bufferA.order() == ByteOrder.BIG_ENDIAN && bufferB.order() == ByteOrder.BIG_ENDIAN) {
+            for (; i <= min - 8; i += 8) {
+                long a = bufferA.getLong(offsetA + i), b = bufferB.getLong(offsetB + i);
+                if (a != b)
+                    return Long.compareUnsigned(a, b);
+            }
+        }
+
+        for (; i < min; i++) {
+            int r = Integer.compare(bufferA.get(offsetA + i) & 0xff, bufferB.get(offsetB + i) & 0xff);
             if (r != 0) return r;
         }
 
-        return Integer.compare(la, lb);
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    /**
+     * <p>找到两个字节数组的指定片段中第一个不同的字节<p/>
+     * <p>运行在Java 9及以上时调用{@code Arrays.mismatch}；否则每次按8个字节比较，找到不同的8个字节后再逐个字节比较<p/>
+     * @param length 比较的字节数，两个片段都至少有这么长
+     * @return 第一个不同的字节相对于片段开头的位置，前length个字节都相同时返回-1
+     */
+    public static int mismatch(byte[] bytesA, int offsetA, byte[] bytesB, int offsetB, int length) {
+
+        if (ARRAYS_MISMATCH != null) {
+            try {
+                return (int) ARRAYS_MISMATCH.invokeExact(bytesA, offsetA, offsetA + length, bytesB, offsetB, offsetB + length);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t); // never happen
+            }
+        }
+
+        int i = 0;
+        for (; i <= length - 8; i += 8) {
+            if (getLong(bytesA, offsetA + i) != getLong(bytesB, offsetB + i))
+                break;
+        }
+
+        for (; i < length; i++) {
+            if (bytesA[offsetA + i] != bytesB[offsetB + i])
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * 按网络字节序读取从offset开始的8个字节
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        return (bytes[offset]     & 0xffL) << 56
+             | (bytes[offset + 1] & 0xffL) << 48
+             | (bytes[offset + 2] & 0xffL) << 40
+             | (bytes[offset + 3] & 0xffL) << 32
+             | (bytes[offset + 4] & 0xffL) << 24
+             | (bytes[offset + 5] & 0xffL) << 16
+             | (bytes[offset + 6] & 0xffL) << 8
+             | (bytes[offset + 7] & 0xffL);
     }
 
 }
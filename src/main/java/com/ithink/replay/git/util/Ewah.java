@@ -0,0 +1,86 @@
+package com.ithink.replay.git.util;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * <p>解码git使用的EWAH压缩位图（见git源码中ewah/ewah_io.c）<br>
+ * 序列化后的格式为（网络字节序）：<p/>
+ * <ul>
+ *     <li>32-bit 位图的位数</li>
+ *     <li>32-bit 压缩后的64位字的数量N</li>
+ *     <li>64-bit x N 压缩后的字</li>
+ *     <li>32-bit 最后一个RLW（running length word）的位置</li>
+ * </ul>
+ * <p>压缩后的字由若干组组成，每组以一个RLW开始：
+ * 最低位表示连续的字全为0还是全为1，之后32位为这些连续的字的数量，最高31位为紧随其后的字面量字的数量。
+ * 字面量字中从低位到高位依次表示各个位<p/>
+ */
+public class Ewah {
+
+    private static final int RUNNING_BITS = 32;
+
+    private static final long LARGEST_RUNNING_COUNT = (1L << RUNNING_BITS) - 1;
+
+    /**
+     * 从data的offset处解码一个EWAH位图
+     * @param data 包含位图的字节数组
+     * @param offset 位图在data中的起始位置
+     * @param dst 接收为1的各个位
+     * @return 位图占用的字节数
+     * @exception IllegalStateException 若数据不完整，或为1的位超出了位图的位数
+     */
+    public static int read(byte[] data, int offset, BitSet dst) {
+
+        if (offset < 0 || offset > data.length - 8)
+            throw new IllegalStateException("EWAH位图的数据不完整");
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long bitSize    = buf.getInt(offset) & 0xFFFFFFFFL;
+        long wordCount  = buf.getInt(offset + 4) & 0xFFFFFFFFL;
+
+        long size = 8 + wordCount * 8 + 4;
+        if (size > data.length - offset)
+            throw new IllegalStateException("EWAH位图的数据不完整");
+
+        int pos = offset + 8, end = (int) (pos + wordCount * 8);
+        long bit = 0;
+        while (pos < end) {
+
+            long rlw = buf.getLong(pos);
+            pos += 8;
+
+            long runningLength  = rlw >>> 1 & LARGEST_RUNNING_COUNT;
+            long literalWords   = rlw >>> (1 + RUNNING_BITS);
+
+            if ((rlw & 1) != 0)
+                set(dst, bit, bit + runningLength * 64, bitSize);
+            bit += runningLength * 64;
+
+            if (literalWords > (end - pos) / 8)
+                throw new IllegalStateException("EWAH位图的字面量字数量超出了数据范围");
+
+            for (long i = 0; i < literalWords; i++) {
+                long word = buf.getLong(pos);
+                pos += 8;
+                while (word != 0) {
+                    long next = bit + Long.numberOfTrailingZeros(word);
+                    set(dst, next, next + 1, bitSize);
+                    word &= word - 1;
+                }
+                bit += 64;
+            }
+        }
+
+        return (int) size;
+    }
+
+    private static void set(BitSet dst, long from, long to, long bitSize) {
+        if (from >= to)
+            return;
+        if (to > bitSize)
+            throw new IllegalStateException("EWAH位图中为1的位" + (to - 1) + "超出了位图的位数" + bitSize);
+        dst.set((int) from, (int) to);
+    }
+
+}
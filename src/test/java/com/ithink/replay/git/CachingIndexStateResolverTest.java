@@ -0,0 +1,92 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CachedTreeExtension;
+import com.ithink.replay.git.model.Extension;
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+
+public class CachingIndexStateResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void returnsCachedStateWhileFileIsUnchanged() throws IOException {
+
+        CachingIndexStateResolver caching = new CachingIndexStateResolver(new IndexStateResolver(), Long.MAX_VALUE);
+        String filename = Fixtures.path("v2-tree.idx");
+
+        IndexState first = caching.resolve(filename);
+        IndexState second = caching.resolve(filename);
+
+        assertEquals(1, caching.getMissCount());
+        assertEquals(1, caching.getHitCount());
+        assertSame(first.getSortedIndexEntries(), second.getSortedIndexEntries());
+        assertEquals(first.toLines(), second.toLines());
+    }
+
+    @Test
+    public void callersCannotChangeEachOthersState() throws IOException {
+
+        CachingIndexStateResolver caching = new CachingIndexStateResolver(new IndexStateResolver(), Long.MAX_VALUE);
+        String filename = Fixtures.path("v2-tree.idx");
+
+        IndexState first = caching.resolve(filename);
+        assertTrue(cachedTree(first).getRoot().isValid());
+        cachedTree(first).invalidate("docs/f1.txt");
+        first.getExtensions().clear();
+        first.getChecksum()[0] ^= 1;
+        first.getIntegrity().obtrudeValue(false);
+
+        IndexState second = caching.resolve(filename);
+        assertEquals(1, caching.getHitCount());
+        assertTrue(cachedTree(second).getRoot().isValid());
+        assertTrue(cachedTree(second).find("docs").isValid());
+        assertEquals(new IndexStateResolver().resolve(filename).toLines(), second.toLines());
+        assertTrue(second.getIntegrity().join());
+    }
+
+    @Test
+    public void dropsStatesThatFailVerification() throws IOException {
+
+        File file = folder.newFile("index");
+        byte[] bytes = Files.readAllBytes(Paths.get(Fixtures.path("v2-tree.idx")));
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file.toPath(), bytes);
+
+        IndexStateResolver resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        resolver.setVerification(IndexStateResolver.Verification.ASYNC);
+        CachingIndexStateResolver caching = new CachingIndexStateResolver(resolver, Long.MAX_VALUE);
+
+        IndexState state = caching.resolve(file.getAbsolutePath());
+        try {
+            state.getIntegrity().join();
+            fail("expected the checksum to mismatch");
+        } catch (CompletionException expected) {
+            // 校验和不符
+        }
+
+        caching.resolve(file.getAbsolutePath());
+        assertEquals(0, caching.getHitCount());
+        assertEquals(2, caching.getMissCount());
+    }
+
+    private static CachedTreeExtension cachedTree(IndexState state) {
+        for (Extension extension : state.getExtensions()) {
+            if (extension instanceof CachedTreeExtension)
+                return (CachedTreeExtension) extension;
+        }
+        throw new AssertionError("no TREE extension");
+    }
+
+}
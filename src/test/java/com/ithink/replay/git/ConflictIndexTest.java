@@ -0,0 +1,141 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CacheEntry;
+import com.ithink.replay.git.model.ConflictIndex;
+import com.ithink.replay.git.model.IndexEntries;
+import com.ithink.replay.git.model.ResolveUndoExtension;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 各个引擎、存储方式及线程数下，按路径名查找的冲突以及REUC记录都应与{@code git ls-files -u}、
+ * {@code git ls-files --resolve-undo}（git 2.39）的输出相同
+ */
+public class ConflictIndexTest {
+
+    private static final String[] CONFLICT_UNMERGED = {
+            "100644 1e6df8037e3f8531afde45c246ba22d0010467ae 1\tdocs/f1.txt",
+            "100644 b19a1e93bec1317dc6097229e12afaffbfa74dc2 2\tdocs/f1.txt",
+            "100644 950b81b7eee953d050aa05a641f8e056c85dd1bd 3\tdocs/f1.txt",
+            "100644 3d548cba8d5bb9b1cd95d274700a79f9b8a3945d 1\tsrc/main/java/com/acme/f2.txt",
+            "100644 b19a1e93bec1317dc6097229e12afaffbfa74dc2 2\tsrc/main/java/com/acme/f2.txt",
+            "100644 950b81b7eee953d050aa05a641f8e056c85dd1bd 3\tsrc/main/java/com/acme/f2.txt",
+    };
+
+    private static final String[] REUC_UNMERGED = {
+            "100644 3d548cba8d5bb9b1cd95d274700a79f9b8a3945d 1\tsrc/main/java/com/acme/f2.txt",
+            "100644 b19a1e93bec1317dc6097229e12afaffbfa74dc2 2\tsrc/main/java/com/acme/f2.txt",
+            "100644 950b81b7eee953d050aa05a641f8e056c85dd1bd 3\tsrc/main/java/com/acme/f2.txt",
+    };
+
+    private static final String[] REUC_RESOLVE_UNDO = {
+            "100644 1e6df8037e3f8531afde45c246ba22d0010467ae 1\tdocs/f1.txt",
+            "100644 b19a1e93bec1317dc6097229e12afaffbfa74dc2 2\tdocs/f1.txt",
+            "100644 950b81b7eee953d050aa05a641f8e056c85dd1bd 3\tdocs/f1.txt",
+    };
+
+    private static final String[] STAGES_UNMERGED = {
+            "100644 f38345cebb79e8de30dc5801b599bd7e8b07c30a 1\tb",
+            "100644 08a300f5a43c029e27642a0b8bef6a8febba1bf5 3\tb",
+            "100644 d1769f3118c6e20b26cafcc27d99c1466e607d7e 1\tg",
+            "100644 58357507d7751fd0614e6eca8e58703100d65c6a 2\tg",
+            "100644 8a00f7c7832c0610cc14958360572fd3cfbb6094 1\th",
+            "100644 4b92fb338329ae0be8fd8ba7719f1bfbf6cedad2 2\th",
+            "100644 4056fc26bdb5e4f8de3a3b147b10ec31d905290a 3\th",
+            "100644 df967b96a579e45a18b8251732d16804b2e56a55 1\tsub/m",
+            "100644 621d48eb0083db62c4152e3e37e5e43e31774525 3\tsub/m",
+    };
+
+    private static final String[] STAGES_RESOLVE_UNDO = {
+            "100644 0e14b47ccbb038499dfb960a5b1a8cb1a6af24f8 1\tc",
+            "100644 20cc86fb0d0dc464f5e47fc5a00e59d2aa4de78d 2\tc",
+            "100644 d7644dec1a8f4ac7de5c611957c081c08b5adc59 3\tc",
+            "100644 df2a7fe6928eb1f90fea6eee90c549092d7e0967 2\te",
+            "100644 dd511c9c9b1a139fd3e6f8769b0171ed50d726a1 3\te",
+    };
+
+    @Test
+    public void matchesGitForConflicts() throws IOException {
+        assertConflicts("conflict.idx", CONFLICT_UNMERGED, new String[0], "README");
+    }
+
+    @Test
+    public void matchesGitForResolvedConflict() throws IOException {
+        assertConflicts("reuc.idx", REUC_UNMERGED, REUC_RESOLVE_UNDO, "docs/f1.txt");
+    }
+
+    @Test
+    public void matchesGitForMixedStages() throws IOException {
+        assertConflicts("stages.idx", STAGES_UNMERGED, STAGES_RESOLVE_UNDO, "a", "c", "d", "e");
+    }
+
+    /**
+     * @param merged 没有冲突的路径名，其中可以有带有REUC记录的路径名
+     */
+    private static void assertConflicts(String name, String[] unmerged, String[] resolveUndo, String... merged)
+            throws IOException {
+
+        String filename = Fixtures.path(name);
+        List<IndexStateResolver> resolvers = Fixtures.resolvers();
+        try {
+            for (IndexStateResolver resolver : resolvers) {
+
+                String message = name + " " + Fixtures.describe(resolver);
+                ConflictIndex conflicts = resolver.resolve(filename).getConflicts();
+
+                List<String> byOrdinal = new ArrayList<>();
+                List<String> byPath = new ArrayList<>();
+                for (int i = 0; i < conflicts.size(); i++) {
+                    byte[] path = conflicts.getPath(i);
+                    assertTrue(message, conflicts.isConflicted(path));
+                    assertEquals(message, i, conflicts.indexOf(path));
+                    addStages(byOrdinal, conflicts.getStages(i));
+                    addStages(byPath, conflicts.getStages(path));
+                }
+                assertEquals(message, Arrays.asList(unmerged), byOrdinal);
+                assertEquals(message, Arrays.asList(unmerged), byPath);
+
+                List<String> undo = new ArrayList<>();
+                for (String line : unmerged)
+                    assertNull(message, conflicts.getResolveUndo(line.substring(line.indexOf('\t') + 1)));
+                for (String path : merged) {
+                    assertFalse(message, conflicts.isConflicted(path));
+                    assertTrue(message, conflicts.indexOf(path.getBytes(StandardCharsets.UTF_8)) < 0);
+                    assertEquals(message, 0, conflicts.getStages(path).size());
+                    addResolveUndo(undo, conflicts.getResolveUndo(path));
+                }
+                assertEquals(message, Arrays.asList(resolveUndo), undo);
+            }
+        } finally {
+            Fixtures.close(resolvers);
+        }
+    }
+
+    private static void addStages(List<String> lines, IndexEntries stages) {
+        for (int i = 0; i < stages.size(); i++) {
+            CacheEntry entry = stages.get(i);
+            lines.add(Integer.toOctalString(entry.getMode().toBits()) + " " + entry.getOid() + " "
+                    + entry.getFlags().getStage() + "\t" + new String(entry.getName(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void addResolveUndo(List<String> lines, ResolveUndoExtension.Entry entry) {
+        if (entry == null)
+            return;
+        ResolveUndoExtension.Entry.ResolveUndoInfoItem[] info = entry.getInfo();
+        for (int stage = 1; stage <= 3; stage++) {
+            ResolveUndoExtension.Entry.ResolveUndoInfoItem item = info[stage - 1];
+            if (item.getMode().toBits() != 0)
+                lines.add(Integer.toOctalString(item.getMode().toBits()) + " " + item.getOid() + " "
+                        + stage + "\t" + new String(entry.getPathName(), StandardCharsets.UTF_8));
+        }
+    }
+
+}
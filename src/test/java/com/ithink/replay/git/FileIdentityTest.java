@@ -0,0 +1,71 @@
+package com.ithink.replay.git;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FileIdentityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ignoresTouchWhenChecksumIsPresent() throws IOException {
+
+        File file = copy(false);
+        FileIdentity before = FileIdentity.of(file.toPath());
+        touch(file);
+
+        assertTrue(FileIdentity.of(file.toPath()).isUnchangedSince(before));
+    }
+
+    @Test
+    public void comparesAttributesWhenChecksumIsSkipped() throws IOException {
+
+        File file = copy(true);
+        FileIdentity before = FileIdentity.of(file.toPath());
+        assertTrue(before.isSkipHash());
+        assertTrue(FileIdentity.of(file.toPath()).isUnchangedSince(before));
+
+        touch(file);
+        assertFalse(FileIdentity.of(file.toPath()).isUnchangedSince(before));
+    }
+
+    @Test
+    public void detectsChangedChecksum() throws IOException {
+
+        File file = copy(false);
+        FileIdentity before = FileIdentity.of(file.toPath());
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file.toPath(), bytes);
+
+        assertFalse(FileIdentity.of(file.toPath()).isUnchangedSince(before));
+        assertFalse(before.isUnchangedSince(null));
+    }
+
+    private File copy(boolean skipHash) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(Fixtures.path("v2-tree.idx")));
+        if (skipHash)
+            Arrays.fill(bytes, bytes.length - 20, bytes.length, (byte) 0);
+        File file = folder.newFile("index");
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static void touch(File file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file.toPath());
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(modified.toMillis() + 10_000));
+    }
+
+}
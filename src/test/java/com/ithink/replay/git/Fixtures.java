@@ -0,0 +1,100 @@
+package com.ithink.replay.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>测试使用的index文件<p/>
+ * <p>src/test/resources/index中的文件都由git 2.39生成，覆盖了各个版本以及各种扩展：<p/>
+ * <ul>
+ *     <li>v2-tree.idx：版本2，TREE、REUC</li>
+ *     <li>conflict.idx：版本2，两个路径名处于冲突状态（stage 1到3），TREE中对应的目录无效</li>
+ *     <li>reuc.idx：版本2，解决了其中一个冲突之后，带有REUC</li>
+ *     <li>v3.idx：版本3，包含intent-to-add以及skip-worktree的条目</li>
+ *     <li>v4.idx：与v3.idx相同的内容，版本4</li>
+ *     <li>ieot-v3.idx、ieot-v4.idx：index.threads为4时写出，带有IEOT以及EOIE</li>
+ *     <li>split/index：split index，link扩展指向同目录下的sharedindex文件</li>
+ *     <li>stages.idx：版本2，merge后的冲突包含各种stage的组合（1、3，1、2，1到3），其中两个已解决的冲突带有REUC</li>
+ * </ul>
+ */
+final class Fixtures {
+
+    static final String[] FILES = {
+            "v2-tree.idx", "conflict.idx", "reuc.idx", "v3.idx", "v4.idx", "ieot-v3.idx", "ieot-v4.idx", "split/index",
+            "stages.idx"
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param name 相对于src/test/resources/index的文件名
+     * @return 文件的完整路径
+     */
+    static String path(String name) {
+        URL url = Fixtures.class.getResource("/index/" + name);
+        if (url == null)
+            throw new IllegalArgumentException("no such fixture: " + name);
+        try {
+            return new File(url.toURI()).getAbsolutePath();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 在dir中生成一个带有冲突、TREE、REUC以及未知扩展的合成index文件
+     * @return 文件的完整路径
+     */
+    static String generate(File dir, int version) throws IOException {
+
+        IndexGenerator generator = new IndexGenerator();
+        generator.setSeed(version);
+        generator.setVersion(version);
+        generator.setEntryCount(3000);
+        generator.setConflictRatio(0.01);
+        generator.setResolveUndoRatio(0.02);
+        generator.setUnknownExtensions(2, 100);
+
+        File file = new File(dir, "generated-v" + version + ".idx");
+        generator.generate(file.getAbsolutePath());
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * @return 所有支持的引擎、存储方式以及线程数的组合，第一个为{@link IndexStateResolver.Engine#RANDOM_ACCESS}
+     */
+    static List<IndexStateResolver> resolvers() {
+
+        List<IndexStateResolver> resolvers = new ArrayList<>();
+        resolvers.add(new IndexStateResolver(IndexStateResolver.Engine.RANDOM_ACCESS));
+
+        for (IndexStateResolver.Storage storage : IndexStateResolver.Storage.values()) {
+            for (int parallelism : new int[]{1, 4}) {
+                IndexStateResolver resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+                resolver.setStorage(storage);
+                resolver.setParallelism(parallelism);
+                resolvers.add(resolver);
+            }
+        }
+
+        return resolvers;
+    }
+
+    /**
+     * 关闭{@link #resolvers()}中并行解析使用的线程池
+     */
+    static void close(List<IndexStateResolver> resolvers) {
+        for (IndexStateResolver resolver : resolvers)
+            resolver.close();
+    }
+
+    static String describe(IndexStateResolver resolver) {
+        return resolver.getEngine() + "/" + resolver.getStorage() + "/" + resolver.getParallelism();
+    }
+
+}
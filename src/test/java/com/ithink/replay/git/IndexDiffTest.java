@@ -0,0 +1,170 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.ArrayIndexEntries;
+import com.ithink.replay.git.model.CacheEntry;
+import com.ithink.replay.git.model.GitObject;
+import com.ithink.replay.git.model.IndexEntries;
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * v2-tree.idx是conflict.idx中的两个冲突都解决、又新增了docs/new.txt之后，由git写出的index
+ */
+public class IndexDiffTest {
+
+    @Test
+    public void reportsResolvedConflicts() throws IOException {
+
+        IndexDiff diff = IndexDiff.diff(resolve("conflict.idx"), resolve("v2-tree.idx"));
+
+        assertEquals(Arrays.asList(
+                "ADDED docs/f1.txt (stage 0)",
+                "REMOVED docs/f1.txt (stage 1)",
+                "REMOVED docs/f1.txt (stage 2)",
+                "REMOVED docs/f1.txt (stage 3)",
+                "ADDED docs/new.txt (stage 0)",
+                "ADDED src/main/java/com/acme/f2.txt (stage 0)",
+                "REMOVED src/main/java/com/acme/f2.txt (stage 1)",
+                "REMOVED src/main/java/com/acme/f2.txt (stage 2)",
+                "REMOVED src/main/java/com/acme/f2.txt (stage 3)"
+        ), strings(diff.getChanges()));
+
+        assertEquals(Arrays.asList(
+                "ADDED docs/f1.txt",
+                "ADDED src/main/java/com/acme/f2.txt"
+        ), strings(diff.getResolveUndoChanges()));
+
+        // 冲突所在的各级目录在conflict.idx中都无效，解决之后重新生成
+        assertTrue(diff.isCachedTreeChanged());
+        assertEquals(Arrays.asList(
+                "MODIFIED / 1",
+                "MODIFIED docs/ 1",
+                "MODIFIED src/ 1",
+                "MODIFIED src/main/ 1",
+                "MODIFIED src/main/java/ 1",
+                "MODIFIED src/main/java/com/ 1",
+                "MODIFIED src/main/java/com/acme/ 1"
+        ), strings(diff.getCachedTreeChanges()));
+        for (IndexDiff.Change<?> change : diff.getCachedTreeChanges())
+            assertTrue(change.isOidChanged());
+    }
+
+    @Test
+    public void reportsReverseDiff() throws IOException {
+
+        IndexDiff diff = IndexDiff.diff(resolve("v2-tree.idx"), resolve("conflict.idx"));
+
+        assertEquals(9, diff.getChanges().size());
+        assertEquals("REMOVED docs/f1.txt (stage 0)", diff.getChanges().get(0).toString());
+        assertEquals("ADDED docs/f1.txt (stage 1)", diff.getChanges().get(1).toString());
+        assertEquals(Arrays.asList(
+                "REMOVED docs/f1.txt",
+                "REMOVED src/main/java/com/acme/f2.txt"
+        ), strings(diff.getResolveUndoChanges()));
+    }
+
+    @Test
+    public void findsNoChangesBetweenEqualStates() throws IOException {
+
+        IndexState state = resolve("v2-tree.idx");
+        assertTrue(IndexDiff.diff(state, state).isEmpty());
+
+        // 各个条目是不同的对象，逐个比较字段
+        IndexStateResolver columnar = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        columnar.setStorage(IndexStateResolver.Storage.COLUMNAR);
+        assertTrue(IndexDiff.diff(state, columnar.resolve(Fixtures.path("v2-tree.idx"))).isEmpty());
+    }
+
+    @Test
+    public void masksChangedFields() throws IOException {
+
+        IndexState state = resolve("v2-tree.idx");
+        IndexEntries entries = state.getSortedIndexEntries();
+
+        ArrayIndexEntries.Builder builder = new ArrayIndexEntries.Builder(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            CacheEntry entry = entries.get(i);
+            switch (i) {
+                case 0:
+                    builder.append(copy(entry, otherOid(entry), entry.getStatData(), entry.getMode(), entry.getFlags()));
+                    break;
+                case 1:
+                    builder.append(copy(entry, entry.getOid(), entry.getStatData(), new CacheEntry.Mode(0100755), entry.getFlags()));
+                    break;
+                case 2:
+                    builder.append(copy(entry, entry.getOid(), otherSize(entry), entry.getMode(), entry.getFlags()));
+                    break;
+                case 3:
+                    builder.append(copy(entry, entry.getOid(), entry.getStatData(), entry.getMode(), assumeValid(entry)));
+                    break;
+                case 4:
+                    builder.append(copy(entry, otherOid(entry), otherSize(entry), entry.getMode(), entry.getFlags()));
+                    break;
+                default:
+                    builder.append(entry);
+            }
+        }
+        IndexState changed = new IndexState(state.getHeader(), builder.build());
+        changed.getExtensions().addAll(state.getExtensions());
+
+        IndexDiff diff = IndexDiff.diff(state, changed);
+
+        List<IndexDiff.Change<CacheEntry>> changes = diff.getChanges();
+        assertEquals(5, changes.size());
+        assertEquals(IndexDiff.OID, changes.get(0).getChanges());
+        assertEquals(IndexDiff.MODE, changes.get(1).getChanges());
+        assertEquals(IndexDiff.STAT, changes.get(2).getChanges());
+        assertEquals(IndexDiff.FLAGS, changes.get(3).getChanges());
+        assertEquals(IndexDiff.OID | IndexDiff.STAT, changes.get(4).getChanges());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(IndexDiff.Change.Type.MODIFIED, changes.get(i).getType());
+            assertSame(entries.get(i), changes.get(i).getOldValue());
+        }
+
+        assertTrue(diff.getResolveUndoChanges().isEmpty());
+        assertFalse(diff.isCachedTreeChanged());
+    }
+
+    private static IndexState resolve(String name) throws IOException {
+        return new IndexStateResolver().resolve(Fixtures.path(name));
+    }
+
+    private static List<String> strings(List<? extends IndexDiff.Change<?>> changes) {
+        List<String> strings = new ArrayList<>();
+        for (IndexDiff.Change<?> change : changes)
+            strings.add(change.toString());
+        return strings;
+    }
+
+    private static CacheEntry copy(CacheEntry entry, GitObject.Id oid, CacheEntry.StatData stat,
+                                   CacheEntry.Mode mode, CacheEntry.Flags flags) {
+        return new CacheEntry(oid, entry.getName(), stat, mode, flags);
+    }
+
+    private static GitObject.Id otherOid(CacheEntry entry) {
+        byte[] hash = entry.getOid().getHash().clone();
+        hash[0] ^= 1;
+        return GitObject.Id.of(hash, 0);
+    }
+
+    private static CacheEntry.StatData otherSize(CacheEntry entry) {
+        CacheEntry.StatData stat = entry.getStatData();
+        return new CacheEntry.StatData(
+                stat.getCtime().getSec(), stat.getCtime().getNsec(),
+                stat.getMtime().getSec(), stat.getMtime().getNsec(),
+                stat.getDev(), stat.getIno(), stat.getUid(), stat.getGid(), stat.getSize() + 1);
+    }
+
+    private static CacheEntry.Flags assumeValid(CacheEntry entry) {
+        CacheEntry.Flags flags = entry.getFlags();
+        return new CacheEntry.Flags((short) (0x8000 | flags.getStage() << 12 | flags.getNameLength()));
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IndexStateResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeShutsDownParallelPool() throws IOException {
+
+        String filename = Fixtures.path("ieot-v4.idx");
+        IndexStateResolver resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+        resolver.setParallelism(4);
+        List<String> expected = resolver.resolve(filename).toLines();
+
+        resolver.close();
+        assertEquals(1, resolver.getParallelism());
+        assertEquals(expected, resolver.resolve(filename).toLines());
+
+        // 重复关闭没有影响
+        resolver.close();
+    }
+
+    /**
+     * git以{@code index.skipHash}写出的文件最后20字节全为0，不应被当作校验和不一致
+     */
+    @Test
+    public void acceptsSkipHashTrailer() throws IOException {
+
+        File file = folder.newFile("index");
+        byte[] bytes = Files.readAllBytes(Paths.get(Fixtures.path("v2-tree.idx")));
+        Arrays.fill(bytes, bytes.length - 20, bytes.length, (byte) 0);
+        Files.write(file.toPath(), bytes);
+
+        IndexStateResolver.Verification[] verifications = {
+                IndexStateResolver.Verification.SKIP_HASH, IndexStateResolver.Verification.ASYNC
+        };
+        for (IndexStateResolver.Verification verification : verifications) {
+
+            IndexStateResolver resolver = new IndexStateResolver(IndexStateResolver.Engine.MAPPED);
+            resolver.setVerification(verification);
+
+            IndexState state = resolver.resolve(file.getAbsolutePath());
+            assertFalse(verification.toString(), state.getIntegrity().join());
+            assertEquals(verification.toString(),
+                    new IndexStateResolver().resolve(Fixtures.path("v2-tree.idx")).getSortedIndexEntries().size(),
+                    state.getSortedIndexEntries().size());
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 解析后再写出，结果应与原文件逐字节相同
+ */
+public class IndexStateWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final IndexStateWriter writer = new IndexStateWriter();
+
+    @Test
+    public void roundTripsGitIndexes() throws IOException {
+        for (String name : Fixtures.FILES)
+            assertRoundTrip(Fixtures.path(name));
+    }
+
+    @Test
+    public void roundTripsGeneratedIndexes() throws IOException {
+        for (int version = 2; version <= 4; version++)
+            assertRoundTrip(Fixtures.generate(folder.getRoot(), version));
+    }
+
+    @Test
+    public void returnsTrailerChecksum() throws IOException {
+
+        String original = Fixtures.path("v2-tree.idx");
+        File target = new File(folder.getRoot(), "index");
+
+        byte[] checksum = writer.write(new IndexStateResolver().resolve(original), target.getAbsolutePath());
+
+        byte[] bytes = Files.readAllBytes(target.toPath());
+        assertArrayEquals(Arrays.copyOfRange(bytes, bytes.length - 20, bytes.length), checksum);
+    }
+
+    @Test
+    public void refusesToWriteWhileLocked() throws IOException {
+
+        IndexState state = new IndexStateResolver().resolve(Fixtures.path("v2-tree.idx"));
+        File target = new File(folder.getRoot(), "index");
+        writer.write(state, target.getAbsolutePath());
+        byte[] before = Files.readAllBytes(target.toPath());
+
+        File lock = new File(folder.getRoot(), "index.lock");
+        assertTrue(lock.createNewFile());
+        try {
+            writer.write(state, target.getAbsolutePath());
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // lock文件属于其他写入者，保持不变
+            assertTrue(lock.exists());
+        }
+        assertArrayEquals(before, Files.readAllBytes(target.toPath()));
+    }
+
+    /**
+     * 用每一种引擎、存储方式及线程数解析filename，写出到临时文件，与原文件比较。
+     * split index只写出其本身的条目以及扩展，与共享index文件无关
+     */
+    private void assertRoundTrip(String filename) throws IOException {
+
+        byte[] expected = Files.readAllBytes(Paths.get(filename));
+        File target = new File(folder.getRoot(), "index");
+
+        List<IndexStateResolver> resolvers = Fixtures.resolvers();
+        try {
+            for (IndexStateResolver resolver : resolvers) {
+                try {
+                    writer.write(resolver.resolve(filename), target.getAbsolutePath());
+                    assertArrayEquals(filename + " " + Fixtures.describe(resolver),
+                            expected, Files.readAllBytes(target.toPath()));
+                } finally {
+                    Files.deleteIfExists(target.toPath());
+                }
+            }
+        } finally {
+            Fixtures.close(resolvers);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.ArrayIndexEntries;
+import com.ithink.replay.git.model.CacheEntry;
+import com.ithink.replay.git.model.GitObject;
+import com.ithink.replay.git.model.IndexEntries;
+import com.ithink.replay.git.model.IndexState;
+import com.ithink.replay.git.model.OidIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link IndexState#getEntries(GitObject.Id)}应与按顺序扫描所有条目的结果相同
+ */
+public class OidIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesLinearScanForFixtures() throws IOException {
+
+        List<String> filenames = new ArrayList<>();
+        for (String name : Fixtures.FILES)
+            filenames.add(Fixtures.path(name));
+        filenames.add(Fixtures.generate(folder.getRoot(), 2));
+
+        for (String filename : filenames) {
+            List<IndexStateResolver> resolvers = Fixtures.resolvers();
+            try {
+                for (IndexStateResolver resolver : resolvers)
+                    assertMatchesLinearScan(filename + " " + Fixtures.describe(resolver), resolver.resolve(filename));
+            } finally {
+                Fixtures.close(resolvers);
+            }
+        }
+    }
+
+    /**
+     * 每3个条目中有一个引用同一个对象id；另有两个对象id只在前8个字节之后不同，落在同一个槽位
+     */
+    @Test
+    public void chainsEntriesSharingAnOid() throws IOException {
+
+        IndexState generated = new IndexStateResolver().resolve(Fixtures.generate(folder.getRoot(), 2));
+        IndexEntries entries = generated.getSortedIndexEntries();
+
+        GitObject.Id shared = id(0x11, 0);
+        GitObject.Id collidingA = id(0x22, 1);
+        GitObject.Id collidingB = id(0x22, 2);
+
+        ArrayIndexEntries.Builder builder = new ArrayIndexEntries.Builder(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            CacheEntry entry = entries.get(i);
+            GitObject.Id oid = i % 3 == 0 ? shared : i == 1 ? collidingA : i == 2 ? collidingB : entry.getOid();
+            builder.append(new CacheEntry(oid, entry.getName(), entry.getStatData(), entry.getMode(), entry.getFlags()));
+        }
+        IndexState state = new IndexState(generated.getHeader(), builder.build());
+
+        assertMatchesLinearScan("shared", state);
+        assertEquals((entries.size() + 2) / 3, state.getEntries(shared).size());
+        assertEquals(1, state.getEntries(collidingA).size());
+        assertEquals(1, state.getEntries(collidingB).size());
+        assertEquals(0, state.getEntries(id(0x22, 3)).size());
+    }
+
+    @Test
+    public void findsNothingForMissingOid() throws IOException {
+
+        IndexState state = new IndexStateResolver().resolve(Fixtures.path("v2-tree.idx"));
+        OidIndex index = state.getSortedIndexEntries().getOidIndex();
+        GitObject.Id missing = id(0x7f, 0x7f);
+
+        assertTrue(state.getEntries(missing).isEmpty());
+        assertEquals(-1, index.first(missing));
+        assertFalse(index.contains(missing));
+        assertEquals(0, index.count(missing));
+        assertEquals(0, index.ordinalsOf(missing).length);
+    }
+
+    @Test
+    public void comparesIdsByValue() {
+
+        GitObject.Id a = id(0x33, 4);
+        GitObject.Id b = id(0x33, 4);
+        GitObject.Id c = id(0x33, 5);
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, c);
+        assertEquals(a.getPrefix(), c.getPrefix());
+    }
+
+    private static void assertMatchesLinearScan(String message, IndexState state) {
+
+        IndexEntries entries = state.getSortedIndexEntries();
+        OidIndex index = entries.getOidIndex();
+
+        Set<GitObject.Id> oids = new LinkedHashSet<>();
+        for (int i = 0; i < entries.size(); i++)
+            oids.add(entries.get(i).getOid());
+
+        for (GitObject.Id oid : oids) {
+
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).getOid().equals(oid))
+                    expected.add(i);
+            }
+
+            List<CacheEntry> actual = state.getEntries(oid);
+            assertEquals(message, expected.size(), actual.size());
+            assertEquals(message, expected.size(), index.count(oid));
+            int[] ordinals = index.ordinalsOf(oid);
+            for (int k = 0; k < expected.size(); k++) {
+                assertEquals(message, (int) expected.get(k), ordinals[k]);
+                assertEquals(message, 0, entries.get(expected.get(k)).compareTo(actual.get(k)));
+            }
+        }
+    }
+
+    /**
+     * @return 前8个字节都是prefix、最后一个字节是last的对象id
+     */
+    private static GitObject.Id id(int prefix, int last) {
+        byte[] hash = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+        for (int i = 0; i < 8; i++)
+            hash[i] = (byte) prefix;
+        hash[hash.length - 1] = (byte) last;
+        return GitObject.Id.of(hash, 0);
+    }
+
+}
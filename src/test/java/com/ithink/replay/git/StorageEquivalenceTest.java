@@ -0,0 +1,118 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CacheEntry;
+import com.ithink.replay.git.model.IndexEntries;
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 各个引擎、存储方式及线程数解析出的{@link IndexState}都应与{@link IndexStateResolver.Engine#RANDOM_ACCESS}的结果相同，
+ * 按路径名、stage以及对象id查找的结果也应相同
+ */
+public class StorageEquivalenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resolvesSameState() throws IOException {
+        for (String filename : filenames()) {
+
+            List<IndexStateResolver> resolvers = Fixtures.resolvers();
+            try {
+                List<String> expected = resolvers.get(0).resolve(filename).toLines();
+
+                for (IndexStateResolver resolver : resolvers.subList(1, resolvers.size()))
+                    assertEquals(filename + " " + Fixtures.describe(resolver), expected, resolver.resolve(filename).toLines());
+            } finally {
+                Fixtures.close(resolvers);
+            }
+        }
+    }
+
+    @Test
+    public void findsSameEntries() throws IOException {
+        for (String filename : filenames()) {
+
+            List<IndexStateResolver> resolvers = Fixtures.resolvers();
+            try {
+                IndexState expected = resolvers.get(0).resolve(filename);
+
+                for (IndexStateResolver resolver : resolvers.subList(1, resolvers.size()))
+                    assertSameLookups(filename + " " + Fixtures.describe(resolver), expected, resolver.resolve(filename));
+            } finally {
+                Fixtures.close(resolvers);
+            }
+        }
+    }
+
+    private List<String> filenames() throws IOException {
+        List<String> filenames = new ArrayList<>();
+        for (String name : Fixtures.FILES)
+            filenames.add(Fixtures.path(name));
+        for (int version = 2; version <= 4; version++)
+            filenames.add(Fixtures.generate(folder.getRoot(), version));
+        return filenames;
+    }
+
+    private static void assertSameLookups(String message, IndexState expected, IndexState actual) {
+
+        IndexEntries expectedEntries = expected.getSortedIndexEntries();
+        IndexEntries actualEntries = actual.getSortedIndexEntries();
+
+        for (int i = 0; i < expectedEntries.size(); i++) {
+
+            CacheEntry entry = expectedEntries.get(i);
+            byte[] name = entry.getName();
+
+            assertTrue(message, actualEntries.contains(entry));
+            assertEquals(message, 0, actualEntries.get(i).compareTo(entry));
+            if (i > 0)
+                assertTrue(message, actualEntries.get(i - 1).compareTo(actualEntries.get(i)) < 0);
+
+            for (int stage = 0; stage <= 3; stage++)
+                assertEquals(message, expectedEntries.indexOf(name, stage), actualEntries.indexOf(name, stage));
+            assertEquals(message, expectedEntries.getAll(name).size(), actualEntries.getAll(name).size());
+
+            // 不存在的路径名：更长、更短以及最后一个字节不同
+            for (byte[] missing : misses(name))
+                assertEquals(message, expectedEntries.indexOf(missing, 0), actualEntries.indexOf(missing, 0));
+
+            assertEquals(message, expected.getEntries(entry.getOid()).size(), actual.getEntries(entry.getOid()).size());
+        }
+
+        assertEquals(message, expected.getConflicts().size(), actual.getConflicts().size());
+        for (int i = 0; i < expected.getConflicts().size(); i++) {
+            byte[] path = expected.getConflicts().getPath(i);
+            assertArrayEquals(message, path, actual.getConflicts().getPath(i));
+            assertEquals(message, expected.getConflicts().getStages(path).size(), actual.getConflicts().getStages(path).size());
+        }
+    }
+
+    private static List<byte[]> misses(byte[] name) {
+
+        List<byte[]> misses = new ArrayList<>();
+
+        byte[] longer = Arrays.copyOf(name, name.length + 1);
+        longer[name.length] = '~';
+        misses.add(longer);
+
+        misses.add(Arrays.copyOf(name, name.length - 1));
+
+        byte[] changed = name.clone();
+        changed[name.length - 1]++;
+        misses.add(changed);
+
+        return misses;
+    }
+
+}
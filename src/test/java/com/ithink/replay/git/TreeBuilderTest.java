@@ -0,0 +1,104 @@
+package com.ithink.replay.git;
+
+import com.ithink.replay.git.model.CachedTreeExtension;
+import com.ithink.replay.git.model.Extension;
+import com.ithink.replay.git.model.IndexState;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 生成的tree对象id以及TREE扩展都应与git相同。期望的结果来自git 2.39：
+ * 对各个index文件的副本执行{@code git write-tree --missing-ok}，v2-tree.idx中的TREE扩展即为其写出的结果
+ */
+public class TreeBuilderTest {
+
+    /**
+     * {@code git write-tree}对v2-tree.idx、v3.idx以及v4.idx的结果，intent-to-add的条目不写入tree对象
+     */
+    private static final String ROOT_TREE = "a5160e878351a30fd704204d39a48c17fcb2fbc7";
+
+    private final TreeBuilder builder = new TreeBuilder();
+
+    @Test
+    public void buildsAllTreesWithoutCachedTree() throws IOException {
+
+        IndexState state = resolve("v2-tree.idx");
+        byte[] expected = data(cachedTree(state));
+
+        TreeBuilder.Result result = builder.build(state.getSortedIndexEntries(), null);
+
+        assertEquals(ROOT_TREE, result.getTreeId().toString());
+        assertArrayEquals(expected, data(result.getCachedTree()));
+        assertEquals(cachedTree(state).getEntries().size(), result.getBuiltCount());
+        assertEquals(0, result.getReusedCount());
+    }
+
+    @Test
+    public void rebuildsOnlyInvalidatedTrees() throws IOException {
+
+        IndexState state = resolve("v2-tree.idx");
+        byte[] expected = data(cachedTree(state));
+
+        CachedTreeExtension partial = new CachedTreeExtension(expected);
+        partial.invalidate("src/main/java/com/acme/f2.txt");
+        partial.invalidate("docs/f1.txt");
+
+        int invalid = 0;
+        for (CachedTreeExtension.Entry entry : partial.getEntries()) {
+            if (!entry.isValid())
+                invalid++;
+        }
+        assertTrue(invalid < partial.getEntries().size());
+
+        TreeBuilder.Result result = builder.build(state.getSortedIndexEntries(), partial);
+
+        assertEquals(ROOT_TREE, result.getTreeId().toString());
+        assertArrayEquals(expected, data(result.getCachedTree()));
+        assertEquals(invalid, result.getBuiltCount());
+        assertTrue(result.getReusedCount() > 0);
+    }
+
+    @Test
+    public void reusesValidRoot() throws IOException {
+
+        TreeBuilder.Result result = builder.build(resolve("v2-tree.idx"));
+
+        assertEquals(ROOT_TREE, result.getTreeId().toString());
+        assertEquals(0, result.getBuiltCount());
+        assertEquals(1, result.getReusedCount());
+    }
+
+    @Test
+    public void leavesOutIntentToAddEntries() throws IOException {
+        for (String name : new String[]{"v3.idx", "v4.idx"})
+            assertEquals(name, ROOT_TREE, builder.build(resolve(name).getSortedIndexEntries(), null).getTreeId().toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesUnmergedEntries() throws IOException {
+        builder.build(resolve("conflict.idx").getSortedIndexEntries(), null);
+    }
+
+    private static IndexState resolve(String name) throws IOException {
+        return new IndexStateResolver().resolve(Fixtures.path(name));
+    }
+
+    private static CachedTreeExtension cachedTree(IndexState state) {
+        for (Extension extension : state.getExtensions()) {
+            if (extension instanceof CachedTreeExtension)
+                return (CachedTreeExtension) extension;
+        }
+        throw new AssertionError("no TREE extension");
+    }
+
+    private static byte[] data(Extension extension) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extension.writeData(out);
+        return out.toByteArray();
+    }
+
+}
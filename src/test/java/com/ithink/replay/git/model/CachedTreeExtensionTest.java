@@ -0,0 +1,166 @@
+package com.ithink.replay.git.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按TREE扩展的格式手工构造数据，检查目录树的还原、查找、标记无效以及写回
+ */
+public class CachedTreeExtensionTest {
+
+    /**
+     * <pre>
+     *     ""     12个条目，2个子目录
+     *     a      8个条目，2个子目录
+     *     a/b    3个条目
+     *     a/d    无效（-1）
+     *     z      4个条目
+     * </pre>
+     */
+    private static byte[] sample() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record(out, "", "12 2", 1);
+        record(out, "a", "8 2", 2);
+        record(out, "b", "3 0", 3);
+        record(out, "d", "-1 0", 0);
+        record(out, "z", "4 0", 4);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesParsedDataBack() throws IOException {
+        byte[] data = sample();
+        assertArrayEquals(data, write(new CachedTreeExtension(data)));
+    }
+
+    @Test
+    public void restoresDirectoryTree() throws IOException {
+
+        CachedTreeExtension tree = new CachedTreeExtension(sample());
+
+        CachedTreeExtension.Entry root = tree.getRoot();
+        assertEquals(12, root.getEntryCount());
+        assertEquals(2, root.getChildren().size());
+        assertNull(root.getParent());
+
+        CachedTreeExtension.Entry b = tree.find("a/b");
+        assertEquals("a/b", new String(b.getPath(), StandardCharsets.UTF_8));
+        assertEquals(3, b.getEntryCount());
+        assertSame(tree.find("a"), b.getParent());
+        assertSame(root, tree.find("a").getParent());
+        assertSame(root, tree.find(""));
+
+        CachedTreeExtension.Entry d = tree.find("a/d");
+        assertFalse(d.isValid());
+        assertNull(d.getOid());
+
+        assertSame(root, tree.find("z").getParent());
+        assertNull(tree.find("a/c"));
+        assertNull(tree.find("a/b/c"));
+        assertNull(tree.find("y"));
+    }
+
+    @Test
+    public void invalidatesOnlyEnclosingDirectories() throws IOException {
+
+        CachedTreeExtension tree = new CachedTreeExtension(sample());
+        tree.invalidate("a/b/c");
+
+        assertFalse(tree.getRoot().isValid());
+        assertFalse(tree.find("a").isValid());
+        assertFalse(tree.find("a/b").isValid());
+        assertTrue(tree.find("z").isValid());
+
+        // 无效的目录写出为-1，不再有对象id
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        record(expected, "", "-1 2", 0);
+        record(expected, "a", "-1 2", 0);
+        record(expected, "b", "-1 0", 0);
+        record(expected, "d", "-1 0", 0);
+        record(expected, "z", "4 0", 4);
+        assertArrayEquals(expected.toByteArray(), write(tree));
+    }
+
+    @Test
+    public void invalidatesNamedDirectory() throws IOException {
+
+        CachedTreeExtension tree = new CachedTreeExtension(sample());
+        tree.invalidate("z");
+
+        assertFalse(tree.getRoot().isValid());
+        assertFalse(tree.find("z").isValid());
+        assertTrue(tree.find("a").isValid());
+        assertTrue(tree.find("a/b").isValid());
+    }
+
+    @Test
+    public void parsesEmptyData() {
+        CachedTreeExtension tree = new CachedTreeExtension(new byte[0]);
+        assertNull(tree.getRoot());
+        assertNull(tree.find("a"));
+        tree.invalidate("a/b");
+    }
+
+    @Test
+    public void rejectsMalformedData() throws IOException {
+
+        byte[] data = sample();
+
+        assertMalformed("missing NUL", "abc".getBytes(StandardCharsets.US_ASCII));
+        assertMalformed("missing space", "\0" + "12\n");
+        assertMalformed("missing newline", "\0" + "12 0");
+        assertMalformed("missing number", "\0" + " 0\n");
+        assertMalformed("bare minus", "\0" + "- 0\n");
+        assertMalformed("not a number", "\0" + "1x 0\n");
+        assertMalformed("overflow", "\0" + "99999999999 0\n");
+        assertMalformed("negative subtree count", "\0" + "-1 -1\n");
+        assertMalformed("truncated oid", Arrays.copyOf(data, data.length - 1));
+        assertMalformed("missing subtree", Arrays.copyOf(data, data.length - (2 + 4 + 20)));
+
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        extra.write(data);
+        record(extra, "y", "1 0", 5);
+        assertMalformed("record after the root is complete", extra.toByteArray());
+    }
+
+    private static void assertMalformed(String message, String data) {
+        assertMalformed(message, data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertMalformed(String message, byte[] data) {
+        try {
+            new CachedTreeExtension(data);
+            fail(message);
+        } catch (IllegalStateException expected) {
+            // 数据损坏
+        }
+    }
+
+    /**
+     * @param fill 对象id的每个字节，为0时不写出对象id
+     */
+    private static void record(ByteArrayOutputStream out, String name, String counts, int fill) throws IOException {
+        out.write(name.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+        out.write(counts.getBytes(StandardCharsets.US_ASCII));
+        out.write('\n');
+        if (fill != 0) {
+            byte[] oid = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+            Arrays.fill(oid, (byte) fill);
+            out.write(oid);
+        }
+    }
+
+    private static byte[] write(Extension extension) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extension.writeData(out);
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.ithink.replay.git.model;
+
+import com.ithink.replay.git.util.Bytes;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 与按顺序保存在数组中的路径名对照，检查{@link PathDictionary}的各种访问方式
+ */
+public class PathDictionaryTest {
+
+    private static final String[] DIRECTORIES = {
+            "", "a", "ab", "b", "src", "src/main", "src/main/java", "x/y", "文档", "ÿ"
+    };
+
+    @Test
+    public void matchesSortedArrays() {
+
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+
+            List<byte[]> paths = randomPaths(random, random.nextInt(200));
+            int restartInterval = 1 + random.nextInt(20);
+
+            PathDictionary.Builder builder = new PathDictionary.Builder(restartInterval);
+            for (byte[] path : paths)
+                builder.add(path);
+            PathDictionary dictionary = builder.build();
+
+            assertEquals(paths.size(), dictionary.size());
+            for (int i = 0; i < paths.size(); i++) {
+                assertArrayEquals(paths.get(i), dictionary.get(i));
+                assertEquals(paths.get(i).length, dictionary.getLength(i));
+
+                // 只需要能放下该路径名本身
+                byte[] exact = new byte[paths.get(i).length + 1];
+                assertEquals(paths.get(i).length, dictionary.copy(i, exact, 1));
+                assertArrayEquals(paths.get(i), Arrays.copyOfRange(exact, 1, exact.length));
+            }
+
+            assertCursor(paths, dictionary, random);
+
+            for (int query = 0; query < 100; query++) {
+                byte[] path = query % 2 == 0 && !paths.isEmpty()
+                        ? mutate(random, paths.get(random.nextInt(paths.size())))
+                        : randomPath(random);
+
+                int lowerBound = 0;
+                while (lowerBound < paths.size() && Bytes.compare(paths.get(lowerBound), path) < 0)
+                    lowerBound++;
+                boolean found = lowerBound < paths.size() && Bytes.compare(paths.get(lowerBound), path) == 0;
+
+                assertEquals(found ? lowerBound : -(lowerBound + 1), dictionary.indexOf(path));
+                assertEquals(lowerBound, dictionary.lowerBound(path));
+                for (int i = 0; i < paths.size(); i++)
+                    assertEquals(Integer.signum(Bytes.compare(paths.get(i), path)), Integer.signum(dictionary.compare(i, path)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedPaths() {
+        PathDictionary.Builder builder = new PathDictionary.Builder();
+        builder.add("b".getBytes(StandardCharsets.UTF_8));
+        builder.add("a".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortCursorBuffer() {
+        PathDictionary.Builder builder = new PathDictionary.Builder();
+        builder.add("abc".getBytes(StandardCharsets.UTF_8));
+        builder.build().cursor(0, new byte[2]);
+    }
+
+    private static void assertCursor(List<byte[]> paths, PathDictionary dictionary, Random random) {
+
+        byte[] buffer = new byte[dictionary.getMaxLength()];
+        for (int from = 0; from <= paths.size(); from += 1 + random.nextInt(5)) {
+
+            PathDictionary.Cursor cursor = dictionary.cursor(from, buffer);
+            int expected = from;
+            for (int length; (length = cursor.next()) >= 0; expected++) {
+                assertEquals(expected, cursor.ordinal());
+                assertArrayEquals(paths.get(expected), Arrays.copyOf(buffer, length));
+            }
+            assertEquals(paths.size(), expected);
+        }
+    }
+
+    /**
+     * 排好序的随机路径名，包括空路径名、很长的路径名以及重复的路径名（同一路径名的多个stage）
+     */
+    private static List<byte[]> randomPaths(Random random, int count) {
+
+        List<byte[]> distinct = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            distinct.add(randomPath(random));
+        distinct.sort(Bytes::compare);
+
+        List<byte[]> paths = new ArrayList<>();
+        for (byte[] path : distinct) {
+            paths.add(path);
+            if (random.nextInt(8) == 0)
+                paths.add(path.clone());
+        }
+        return paths;
+    }
+
+    private static byte[] randomPath(Random random) {
+
+        StringBuilder path = new StringBuilder(DIRECTORIES[random.nextInt(DIRECTORIES.length)]);
+        for (int depth = random.nextInt(4); depth > 0; depth--)
+            path.append('/').append((char) ('a' + random.nextInt(3))).append(random.nextBoolean() ? "x" : "");
+        if (random.nextInt(30) == 0)
+            for (int i = 0; i < 200; i++)
+                path.append('z');
+
+        return path.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] mutate(Random random, byte[] path) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return path.clone();
+            case 1:
+                return Arrays.copyOf(path, Math.max(0, path.length - 1));
+            case 2: {
+                byte[] longer = Arrays.copyOf(path, path.length + 1);
+                longer[path.length] = (byte) random.nextInt(256);
+                return longer;
+            }
+            default: {
+                byte[] changed = path.clone();
+                if (changed.length > 0)
+                    changed[random.nextInt(changed.length)] ^= 1;
+                return changed;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.ithink.replay.git.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按REUC扩展的格式手工构造数据，检查按需解码、按路径名查找以及写回
+ */
+public class ResolveUndoExtensionTest {
+
+    /**
+     * 记录未按路径名排列，其中的stage各不相同：b只有stage 1、2，a/x有stage 1到3，c只有stage 1、3
+     */
+    private static byte[] sample() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record(out, "b", "100644", "100644", "0");
+        record(out, "a/x", "100644", "100755", "120000");
+        record(out, "c", "100644", "0", "100644");
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesParsedDataBack() throws IOException {
+        byte[] data = sample();
+        assertArrayEquals(data, write(new ResolveUndoExtension(data)));
+    }
+
+    @Test
+    public void keepsFileOrder() throws IOException {
+
+        ResolveUndoExtension reuc = new ResolveUndoExtension(sample());
+
+        assertEquals(3, reuc.getEntries().size());
+        assertEquals("b", path(reuc.getEntries().get(0)));
+        assertEquals("a/x", path(reuc.getEntries().get(1)));
+        assertEquals("c", path(reuc.getEntries().get(2)));
+    }
+
+    @Test
+    public void findsUnsortedRecords() throws IOException {
+
+        ResolveUndoExtension reuc = new ResolveUndoExtension(sample());
+
+        assertStages(reuc.find("a/x"), 0100644, 0100755, 0120000);
+        assertStages(reuc.find("b"), 0100644, 0100644, 0);
+        assertStages(reuc.find("c"), 0100644, 0, 0100644);
+        assertSame(reuc.getEntries().get(1), reuc.find("a/x"));
+
+        assertNull(reuc.find("a"));
+        assertNull(reuc.find("a/x/y"));
+        assertNull(reuc.find("d"));
+        assertTrue(reuc.contains("c".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(reuc.contains("".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void rejectsMalformedData() throws IOException {
+
+        byte[] data = sample();
+
+        assertMalformed("path without NUL", "a".getBytes(StandardCharsets.US_ASCII));
+        assertMalformed("missing modes", "a\0" + "100644\0");
+        assertMalformed("empty mode", "a\0\0" + "0\0" + "0\0");
+        assertMalformed("not octal", "a\0" + "100648\0" + "0\0" + "0\0");
+        assertMalformed("truncated oid", Arrays.copyOf(data, data.length - 1));
+    }
+
+    private static void assertStages(ResolveUndoExtension.Entry entry, int... modes) {
+        assertNotNull(entry);
+        ResolveUndoExtension.Entry.ResolveUndoInfoItem[] info = entry.getInfo();
+        for (int stage = 0; stage < 3; stage++) {
+            assertEquals(modes[stage], info[stage].getMode().toBits());
+            assertEquals(modes[stage] != 0, info[stage].getOid() != null);
+        }
+    }
+
+    private static void assertMalformed(String message, String data) {
+        assertMalformed(message, data.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertMalformed(String message, byte[] data) {
+        try {
+            new ResolveUndoExtension(data);
+            fail(message);
+        } catch (IllegalStateException expected) {
+            // 数据损坏
+        }
+    }
+
+    /**
+     * 路径名、3个八进制的entry mode，以及mode不为0的stage的对象id，对象id的每个字节都是stage
+     */
+    private static void record(ByteArrayOutputStream out, String path, String... modes) throws IOException {
+        out.write(path.getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+        for (String mode : modes) {
+            out.write(mode.getBytes(StandardCharsets.US_ASCII));
+            out.write(0);
+        }
+        for (int stage = 1; stage <= 3; stage++) {
+            if (!modes[stage - 1].equals("0")) {
+                byte[] oid = new byte[GitObject.Id.GIT_SHA1_RAWSZ];
+                Arrays.fill(oid, (byte) stage);
+                out.write(oid);
+            }
+        }
+    }
+
+    private static String path(ResolveUndoExtension.Entry entry) {
+        return new String(entry.getPathName(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] write(Extension extension) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extension.writeData(out);
+        return out.toByteArray();
+    }
+
+}